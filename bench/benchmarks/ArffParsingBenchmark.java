@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Parsing of arff text by DataHandler */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArffParsingBenchmark {
+   @Param({ "1000", "100000" })
+   public int numInstances;
+
+   @Param({ "10", "100" })
+   public int numAttributes;
+
+   private String arff;
+   private MethodHandle newDataHandler;
+
+   @Setup
+   public void setup() throws Exception {
+      arff = SyntheticData.generate(numInstances, numAttributes, 3, 1).toString();
+      newDataHandler = Bridge.constructor("DataHandler", BufferedReader.class);
+   }
+
+   @Benchmark
+   public Object parse() throws Throwable {
+      return newDataHandler.invoke(new BufferedReader(new StringReader(arff)));
+   }
+}
@@ -0,0 +1,21 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line (all of them by default) with the usual JMH
+ * options, always adding the GC profiler so that allocation rates are reported next to the times.
+ */
+public class BenchmarkMain {
+   public static void main(String[] args) throws Exception {
+      CommandLineOptions commandLine = new CommandLineOptions(args);
+      Options options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class)
+            .build();
+
+      new Runner(options).run();
+   }
+}
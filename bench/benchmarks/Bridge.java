@@ -0,0 +1,41 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Looks up the classes of the classifier module. They live in the default package, which JMH
+ * benchmarks cannot import from, so they are reached through method handles resolved once during
+ * setup; invoking a resolved handle costs about as much as a direct call.
+ */
+final class Bridge {
+   private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+   private Bridge() {}
+
+   static Class<?> type(String className) throws ClassNotFoundException {
+      return Class.forName(className);
+   }
+
+   static MethodHandle constructor(String className, Class<?>... parameters) throws Exception {
+      return LOOKUP.findConstructor(type(className), MethodType.methodType(void.class, parameters));
+   }
+
+   static MethodHandle method(String className, String name, Class<?> returnType,
+         Class<?>... parameters) throws Exception {
+      return LOOKUP.findVirtual(type(className), name,
+            MethodType.methodType(returnType, parameters));
+   }
+
+   static MethodHandle staticMethod(String className, String name, Class<?> returnType,
+         Class<?>... parameters) throws Exception {
+      return LOOKUP.findStatic(type(className), name,
+            MethodType.methodType(returnType, parameters));
+   }
+
+   /** Silence the classifiers the same way the Driver does */
+   static void silenceClassifiers() throws Throwable {
+      staticMethod("Pipeline", "silenceClassifiers", void.class).invoke();
+   }
+}
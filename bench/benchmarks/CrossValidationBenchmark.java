@@ -0,0 +1,94 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+/**
+ * Cross validation of a single base model. foldThreads = -1 calls Weka's
+ * Evaluation.crossValidateModel directly, as the baseline. Otherwise it goes through
+ * Model.evaluate, which always times the folds and so always runs FoldCrossValidator's own fold
+ * loop: on the calling thread for foldThreads = 0, on that many threads otherwise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CrossValidationBenchmark {
+   @Param({ "weka.classifiers.bayes.NaiveBayes", "weka.classifiers.lazy.IBk",
+         "weka.classifiers.bayes.BayesNet" })
+   public String classifier;
+
+   @Param({ "2000" })
+   public int numInstances;
+
+   @Param({ "-1", "0", "4" })
+   public int foldThreads;
+
+   private Instances data;
+   private Object crossValidator;
+   private MethodHandle newModel;
+   private MethodHandle setCrossValidator;
+   private MethodHandle evaluate;
+   private MethodHandle shutdown;
+
+   @Setup
+   public void setup() throws Throwable {
+      Bridge.silenceClassifiers();
+      data = SyntheticData.generate(numInstances, 10, 3, 1);
+
+      if (foldThreads < 0) {
+         return;
+      }
+
+      Class<?> validatorType = Bridge.type("FoldCrossValidator");
+      crossValidator = Bridge.constructor("FoldCrossValidator", int.class, int.class, int.class)
+            .invoke(10, 1, foldThreads);
+      newModel = Bridge.constructor("Model");
+      setCrossValidator = Bridge.method("Model", "setCrossValidator", void.class, validatorType);
+      evaluate = Bridge.method("Model", "evaluate", Bridge.type("PredictionStore"),
+            Classifier.class, Instances.class);
+      shutdown = Bridge.method("FoldCrossValidator", "shutdown", void.class);
+   }
+
+   @TearDown
+   public void tearDown() throws Throwable {
+      if (crossValidator != null) {
+         shutdown.invoke(crossValidator);
+      }
+   }
+
+   @Benchmark
+   public Object crossValidate() throws Throwable {
+      if (foldThreads < 0) {
+         Evaluation evaluation = new Evaluation(data);
+         evaluation.crossValidateModel(Classifier.forName(classifier, new String[0]), data, 10,
+               new Random(1));
+         return evaluation;
+      }
+
+      Object model = newModel.invoke();
+      setCrossValidator.invoke(model, crossValidator);
+
+      return evaluate.invoke(model, Classifier.forName(classifier, new String[0]), data);
+   }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.FastVector;
+
+/**
+ * Conversion of a model's predictions into a PredictionStore, on or off the heap, and
+ * Model.calculateAccuracy on the store
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PredictionBenchmark {
+   @Param({ "10000", "1000000" })
+   public int numInstances;
+
+   @Param({ "2", "10" })
+   public int numClasses;
+
+   @Param({ "false", "true" })
+   public boolean offHeap;
+
+   private FastVector predictions;
+   private Object store;
+   private Object model;
+   private MethodHandle toStore;
+   private MethodHandle calculateAccuracy;
+
+   @Setup
+   public void setup() throws Throwable {
+      int[] actual = SyntheticData.classes(numInstances, numClasses, 1);
+      predictions = SyntheticData.predictions(actual, numClasses, 0.8, 2);
+
+      Class<?> storeType = Bridge.type("PredictionStore");
+      toStore = Bridge.staticMethod("PredictionStore", "of", storeType, FastVector.class,
+            int.class, boolean.class, boolean.class);
+      store = toStore.invoke(predictions, numClasses, true, offHeap);
+
+      model = Bridge.constructor("Model").invoke();
+      calculateAccuracy = Bridge.method("Model", "calculateAccuracy", void.class, storeType);
+   }
+
+   @Benchmark
+   public Object toStore() throws Throwable {
+      return toStore.invoke(predictions, numClasses, true, offHeap);
+   }
+
+   @Benchmark
+   public Object calculateAccuracy() throws Throwable {
+      calculateAccuracy.invoke(model, store);
+      return model;
+   }
+}
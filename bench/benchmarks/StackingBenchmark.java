@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.lazy.IBk;
+import weka.core.Instances;
+
+/** Stacking with SVM by Aggregator.stackingWithSVM, on a small synthetic dataset */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class StackingBenchmark {
+   @Param({ "500" })
+   public int numInstances;
+
+   @Param({ "0", "4" })
+   public int foldThreads;
+
+   private Instances data;
+   private Object aggregator;
+   private Object crossValidator;
+   private MethodHandle stackingWithSVM;
+
+   @Setup
+   public void setup() throws Throwable {
+      Bridge.silenceClassifiers();
+      data = SyntheticData.generate(numInstances, 10, 3, 1);
+
+      Classifier[] models = { new NaiveBayes(), new IBk() };
+      String[] dataClasses = new String[data.numClasses()];
+      for (int k = 0; k < dataClasses.length; k++) {
+         dataClasses[k] = data.classAttribute().value(k);
+      }
+
+      aggregator = Bridge.constructor("Aggregator", Classifier[].class, HashMap.class,
+            String[].class, int.class, int.class, Bridge.type("PredictionStore")).invoke(models,
+                  new HashMap<Integer, Object>(), dataClasses, numInstances, dataClasses.length,
+                  null);
+      crossValidator = Bridge.constructor("FoldCrossValidator", int.class, int.class, int.class)
+            .invoke(10, 1, foldThreads);
+
+      Bridge.method("Aggregator", "setCrossValidator", void.class,
+            Bridge.type("FoldCrossValidator")).invoke(aggregator, crossValidator);
+      Bridge.method("Aggregator", "setResultSink", void.class, Bridge.type("ResultSink"))
+            .invoke(aggregator, Bridge.constructor("NullResultSink").invoke());
+      Bridge.method("Aggregator", "setOutput", void.class, PrintStream.class).invoke(aggregator,
+            new PrintStream(new OutputStream() {
+               public void write(int b) {}
+            }));
+
+      stackingWithSVM = Bridge.method("Aggregator", "stackingWithSVM", double.class,
+            Instances.class);
+   }
+
+   @TearDown
+   public void tearDown() throws Throwable {
+      Bridge.method("FoldCrossValidator", "shutdown", void.class).invoke(crossValidator);
+   }
+
+   @Benchmark
+   public double stacking() throws Throwable {
+      return (double) stackingWithSVM.invoke(aggregator, data);
+   }
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+import java.util.Random;
+
+import weka.classifiers.evaluation.NominalPrediction;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Generates datasets and predictions so that the benchmarks run offline. Every class is a Gaussian
+ * cloud around its own random centre, which keeps the learners' work realistic.
+ */
+final class SyntheticData {
+   private SyntheticData() {}
+
+   static Instances generate(int numInstances, int numAttributes, int numClasses, long seed) {
+      Random random = new Random(seed);
+      FastVector attributes = new FastVector(numAttributes + 1);
+      FastVector classValues = new FastVector(numClasses);
+      double[][] centres = new double[numClasses][numAttributes];
+
+      for (int a = 0; a < numAttributes; a++) {
+         attributes.addElement(new Attribute("a" + a));
+      }
+      for (int k = 0; k < numClasses; k++) {
+         classValues.addElement("c" + k);
+         for (int a = 0; a < numAttributes; a++) {
+            centres[k][a] = random.nextDouble() * 4.0;
+         }
+      }
+      attributes.addElement(new Attribute("class", classValues));
+
+      Instances data = new Instances("synthetic", attributes, numInstances);
+      data.setClassIndex(numAttributes);
+
+      for (int i = 0; i < numInstances; i++) {
+         int k = random.nextInt(numClasses);
+         double[] values = new double[numAttributes + 1];
+         for (int a = 0; a < numAttributes; a++) {
+            values[a] = centres[k][a] + random.nextGaussian();
+         }
+         values[numAttributes] = k;
+         data.add(new Instance(1.0, values));
+      }
+
+      return data;
+   }
+
+   /**
+    * Generate the predictions of a model that is right with the given probability, in the form
+    * Weka's Evaluation returns them.
+    */
+   static FastVector predictions(int[] actual, int numClasses, double accuracy, long seed) {
+      Random random = new Random(seed);
+      FastVector predictions = new FastVector(actual.length);
+
+      for (int i = 0; i < actual.length; i++) {
+         int predicted = random.nextDouble() < accuracy ? actual[i] : random.nextInt(numClasses);
+         double[] distribution = new double[numClasses];
+         distribution[predicted] = 1.0;
+         predictions.addElement(new NominalPrediction(actual[i], distribution));
+      }
+
+      return predictions;
+   }
+
+   static int[] classes(int numInstances, int numClasses, long seed) {
+      Random random = new Random(seed);
+      int[] classes = new int[numInstances];
+
+      for (int i = 0; i < numInstances; i++) {
+         classes[i] = random.nextInt(numClasses);
+      }
+
+      return classes;
+   }
+
+   /** Build a dataset holding only a class attribute, with the given class per instance */
+   static Instances classOnly(int[] classes, int numClasses) {
+      FastVector attributes = new FastVector(1);
+      FastVector classValues = new FastVector(numClasses);
+
+      for (int k = 0; k < numClasses; k++) {
+         classValues.addElement("c" + k);
+      }
+      attributes.addElement(new Attribute("class", classValues));
+
+      Instances data = new Instances("classes", attributes, classes.length);
+      data.setClassIndex(0);
+      for (int i = 0; i < classes.length; i++) {
+         data.add(new Instance(1.0, new double[] { classes[i] }));
+      }
+
+      return data;
+   }
+}
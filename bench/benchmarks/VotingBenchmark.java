@@ -0,0 +1,116 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.FastVector;
+import weka.core.Instances;
+
+/**
+ * Vote aggregation by the Aggregator at several instance, model and class counts. Per-instance
+ * results go to a NullResultSink so that only the voting itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx8g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class VotingBenchmark {
+   @Param({ "10000", "1000000" })
+   public int numInstances;
+
+   @Param({ "3", "9" })
+   public int numModels;
+
+   @Param({ "2", "10", "100" })
+   public int numClasses;
+
+   private Object aggregator;
+   private MethodHandle classify;
+   private MethodHandle setWeights;
+
+   @Setup
+   public void setup() throws Throwable {
+      int[] actual = SyntheticData.classes(numInstances, numClasses, 1);
+      Instances data = SyntheticData.classOnly(actual, numClasses);
+      Classifier[] models = new Classifier[numModels];
+      HashMap<Integer, Object> predictionPerModel = new HashMap<Integer, Object>();
+      String[] dataClasses = new String[numClasses];
+      Object predictions = null;
+
+      Class<?> storeType = Bridge.type("PredictionStore");
+      MethodHandle toStore = Bridge.staticMethod("PredictionStore", "of", storeType,
+            FastVector.class, int.class, boolean.class, boolean.class);
+      MethodHandle newModel = Bridge.constructor("Model");
+      MethodHandle setPredictions =
+            Bridge.method("Model", "setPredictions", void.class, storeType);
+      MethodHandle calculateAccuracy =
+            Bridge.method("Model", "calculateAccuracy", void.class, storeType);
+
+      for (int k = 0; k < numClasses; k++) {
+         dataClasses[k] = data.classAttribute().value(k);
+      }
+
+      for (int j = 0; j < numModels; j++) {
+         models[j] = new NaiveBayes();
+         predictions = toStore.invoke(
+               SyntheticData.predictions(actual, numClasses, 0.5 + 0.4 * j / numModels, j),
+               numClasses, true, false);
+
+         Object model = newModel.invoke();
+         setPredictions.invoke(model, predictions);
+         calculateAccuracy.invoke(model, predictions);
+         predictionPerModel.put(j, model);
+      }
+
+      aggregator = Bridge.constructor("Aggregator", Classifier[].class, HashMap.class,
+            String[].class, int.class, int.class, storeType).invoke(models,
+                  predictionPerModel, dataClasses, numInstances, numClasses, predictions);
+
+      Class<?> sinkType = Bridge.type("ResultSink");
+      Object sink = Bridge.constructor("NullResultSink").invoke();
+      Bridge.method("Aggregator", "setResultSink", void.class, sinkType).invoke(aggregator, sink);
+      Bridge.method("Aggregator", "setOutput", void.class, PrintStream.class).invoke(aggregator,
+            new PrintStream(new OutputStream() {
+               public void write(int b) {}
+            }));
+      Bridge.method("Aggregator", "populateModelList", void.class).invoke(aggregator);
+
+      classify = Bridge.method("Aggregator", "classify", double[].class, int.class);
+      setWeights = Bridge.method("Aggregator", "setWeights", void.class, int.class);
+   }
+
+   @Benchmark
+   public Object majorityVoting() throws Throwable {
+      return classify.invoke(aggregator, 0);
+   }
+
+   @Benchmark
+   public Object weightedMajorityVoting() throws Throwable {
+      return classify.invoke(aggregator, 1);
+   }
+
+   @Benchmark
+   public Object setWeights() throws Throwable {
+      setWeights.invoke(aggregator, 1);
+      return aggregator;
+   }
+}
@@ -0,0 +1,85 @@
+/**
+ * The PhaseEvent class is the JDK Flight Recorder event of a phase measured by the Profiler, so
+ * that a recording (e.g. -XX:StartFlightRecording) shows the phases of the pipeline next to the
+ * JVM's own events. Events are only created while a recording enables them. The class is only
+ * built on Java 11 and later, with mvn -Pjfr, and the Profiler loads it by name, so the module
+ * still builds and runs without the Flight Recorder API.
+ * 
+ * Parameters are: phase: the phase measured (e.g. Fold fit).
+ * 
+ * name: the model or aggregation method it belongs to.
+ * 
+ * model, fold: the position of the model in the ensemble and the fold number, or -1 when the phase
+ * does not belong to one.
+ * 
+ * allocatedBytes: the bytes allocated by the thread running the phase.
+ * 
+ * gcCount, gcTime: the garbage collections that took place while the phase ran, and their time.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("classifier.Phase")
+@Label("Classifier Phase")
+@Category("Classifier")
+@Description("A phase of the classifier pipeline measured by the Profiler")
+public class PhaseEvent extends Event {
+   @Label("Phase")
+   private String phase;
+
+   @Label("Name")
+   private String name;
+
+   @Label("Model")
+   private int model;
+
+   @Label("Fold")
+   private int fold;
+
+   @Label("Allocated")
+   @DataAmount
+   private long allocatedBytes;
+
+   @Label("GC Count")
+   private long gcCount;
+
+   @Label("GC Time")
+   @Timespan(Timespan.MILLISECONDS)
+   private long gcTime;
+
+   /** Creates and commits the events of the phases the Profiler measures */
+   public static class Recorder implements Profiler.EventRecorder {
+      /** Start the event of a phase, or return null when no recording enables it */
+      public Object begin(String phase, String name, int model, int fold) {
+         PhaseEvent event = new PhaseEvent();
+
+         if (!event.isEnabled()) {
+            return null;
+         }
+         event.phase = phase;
+         event.name = name;
+         event.model = model;
+         event.fold = fold;
+         event.begin();
+         return event;
+      }
+
+      public void commit(Object started, long allocatedBytes, long gcCount, long gcTime) {
+         PhaseEvent event = (PhaseEvent) started;
+
+         event.end();
+         if (event.shouldCommit()) {
+            event.allocatedBytes = allocatedBytes;
+            event.gcCount = gcCount;
+            event.gcTime = gcTime;
+            event.commit();
+         }
+      }
+   }
+}
@@ -0,0 +1,54 @@
+#!/bin/sh
+#
+# Start several CvWorker JVMs on this host for a coordinator listening on the loopback port, so
+# that cross validation on worker JVMs can be run and tested on a single Linux machine:
+#
+#   mvn -q compile
+#   java -Dclassifier.coordinatorPort=5005 -cp target/classes:<weka jars> Driver &
+#   CV_WORKER_TOKEN=<token printed by the coordinator> scripts/cv-workers.sh 5005 4
+#
+# Usage: scripts/cv-workers.sh <port> <workers> [<slots>]
+#
+# workers is the number of JVMs started, slots the number of folds each one trains at the same
+# time (default 1). The class path is CLASSPATH when it is set, otherwise target/classes and the
+# dependencies Maven resolves. JAVA_OPTS are passed to every worker JVM (e.g. "-Xmx2g"). The
+# workers stop once the coordinator is gone, and are all stopped when this script is interrupted.
+# CV_WORKER_TOKEN must hold the token of the coordinator: it prints the one it draws, or uses the
+# one set in its own environment.
+
+if [ $# -lt 2 ]; then
+   echo "Usage: $0 <port> <workers> [<slots>]" >&2
+   exit 1
+fi
+
+if [ -z "$CV_WORKER_TOKEN" ]; then
+   echo "$0: CV_WORKER_TOKEN must hold the token of the coordinator" >&2
+   exit 1
+fi
+export CV_WORKER_TOKEN
+
+port=$1
+workers=$2
+slots=${3:-1}
+root=$(cd "$(dirname "$0")/.." && pwd)
+
+if [ -z "$CLASSPATH" ]; then
+   dependencies=$(cd "$root" && mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)
+   CLASSPATH="$root/target/classes:$dependencies"
+fi
+
+pids=""
+trap 'kill $pids 2>/dev/null; exit 130' INT TERM
+
+i=1
+while [ "$i" -le "$workers" ]; do
+   java $JAVA_OPTS -cp "$CLASSPATH" CvWorker 127.0.0.1 "$port" "$slots" &
+   pids="$pids $!"
+   i=$((i + 1))
+done
+
+status=0
+for pid in $pids; do
+   wait "$pid" || status=1
+done
+exit $status
@@ -0,0 +1,41 @@
+/**
+ * The AccuracyWeighting class weighs the vote of each model by the accuracy it reached on the
+ * instances learned so far. Only the number of correct and total predictions of each model are
+ * kept, so the weights follow the models exactly as instances are added.
+ * 
+ * Parameters are: correct: the number of correct predictions per model.
+ * 
+ * total: the number of predictions per model.
+ * 
+ * numClasses: number of classes the arff file has.
+ */
+
+public class AccuracyWeighting implements WeightingStrategy {
+   protected long[] correct;
+   protected long[] total;
+   protected int numClasses;
+
+   public void reset(int numModels, int numClasses) {
+      this.correct = new long[numModels];
+      this.total = new long[numModels];
+      this.numClasses = numClasses;
+   }
+
+   public void update(int[] predicted, int actual) {
+      for (int j = 0; j < predicted.length; j++) {
+         if (predicted[j] == actual) {
+            correct[j]++;
+         }
+         total[j]++;
+      }
+   }
+
+   public double getWeight(int model, int predictedClass) {
+      return getAccuracy(model);
+   }
+
+   /** Get the accuracy (between 0 and 1) of the model, or 0 when it has not predicted anything */
+   public double getAccuracy(int model) {
+      return total[model] == 0 ? 0.0 : (double) correct[model] / total[model];
+   }
+}
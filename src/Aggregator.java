@@ -6,75 +6,127 @@
  * 
  * predictionPerModel: predictions produced by each model.
  * 
+ * predictions: the predictions of one of the models, from which the actual class of each instance
+ * is read.
+ * 
  * dataClasses: classes (in String) of the arff file.
  * 
  * numInstances: the number of instances the arff file has.
  * 
  * numClasses: number of classes the arff file has.
+ * 
+ * stores: the predictions of each model, in ensemble order. Votes and class distributions are read
+ * from them directly, one model at a time.
+ * 
+ * The stores are not changed once the model list is populated, and every voting run keeps its
+ * counters and results to itself, so several runs can take place at the same time on one
+ * Aggregator.
+ * 
+ * pool: the fork-join pool the instances are split across when counting votes. Without a pool, the
+ * votes are counted on the calling thread.
+ * 
+ * crossValidator: the cross validation of the stacking classifier, with the folds and seed of the
+ * run. It must be set before stacking.
+ * 
+ * sink: receives the likelihoods and predictions of every instance once they are counted.
+ * 
+ * dataset: the relation name of the dataset, which the metrics of every method are published under.
+ * 
+ * out: where the accuracy and the evaluation summaries are displayed.
  */
 
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
-import weka.classifiers.evaluation.NominalPrediction;
 import weka.classifiers.meta.Stacking;
 import weka.core.FastVector;
 import weka.core.Instances;
 import weka.classifiers.functions.LibSVM;
 
 public class Aggregator {
+   /** Number of instances handed to the result sink at a time */
+   private static final int BATCH_SIZE = 8192;
+
    private Classifier[] models;
-   private int[] classCounters;
    private String[] dataClasses;
    private String[] modDataClasses;
-   private double[] modPredictions;
-   private double[] aggrPredictions;
    private HashMap<Integer, Model> predictionPerModel;
    private ArrayList<Model> modelList;
-   private double[][] likelihoodPerInstance;
-   private double[] likelihoodList;
-   private FastVector predictions;
+   private PredictionStore[] stores;
+   private PredictionStore predictions;
    private int numInstances;
    private int numClasses;
-   private double likelihood;
-   private double temp;
-   private double aggrPred;
-   private int tieCount;
+   private FoldCrossValidator crossValidator;
+   private ForkJoinPool pool;
+   private ResultSink sink;
+   private PrintStream out;
+   private String dataset;
 
    public Aggregator(Classifier[] model, HashMap<Integer, Model> predictionPerModel,
-         String[] dataClasses, int numInstances, int numClasses, FastVector predictions) {
+         String[] dataClasses, int numInstances, int numClasses, PredictionStore predictions) {
       this.models = model;
       this.predictionPerModel = predictionPerModel;
       this.numInstances = numInstances;
       this.predictions = predictions;
       this.modelList = new ArrayList<Model>();
-      this.likelihoodPerInstance = new double[numInstances][numClasses];
-      this.likelihoodList = new double[numInstances];
       this.numClasses = numClasses;
-      this.classCounters = new int[numClasses];
       this.dataClasses = dataClasses;
       this.modDataClasses = new String[dataClasses.length + 1];
-      this.modPredictions = new double[numInstances];
-      this.aggrPredictions = new double[numInstances];
-      this.likelihood = 0.0;
-      this.temp = 0.0;
-      this.aggrPred = 0.0;
-      this.tieCount = 0;
+      this.sink = new ConsoleResultSink();
+      this.out = System.out;
+   }
+
+   public void setCrossValidator(FoldCrossValidator crossValidator) {
+      this.crossValidator = crossValidator;
    }
 
-   public void initClassCounters() {
-      for (int i = 0; i < classCounters.length; i++) {
-         classCounters[i] = 0;
+   /** Get the cross validation of the run, which stacking cannot do without */
+   private FoldCrossValidator getCrossValidator() {
+      if (crossValidator == null) {
+         throw new IllegalStateException("No cross validator set for stacking");
       }
+      return crossValidator;
+   }
+
+   public void setDataset(String dataset) {
+      this.dataset = dataset;
    }
-   
+
+   public void setPool(ForkJoinPool pool) {
+      this.pool = pool;
+   }
+
+   public void setResultSink(ResultSink sink) {
+      this.sink = sink;
+   }
+
+   public void setOutput(PrintStream out) {
+      this.out = out;
+   }
+
+   /**
+    * Collect the models in ensemble order, along with the predictions each of them made. Every
+    * model predicted the instances in the same order, so the stores are read side by side.
+    */
    public void populateModelList() {
+      stores = new PredictionStore[this.models.length];
+      modelList.clear();
+
       for (int i = 0; i < this.models.length; i++) {
          modelList.add(predictionPerModel.get(i));
+         stores[i] = predictionPerModel.get(i).getPredictions();
       }
+
+      populateModifiedPredList();
    }
 
    public void populateModifiedPredList() {
@@ -94,194 +146,668 @@ public class Aggregator {
     * classification over the number of predictions made.
     */
    public double calculateAggrAccuracy(double[] aggrPredictions) {
-      double correct = 0;
-      int ties = 0;
+      ConfusionMatrix matrix = new ConfusionMatrix(numClasses);
 
-      for (int i = 0; i < this.predictions.size(); i++) {
-         NominalPrediction np = (NominalPrediction) this.predictions.elementAt(i);
-         if (!(aggrPredictions[i] == dataClasses.length)) {
-            if (aggrPredictions[i] == np.actual()) {
-               correct++;
-            }
+      for (int i = 0; i < numInstances; i++) {
+         int actual = predictions.getActual(i);
+
+         if (actual < 0) {
+            matrix.addUnlabeled();
          } else {
-            ties++;
+            matrix.add(actual, (int) aggrPredictions[i]);
          }
       }
 
-      System.out.println("Ties found: " + ties);
-      return 100 * correct / this.predictions.size();
+      out.println("Ties found: " + matrix.getTies());
+      return matrix.getAccuracy();
    }
 
-   public double[] classify(int config) {
-      int weightTotal = 0;
+   public double[] classify(int config) throws IOException {
+      return classify(config, false);
+   }
 
-      setWeights(config);
-      
-      /** Tally predictions made by the models */
-      for (int instance = 0; instance < numInstances; instance++) {
-         for (int i = 0; i < modelList.size(); i++) {
-            String[] classIds = modelList.get(i).getPredictions();
-            weightTotal = weightTotal + modelList.get(i).getWeight();
-
-            for (int k = 0; k < numClasses; k++) {
-               if (classIds[instance] == dataClasses[k]) {
-                  classCounters[k] = classCounters[k] + modelList.get(i).getWeight();
-               }
+   /**
+    * Aggregate the predictions of the models, giving every model a single vote (config 0) or a vote
+    * weighted by its accuracy (config 1), then report the result. Hard voting counts the class each
+    * model predicted, soft voting averages the class distributions the models predicted.
+    */
+   public double[] classify(int config, boolean soft) throws IOException {
+      return report(vote(config, soft));
+   }
+
+   /**
+    * Aggregate the predictions of the models without reporting anything. The run only reads the
+    * predictions of the models, so it can take place at the same time as other runs.
+    */
+   public VoteResult vote(int config, boolean soft) {
+      return vote(config == 0 ? new UniformWeighting() : new BucketWeighting(), soft);
+   }
+
+   /**
+    * Aggregate the predictions of the models with the weights of the strategy, fitted first on the
+    * predictions the models made during cross validation. The strategy must not be shared with
+    * another run taking place at the same time.
+    */
+   public VoteResult vote(WeightingStrategy strategy, boolean soft) {
+      String title = (strategy instanceof UniformWeighting ? "" : "Weighted ")
+            + (soft ? "Soft Voting" : "Majority Voting");
+      VoteResult result = new VoteResult(title, dataClasses, numInstances, true);
+
+      Profiler.Span span = Profiler.start("Voting", title);
+
+      WeightingStrategies.fit(strategy, stores, numClasses);
+      double[][] weights = WeightingStrategies.getWeights(strategy, stores.length, numClasses);
+      VoteTask task = new VoteTask(this, weights, soft, result, 0, numInstances);
+      Tally tally = pool == null ? task.compute() : pool.invoke(task);
+
+      result.setTies(tally.ties);
+      result.setConfusionMatrix(tally.matrix);
+      result.setFinalConfusionMatrix(tally.finalMatrix);
+      Metrics.get(dataset, title).record(tally.finalMatrix, span.end());
+
+      return result;
+   }
+
+   /**
+    * Aggregate the predictions of the models as a Cascade would: for every instance, the models are
+    * asked cheapest first until the weighted vote can no longer be overturned by the margin. The
+    * cost of a model is the time (in milliseconds) it takes to predict every instance; the result
+    * holds the number of predictions used and their cost.
+    */
+   public VoteResult cascade(WeightingStrategy strategy, double[] costs, double margin) {
+      VoteResult result = new VoteResult("Cascade Voting", dataClasses, numInstances, true);
+      double[] classTotals = new double[Math.min(numInstances, BATCH_SIZE) * numClasses];
+      Tally tally = new Tally(numClasses);
+      long evaluations = 0;
+      double cost = 0;
+
+      Profiler.Span span = Profiler.start("Voting", result.getTitle());
+
+      WeightingStrategies.fit(strategy, stores, numClasses);
+      Cascade cascade = new Cascade(costs, WeightingStrategies.getWeights(strategy, stores.length,
+            numClasses), margin);
+
+      for (int from = 0; from < numInstances; from += BATCH_SIZE) {
+         int to = Math.min(from + BATCH_SIZE, numInstances);
+
+         Arrays.fill(classTotals, 0);
+         for (int instance = from; instance < to; instance++) {
+            int offset = (instance - from) * numClasses;
+            int position = 0;
+
+            while (!cascade.isDecided(position, classTotals, offset, numClasses)) {
+               int model = cascade.getModel(position);
+               cascade.addVote(position, stores[model].getVote(instance), classTotals, offset);
+               cost += costs[model];
+               position++;
             }
+            evaluations += position;
          }
 
-         /** Display the probabilities per instance */
-         System.out.print("Instance [" + (instance + 1) + "]:");
+         tally.ties += selectClasses(from, to, classTotals, result);
+         tallyPredictions(from, to, result, tally);
+      }
 
-         for (int i = 0; i < numClasses; i++) {
-            likelihoodPerInstance[instance][i] = -1;
-            if (classCounters[i] != 0) {
-               likelihood = ((double) classCounters[i] / (double) weightTotal) * 100.0;
-               likelihoodPerInstance[instance][i] = likelihood;
-               System.out.print(
-                     " " + dataClasses[i] + ": " + String.format("%.4f%%", likelihood) + " ");
-
-               /**
-                * Get the aggregated prediction by taking the predicted class with the highest
-                * likelihood value
-                */
-               if (temp < likelihood) {
-                  temp = likelihood;
-                  aggrPred = (double) i;
-                  likelihoodList[instance] = temp;
-               }
-
-               classCounters[i] = 0;
-            }
+      result.setTies(tally.ties);
+      result.setConfusionMatrix(tally.matrix);
+      result.setFinalConfusionMatrix(tally.finalMatrix);
+      result.setEvaluations(evaluations);
+      result.setCost(numInstances == 0 ? 0 : cost / numInstances);
+      Metrics.get(dataset, result.getTitle()).record(tally.finalMatrix, span.end());
+
+      return result;
+   }
+
+   /** Count the predictions of the instances from (inclusive) to (exclusive) by actual class */
+   private void tallyPredictions(int from, int to, VoteResult result, Tally tally) {
+      int[] predicted = result.getPredictions();
+      int[] finalPredictions = result.getFinalPredictions();
+
+      for (int instance = from; instance < to; instance++) {
+         int actual = predictions.getActual(instance);
+
+         if (actual < 0) {
+            tally.matrix.addUnlabeled();
+            tally.finalMatrix.addUnlabeled();
+         } else {
+            tally.matrix.add(actual, predicted[instance]);
+            tally.finalMatrix.add(actual, finalPredictions[instance]);
          }
-         System.out.println(" ");
+      }
+   }
+
+   /**
+    * Run several aggregations at the same time, one per pair of weighting strategy and soft flag,
+    * and return their results in the same order. They run one after the other when there is no
+    * pool.
+    */
+   public VoteResult[] voteAll(WeightingStrategy[] strategies, boolean[] soft) {
+      ArrayList<ForkJoinTask<VoteResult>> runs = new ArrayList<ForkJoinTask<VoteResult>>();
+      VoteResult[] results = new VoteResult[strategies.length];
 
-         /** Add aggregated prediction to list */
-         modPredictions[instance] = aggrPred;
-         aggrPredictions[instance] = aggrPred;
+      for (int i = 0; i < strategies.length; i++) {
+         final WeightingStrategy strategy = strategies[i];
+         final boolean isSoft = soft[i];
 
-         /** Check for ties */
-         populateModifiedPredList();
-         for (int i = 0; i < dataClasses.length; i++) {
-            if (likelihoodList[instance] == likelihoodPerInstance[instance][i]) {
-               tieCount++;
-               if (tieCount > 1) {
-                  /** Set the classification to "NONE" if ties are present */
-                  modPredictions[instance] = dataClasses.length;
-               }
+         runs.add(ForkJoinTask.adapt(new Callable<VoteResult>() {
+            public VoteResult call() {
+               return vote(strategy, isSoft);
             }
+         }));
+         if (pool != null) {
+            pool.execute(runs.get(i));
          }
+      }
+
+      for (int i = 0; i < strategies.length; i++) {
+         results[i] = pool == null ? runs.get(i).invoke() : runs.get(i).join();
+      }
 
-         System.out.println("Final Prediction: " + modDataClasses[(int) modPredictions[instance]]);
-         System.out.println(" ");
+      return results;
+   }
+
+   /**
+    * Display the result of an aggregation and hand every instance to the result sink, one batch at
+    * a time, then display its accuracy when ties are not classified. Returns the predictions.
+    */
+   public double[] report(VoteResult result) throws IOException {
+      out.println("---------------------------------");
+      out.println(result.getTitle());
+      out.println("---------------------------------");
+
+      sink.begin(result);
+      for (int from = 0; from < numInstances; from += BATCH_SIZE) {
+         sink.write(result, from, Math.min(from + BATCH_SIZE, numInstances));
+      }
+      sink.end(result);
 
-         /** Initialize values */
-         temp = 0.0;
-         weightTotal = 0;
-         tieCount = 0;
+      /** Add aggregated predictions to list */
+      int[] predicted = result.getPredictions();
+      double[] aggrPredictions = new double[numInstances];
+      for (int instance = 0; instance < numInstances; instance++) {
+         aggrPredictions[instance] = predicted[instance];
       }
 
       /**
        * Display the accuracy of the model if it is set to not make a classification in the presence
-       * of ties
+       * of ties, from the confusion matrix counted along with the votes
        */
-      double aggrAccuracy = calculateAggrAccuracy(modPredictions);
-      System.out.println("---------------------------------");
-      System.out.println("Modified Accuracy: " + String.format("%.4f%%", aggrAccuracy));
+      ConfusionMatrix matrix = result.getFinalConfusionMatrix();
+      out.println("Ties found: " + matrix.getTies());
+      out.println("---------------------------------");
+      out.println("Modified Accuracy: " + String.format("%.4f%%", matrix.getAccuracy()));
+      out.println("Kappa statistic: " + String.format("%.4f", matrix.getKappa()));
+      out.println("Macro F1: " + String.format("%.4f", matrix.getMacroF1()));
 
       return aggrPredictions;
    }
 
+   /**
+    * Count the weighted votes the models cast on the instances from (inclusive) to (exclusive) and
+    * store the likelihoods and predictions into the result. The votes are kept one row per model, so
+    * each model is tallied by walking a single dense array. The class counters must hold at least
+    * (to - from) * numClasses values. Returns the number of ties found.
+    */
+   public static int countVotes(int[][] votes, int[] weights, int from, int to,
+         int[] classCounters, VoteResult result) {
+      int numClasses = result.getNumClasses();
+      double[] likelihood = result.getLikelihood();
+      int[] predicted = result.getPredictions();
+      int[] finalPredictions = result.getFinalPredictions();
+      int weightTotal = 0;
+      int ties = 0;
+
+      for (int i = 0; i < weights.length; i++) {
+         weightTotal = weightTotal + weights[i];
+      }
+
+      /** Tally predictions made by the models, one model at a time */
+      Arrays.fill(classCounters, 0, (to - from) * numClasses, 0);
+      for (int i = 0; i < weights.length; i++) {
+         int[] classIds = votes[i];
+         int weight = weights[i];
+
+         for (int instance = from; instance < to; instance++) {
+            classCounters[(instance - from) * numClasses + classIds[instance]] += weight;
+         }
+      }
+
+      for (int instance = from; instance < to; instance++) {
+         int counterOffset = (instance - from) * numClasses;
+         int offset = instance * numClasses;
+         int maxCount = 0;
+         int aggrPred = numClasses;
+         int tieCount = 0;
+
+         /**
+          * Get the aggregated prediction by taking the predicted class with the highest likelihood
+          * value, counting the classes that share it
+          */
+         for (int i = 0; i < numClasses; i++) {
+            int count = classCounters[counterOffset + i];
+
+            likelihood[offset + i] = count == 0 ? -1 : ((double) count / (double) weightTotal) * 100.0;
+
+            if (count > maxCount) {
+               maxCount = count;
+               aggrPred = i;
+               tieCount = 1;
+            } else if (count != 0 && count == maxCount) {
+               tieCount++;
+            }
+         }
+
+         predicted[instance] = aggrPred;
+
+         /** Set the classification to "NONE" if ties are present */
+         finalPredictions[instance] = tieCount > 1 ? numClasses : aggrPred;
+         if (tieCount > 1) {
+            ties++;
+         }
+      }
+
+      return ties;
+   }
+
+   /**
+    * Count the votes the models cast on the instances from (inclusive) to (exclusive), where the
+    * vote of the j-th model for class k weighs weights[j][k], and store the likelihoods and
+    * predictions into the result. The likelihood of a class is its share of the weight of all the
+    * votes cast on the instance. The class totals must hold at least (to - from) * numClasses
+    * values. Returns the number of ties found.
+    */
+   public static int countWeightedVotes(int[][] votes, double[][] weights, int from, int to,
+         double[] classTotals, VoteResult result) {
+      int numClasses = result.getNumClasses();
+
+      /** Tally predictions made by the models, one model at a time */
+      Arrays.fill(classTotals, 0, (to - from) * numClasses, 0);
+      for (int i = 0; i < weights.length; i++) {
+         int[] classIds = votes[i];
+         double[] weight = weights[i];
+
+         for (int instance = from; instance < to; instance++) {
+            int classId = classIds[instance];
+            classTotals[(instance - from) * numClasses + classId] += weight[classId];
+         }
+      }
+
+      return selectClasses(from, to, classTotals, result);
+   }
+
+   /**
+    * Count the votes the models cast on the instances from (inclusive) to (exclusive), reading them
+    * from the prediction store of each model, where the vote of the j-th model for class k weighs
+    * weights[j][k]. Otherwise the same as the count on votes held in arrays.
+    */
+   public static int countWeightedVotes(PredictionStore[] stores, double[][] weights, int from,
+         int to, double[] classTotals, VoteResult result) {
+      int numClasses = result.getNumClasses();
+
+      /** Tally predictions made by the models, one model at a time */
+      Arrays.fill(classTotals, 0, (to - from) * numClasses, 0);
+      for (int i = 0; i < weights.length; i++) {
+         stores[i].addVotes(from, to, weights[i], classTotals);
+      }
+
+      return selectClasses(from, to, classTotals, result);
+   }
+
+   /**
+    * Average the weighted class distributions the models gave to the instances from (inclusive) to
+    * (exclusive), where the probability the j-th model gives to class k weighs weights[j][k], and
+    * store the likelihoods and predictions into the result. Each model adds the distributions of
+    * its store to the class totals in one pass over a contiguous range of its column. The class
+    * totals must hold at least (to - from) * numClasses values. Returns the number of ties found.
+    */
+   public static int accumulateDistributions(PredictionStore[] stores, double[][] weights,
+         int from, int to, double[] classTotals, VoteResult result) {
+      int numClasses = result.getNumClasses();
+
+      /** Add up the distributions predicted by the models, one model at a time */
+      Arrays.fill(classTotals, 0, (to - from) * numClasses, 0);
+      for (int i = 0; i < weights.length; i++) {
+         if (isConstant(weights[i]) && weights[i][0] == 0) {
+            continue;
+         }
+         stores[i].addDistributions(from, to, weights[i], classTotals);
+      }
+
+      return selectClasses(from, to, classTotals, result);
+   }
+
+   /**
+    * Turn the class totals of the instances from (inclusive) to (exclusive) into likelihoods (the
+    * share of the total of the instance, in percent, or -1 for a class with nothing) and take the
+    * class with the highest total, counting the classes that share it. Returns the number of ties
+    * found.
+    */
+   public static int selectClasses(int from, int to, double[] classTotals, VoteResult result) {
+      int numClasses = result.getNumClasses();
+      double[] likelihood = result.getLikelihood();
+      int[] predicted = result.getPredictions();
+      int[] finalPredictions = result.getFinalPredictions();
+      int ties = 0;
+
+      for (int instance = from; instance < to; instance++) {
+         int totalOffset = (instance - from) * numClasses;
+         int offset = instance * numClasses;
+         double instanceTotal = 0;
+         double maxTotal = 0;
+         int aggrPred = numClasses;
+         int tieCount = 0;
+
+         for (int i = 0; i < numClasses; i++) {
+            double total = classTotals[totalOffset + i];
+
+            instanceTotal = instanceTotal + total;
+            if (total > maxTotal) {
+               maxTotal = total;
+               aggrPred = i;
+               tieCount = 1;
+            } else if (total != 0 && total == maxTotal) {
+               tieCount++;
+            }
+         }
+
+         for (int i = 0; i < numClasses; i++) {
+            double total = classTotals[totalOffset + i];
+            likelihood[offset + i] = total == 0 ? -1 : (total / instanceTotal) * 100.0;
+         }
+
+         predicted[instance] = aggrPred;
+
+         /** Set the classification to "NONE" if ties are present */
+         finalPredictions[instance] = tieCount > 1 ? numClasses : aggrPred;
+         if (tieCount > 1) {
+            ties++;
+         }
+      }
+
+      return ties;
+   }
+
+   private static boolean isConstant(double[] values) {
+      for (int i = 1; i < values.length; i++) {
+         if (values[i] != values[0]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
    /**
     * Majority Voting takes the predictions made by the models and counts the number of votes each
     * class received. Outputs are in probabilities in the case that the models have casted different
     * votes.
     */
-   public double[] majorityVoting() {
-      System.out.println("---------------------------------");
-      System.out.println("Majority Voting");
-      System.out.println("---------------------------------");
-
+   public double[] majorityVoting() throws IOException {
       return classify(0);
    }
 
    /**
     * This method is used in order to determine the weights the models will be assigned with during
     * the Majority Voting phase. Weights were determined depending on the model's produced accuracy.
+    * The voting runs themselves take their weights from a WeightingStrategy, which leaves the
+    * models unchanged.
     */
    public void setWeights(int config) {
-      int accuracy = 0;
+      int weight = 0;
 
       for (int i = 0; i < models.length; i++) {
          if (config == 1) {
-            accuracy = (int) modelList.get(i).getAccuracy();
-
-            if (accuracy > 90) {
-               modelList.get(i).setWeight(9);
-            } else if (accuracy > 80) {
-               modelList.get(i).setWeight(8);
-            } else if (accuracy > 70) {
-               modelList.get(i).setWeight(7);
-            } else if (accuracy > 60) {
-               modelList.get(i).setWeight(6);
-            } else if (accuracy > 50) {
-               modelList.get(i).setWeight(5);
-            } else if (accuracy > 40) {
-               modelList.get(i).setWeight(4);
-            } else if (accuracy > 30) {
-               modelList.get(i).setWeight(3);
-            } else if (accuracy > 20) {
-               modelList.get(i).setWeight(2);
-            } else if (accuracy > 10) {
-               modelList.get(i).setWeight(1);
+            weight = getWeight(modelList.get(i).getAccuracy());
+
+            if (weight > 0) {
+               modelList.get(i).setWeight(weight);
             }
          }
       }
    }
 
+   /**
+    * Map the accuracy of a model to its weight, from 9 above 90% down to 1 above 10%. Returns 0 when
+    * the accuracy is too low to be given a weight.
+    */
+   public static int getWeight(double modelAccuracy) {
+      int accuracy = (int) modelAccuracy;
+
+      if (accuracy > 90) {
+         return 9;
+      } else if (accuracy > 80) {
+         return 8;
+      } else if (accuracy > 70) {
+         return 7;
+      } else if (accuracy > 60) {
+         return 6;
+      } else if (accuracy > 50) {
+         return 5;
+      } else if (accuracy > 40) {
+         return 4;
+      } else if (accuracy > 30) {
+         return 3;
+      } else if (accuracy > 20) {
+         return 2;
+      } else if (accuracy > 10) {
+         return 1;
+      }
+      return 0;
+   }
+
    /**
     * Weighted Majority Voting takes the predictions made by the models and counts the number of
     * votes each class received. This time, weights are assigned to each vote a model casts. Outputs
     * are in probabilities in the case that the models have casted different votes.
     */
-   public double[] weightedMajorityVoting() {
-      System.out.println("---------------------------------");
-      System.out.println("Weighted Majority Voting");
-      System.out.println("---------------------------------");
-
+   public double[] weightedMajorityVoting() throws IOException {
       return classify(1);
    }
 
+   /**
+    * Soft Voting averages the class distributions predicted by the models instead of counting the
+    * classes they predicted, so a model that is unsure of its prediction weighs less. Weighted Soft
+    * Voting (config 1) weighs each distribution by the accuracy of its model.
+    */
+   public double[] softVoting(int config) throws IOException {
+      return classify(config, true);
+   }
+
    /**
     * Stacking with SVM takes the predictions made by the models and uses them as a feature set. The
     * meta-classifier used is the SVM, trained using 10-fold cross validation. Outputs are a single
-    * class prediction made by the meta-classifier.
+    * class prediction made by the meta-classifier. Returns the accuracy of the meta-classifier.
     */
-   public void stackingWithSVM(Instances trainingSet) throws Exception {
+   public double stackingWithSVM(Instances trainingSet) throws Exception {
       /** Set stacking classifier to SVM */
       Stacking stackSVM = new Stacking();
       LibSVM libsvm = new LibSVM();
-      Model model = new Model();
       stackSVM.setClassifiers(models);
 
       stackSVM.setMetaClassifier(libsvm);
-      Evaluation eval = new Evaluation(trainingSet);
+      Evaluation eval;
+
+      /** Use the cross validation of the run in order to train the meta-classifier */
+      FoldCrossValidator validator = getCrossValidator();
+      Profiler.Span span = Profiler.start("Stacking", "Stacking with SVM");
+      try {
+         eval = validator.crossValidateModel(stackSVM, trainingSet);
+      } finally {
+         span.end();
+      }
+      out.println(eval.toSummaryString(
+            "---------------------------------\n Stacking with SVM\n---------------------------------",
+            false));
 
-      /** Use 10-fold cross validation in order to train the meta-classifier */
-      eval.crossValidateModel(stackSVM, trainingSet, 10, new Random(1));
-      System.out.println(eval.toSummaryString(
+      return summarizeStacking("Stacking with SVM", eval.predictions(), trainingSet);
+   }
+
+   /**
+    * Stacking from out-of-fold predictions uses the predictions the models already made during
+    * their cross validation as the feature set of the meta-classifier, so the models are not
+    * trained again. The meta-classifier used is the SVM, evaluated using cross validation on the
+    * meta-level dataset. Returns the accuracy of the meta-classifier.
+    */
+   public double stackingFromPredictions(Instances trainingSet, boolean useDistributions)
+         throws Exception {
+      return stackingFromPredictions(trainingSet, useDistributions, false);
+   }
+
+   /**
+    * Stack the predictions the base models already made, shuffling the meta-level dataset into
+    * stratified folds when asked, for predictions that are not in the order of the cross validation
+    */
+   public double stackingFromPredictions(Instances trainingSet, boolean useDistributions,
+         boolean shuffle) throws Exception {
+      OutOfFoldStacking stacking = new OutOfFoldStacking(useDistributions, getCrossValidator());
+      Instances metaData;
+      Evaluation eval;
+
+      Profiler.Span span = Profiler.start("Stacking", "Stacking with SVM (out of fold)");
+      try {
+         metaData = stacking.buildMetaData(modelList, trainingSet.classAttribute());
+         eval = stacking.evaluate(new LibSVM(), shuffle);
+      } finally {
+         span.end();
+      }
+      out.println(eval.toSummaryString(
             "---------------------------------\n Stacking with SVM\n---------------------------------",
             false));
 
-      /** Get predictions made by the meta-classifier */
-      FastVector predictions = eval.predictions();
-      model.setPredictions(trainingSet, predictions);
-      String[] predList = model.getPredictions();
+      return summarizeStacking("Stacking with SVM", eval.predictions(), metaData);
+   }
+
+   /**
+    * Score the predictions the base models made with a meta-classifier trained by an earlier run,
+    * instead of cross validating a new one. The rows it was trained on are scored in-sample.
+    */
+   public double stackingWithMetaClassifier(Instances trainingSet, boolean useDistributions,
+         Classifier metaClassifier) throws Exception {
+      OutOfFoldStacking stacking = new OutOfFoldStacking(useDistributions, null);
+      Instances metaData;
+      Evaluation eval;
+
+      Profiler.Span span = Profiler.start("Stacking", "Stacking with SVM (saved)");
+      try {
+         metaData = stacking.buildMetaData(modelList, trainingSet.classAttribute());
+         eval = new Evaluation(metaData);
+         eval.evaluateModel(metaClassifier, metaData);
+      } finally {
+         span.end();
+      }
+      out.println(eval.toSummaryString("---------------------------------\n"
+            + " Stacking with SVM (meta-classifier of an earlier run)\n"
+            + "---------------------------------", false));
+
+      return summarizeStacking("Stacking with SVM", eval.predictions(), metaData);
+   }
+
+   /** Train the meta-classifier on the whole meta-level dataset, for later runs to score with */
+   public Classifier trainStacking(Instances trainingSet, boolean useDistributions)
+         throws Exception {
+      OutOfFoldStacking stacking = new OutOfFoldStacking(useDistributions, null);
+
+      stacking.buildMetaData(modelList, trainingSet.classAttribute());
+      return stacking.train(new LibSVM());
+   }
+
+   /**
+    * Hand the prediction per instance made by the meta-classifier to the result sink and return its
+    * accuracy
+    */
+   private double summarizeStacking(String title, FastVector predictions, Instances data)
+         throws IOException {
+      PredictionStore store = PredictionStore.of(predictions, data.numClasses(), false, false);
+      int[] predList = store.getVotes();
+
+      VoteResult result = new VoteResult(title, dataClasses, predList.length, false);
+      System.arraycopy(predList, 0, result.getPredictions(), 0, predList.length);
+      System.arraycopy(predList, 0, result.getFinalPredictions(), 0, predList.length);
+
+      sink.begin(result);
+      for (int from = 0; from < predList.length; from += BATCH_SIZE) {
+         sink.write(result, from, Math.min(from + BATCH_SIZE, predList.length));
+      }
+      sink.end(result);
+
+      ConfusionMatrix matrix = ConfusionMatrix.of(store);
+      Metrics.get(dataset, title).update(matrix);
+      return matrix.getAccuracy();
+   }
+
+   /**
+    * Count the votes on a range of instances, splitting it in halves until it is no larger than a
+    * batch. Every batch has its own counters and writes to its own part of the result; the ties and
+    * confusion matrices of the batches are merged.
+    */
+   private static class VoteTask extends RecursiveTask<Tally> {
+      private static final long serialVersionUID = 1L;
+
+      private Aggregator aggregator;
+      private double[][] weights;
+      private boolean soft;
+      private VoteResult result;
+      private int from;
+      private int to;
+
+      public VoteTask(Aggregator aggregator, double[][] weights, boolean soft, VoteResult result,
+            int from, int to) {
+         this.aggregator = aggregator;
+         this.weights = weights;
+         this.soft = soft;
+         this.result = result;
+         this.from = from;
+         this.to = to;
+      }
+
+      protected Tally compute() {
+         if (to - from > BATCH_SIZE && aggregator.pool != null) {
+            int middle = from + (to - from) / 2;
+            VoteTask left = new VoteTask(aggregator, weights, soft, result, from, middle);
+            VoteTask right = new VoteTask(aggregator, weights, soft, result, middle, to);
+
+            left.fork();
+            Tally tally = right.compute();
+            tally.merge(left.join());
+            return tally;
+         }
+
+         int numClasses = aggregator.numClasses;
+         double[] classTotals = new double[Math.min(to - from, BATCH_SIZE) * numClasses];
+         Tally tally = new Tally(numClasses);
+
+         for (int start = from; start < to; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, to);
+
+            if (soft) {
+               tally.ties += accumulateDistributions(aggregator.stores, weights, start, end,
+                     classTotals, result);
+            } else {
+               tally.ties += countWeightedVotes(aggregator.stores, weights, start, end, classTotals,
+                     result);
+            }
+         }
+
+         aggregator.tallyPredictions(from, to, result, tally);
+
+         return tally;
+      }
+   }
+
+   /** The ties and confusion matrices counted on a range of instances */
+   private static class Tally {
+      private int ties;
+      private ConfusionMatrix matrix;
+      private ConfusionMatrix finalMatrix;
+
+      public Tally(int numClasses) {
+         this.matrix = new ConfusionMatrix(numClasses);
+         this.finalMatrix = new ConfusionMatrix(numClasses);
+      }
 
-      /** Display the prediction per instance */
-      for (int i = 0; i < predList.length; i++) {
-         System.out.println("Instance [" + (i + 1) + "]: " + predList[i]);
-         System.out.println(" ");
+      public void merge(Tally other) {
+         ties += other.ties;
+         matrix.merge(other.matrix);
+         finalMatrix.merge(other.finalMatrix);
       }
    }
 }
@@ -0,0 +1,226 @@
+/**
+ * The ApproximateEvaluator class estimates the accuracy of the ensemble quickly, for checking a new
+ * configuration before running it on the whole dataset. The same Pipeline (cross validation of the
+ * base models, voting and stacking) runs on stratified subsamples of the dataset, each twice the
+ * size of the one before, and the accuracy of every model and aggregation method is reported with
+ * its confidence interval after every round. It stops as soon as every interval is within the
+ * margin, or once the subsample is the whole dataset.
+ * 
+ * A subsample keeps the share of every class the dataset has, and every subsample holds the
+ * instances of the ones before it. The intervals are Wilson score intervals on the number of
+ * instances of the subsample. Subsamples are named after the dataset with "@sample" appended, so
+ * that the metrics of the rounds are never recorded as those of the dataset.
+ * 
+ * Parameters are: models: the base models of the ensemble. Every round works on its own copies.
+ * 
+ * config: the settings of the run, where the size of the first subsample, the margin and the
+ * confidence are read from. The rounds run on a copy of it that keeps nothing on disk: no model
+ * trained on the full dataset, no cached results and no metrics file, since they would hold the
+ * results of a subsample.
+ * 
+ * crossValidator: the cross validation used on every subsample.
+ * 
+ * out: where the estimates of every round are displayed. The output of the pipeline itself is not.
+ */
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.Statistics;
+
+public class ApproximateEvaluator {
+   /** Appended to the relation name of the dataset to name its subsamples */
+   private static final String SAMPLE_SUFFIX = "@sample";
+
+   private Classifier[] models;
+   private RunConfig config;
+   private FoldCrossValidator crossValidator;
+   private PrintStream out;
+
+   public ApproximateEvaluator(Classifier[] models, RunConfig config,
+         FoldCrossValidator crossValidator, PrintStream out) {
+      this.models = models;
+      this.config = config.copy();
+      this.crossValidator = crossValidator;
+      this.out = out;
+
+      if (config.isIncremental()) {
+         throw new IllegalArgumentException(
+               "Approximate evaluation cannot keep incremental state, unset incrementalDir");
+      }
+      this.config.setModelDir(null);
+      this.config.setResultCacheDir(null);
+      this.config.setMetricsFile(null);
+   }
+
+   /**
+    * Run the pipeline on growing subsamples until every accuracy is known within the margin, and
+    * return the pipeline of the last round. The per-instance results of the rounds are discarded.
+    */
+   public Pipeline run(DataHandler dataHandler) throws Exception {
+      Instances data = dataHandler.getData();
+      int[][] strata = stratify(data, new Random(config.getSeed()));
+      double z = Statistics.normalInverse(1 - (1 - config.getApproxConfidence()) / 2);
+      PrintStream quiet = new PrintStream(new OutputStream() {
+         /** The pipeline of a round reports nothing, only its estimates are displayed */
+         public void write(int b) {}
+      });
+      long start = System.currentTimeMillis();
+      int minimum = config.getNumFolds() * 2;
+      Pipeline pipeline = null;
+      boolean done = false;
+
+      out.println("*********************************");
+      out.println("Approximate Evaluation (" + String.format("%.0f%%", 100
+            * config.getApproxConfidence()) + " confidence, margin "
+            + String.format("%.2f", config.getApproxMargin()) + " points)");
+
+      for (int round = 1, size = Math.max(config.getApproxStart(), minimum); !done; round++) {
+         Instances sample = sample(data, strata, size);
+         long roundStart = System.currentTimeMillis();
+         Classifier[] copies = new Classifier[models.length];
+
+         for (int j = 0; j < models.length; j++) {
+            copies[j] = Classifier.makeCopy(models[j]);
+         }
+         pipeline = new Pipeline(copies, config, crossValidator, quiet);
+         pipeline.run(new DataHandler(sample), new NullResultSink());
+
+         out.println("---------------------------------");
+         out.println("Round " + round + ": " + sample.numInstances() + " of "
+               + data.numInstances() + " instances ("
+               + String.format("%.1f%%", 100.0 * sample.numInstances() / data.numInstances())
+               + ", " + (System.currentTimeMillis() - roundStart) + " ms)");
+
+         double widest = 0;
+         List<String> names = new ArrayList<String>();
+         List<Double> accuracies = new ArrayList<Double>();
+         getAccuracies(pipeline, copies, names, accuracies);
+         for (int i = 0; i < names.size(); i++) {
+            double[] interval = getInterval(accuracies.get(i), sample.numInstances(), z);
+            widest = Math.max(widest, (interval[1] - interval[0]) / 2);
+            out.println(names.get(i) + ": " + String.format("%.4f%% [%.4f%%, %.4f%%]",
+                  accuracies.get(i), interval[0], interval[1]));
+         }
+
+         if (widest <= config.getApproxMargin()) {
+            out.println("---------------------------------");
+            out.println("Stopped: every interval is within "
+                  + String.format("%.2f", config.getApproxMargin()) + " points");
+            done = true;
+         } else if (sample.numInstances() >= data.numInstances()) {
+            out.println("---------------------------------");
+            out.println("Stopped: the whole dataset was used");
+            done = true;
+         }
+         size = (int) Math.min(data.numInstances(), 2L * size);
+      }
+
+      out.println("Elapsed time: " + (System.currentTimeMillis() - start) + " ms");
+      out.println("*********************************");
+      return pipeline;
+   }
+
+   /** List the accuracy of every model and of every aggregation method that was run */
+   private static void getAccuracies(Pipeline pipeline, Classifier[] copies, List<String> names,
+         List<Double> accuracies) {
+      for (int j = 0; j < copies.length; j++) {
+         names.add(copies[j].getClass().getSimpleName());
+         accuracies.add(pipeline.getPredictionPerModel().get(j).getAccuracy());
+      }
+
+      String[] methods = { "Majority Voting", "Weighted Majority Voting", "Soft Voting",
+            "Weighted Soft Voting", "Cascade Voting", "Stacking with SVM" };
+      double[] methodAccuracies = { pipeline.getMajorityAccuracy(),
+            pipeline.getWeightedAccuracy(), pipeline.getSoftAccuracy(),
+            pipeline.getWeightedSoftAccuracy(), pipeline.getCascadeAccuracy(),
+            pipeline.getStackingAccuracy() };
+      for (int i = 0; i < methods.length; i++) {
+         if (methodAccuracies[i] >= 0) {
+            names.add(methods[i]);
+            accuracies.add(methodAccuracies[i]);
+         }
+      }
+   }
+
+   /**
+    * Get the Wilson score interval (in percent) of an accuracy (in percent) measured on the number
+    * of instances, for the quantile of the normal distribution
+    */
+   public static double[] getInterval(double accuracy, int numInstances, double z) {
+      double p = accuracy / 100;
+      double n = Math.max(1, numInstances);
+      double denominator = 1 + z * z / n;
+      double center = (p + z * z / (2 * n)) / denominator;
+      double halfWidth =
+            z / denominator * Math.sqrt(p * (1 - p) / n + z * z / (4 * n * n));
+
+      return new double[] { 100 * Math.max(0, center - halfWidth),
+            100 * Math.min(1, center + halfWidth) };
+   }
+
+   /**
+    * Group the positions of the instances by class (instances without a class make a group of
+    * their own), each group in a random order. A subsample takes the first instances of each group.
+    */
+   private static int[][] stratify(Instances data, Random random) {
+      List<List<Integer>> groups = new ArrayList<List<Integer>>();
+      int[][] strata;
+
+      for (int k = 0; k <= data.numClasses(); k++) {
+         groups.add(new ArrayList<Integer>());
+      }
+      for (int i = 0; i < data.numInstances(); i++) {
+         groups.get(data.instance(i).classIsMissing() ? data.numClasses()
+               : (int) data.instance(i).classValue()).add(i);
+      }
+
+      strata = new int[groups.size()][];
+      for (int k = 0; k < groups.size(); k++) {
+         Collections.shuffle(groups.get(k), random);
+         strata[k] = new int[groups.get(k).size()];
+         for (int i = 0; i < strata[k].length; i++) {
+            strata[k][i] = groups.get(k).get(i);
+         }
+      }
+
+      return strata;
+   }
+
+   /**
+    * Draw a subsample of about the size, keeping the share of every group and at least one
+    * instance of each. The instances stay in the order of the dataset.
+    */
+   private static Instances sample(Instances data, int[][] strata, int size) {
+      if (size >= data.numInstances()) {
+         /** The last round runs on the whole dataset, but is still a round */
+         Instances sample = new Instances(data);
+         sample.setRelationName(data.relationName() + SAMPLE_SUFFIX);
+         return sample;
+      }
+
+      int[] positions = new int[data.numInstances()];
+      int count = 0;
+      for (int[] group : strata) {
+         int quota = (int) Math.round((double) size * group.length / data.numInstances());
+         quota = Math.min(group.length, Math.max(group.length == 0 ? 0 : 1, quota));
+         System.arraycopy(group, 0, positions, count, quota);
+         count += quota;
+      }
+      Arrays.sort(positions, 0, count);
+
+      Instances sample = new Instances(data, count);
+      sample.setRelationName(data.relationName() + SAMPLE_SUFFIX);
+      for (int i = 0; i < count; i++) {
+         sample.add(data.instance(positions[i]));
+      }
+      return sample;
+   }
+}
@@ -0,0 +1,104 @@
+/**
+ * The AsyncResultSink class hands the batches of another sink to a single background thread, so
+ * that formatting and writing results never blocks the thread counting the votes. Batches are
+ * consumed in the order they were written, and end() waits until every batch has been consumed.
+ * The thread is started by the first batch of a run and stopped by end(), so that a sink left
+ * behind once its run is over holds no thread.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class AsyncResultSink implements ResultSink {
+   private ResultSink sink;
+   private ExecutorService writer;
+   private Future<?> lastBatch;
+
+   public AsyncResultSink(ResultSink sink) {
+      this.sink = sink;
+   }
+
+   public void begin(final VoteResult result) throws IOException {
+      submit(new SinkTask() {
+         public void run(ResultSink sink) throws IOException {
+            sink.begin(result);
+         }
+      });
+   }
+
+   public void write(final VoteResult result, final int from, final int to) throws IOException {
+      submit(new SinkTask() {
+         public void run(ResultSink sink) throws IOException {
+            sink.write(result, from, to);
+         }
+      });
+   }
+
+   public void end(final VoteResult result) throws IOException {
+      submit(new SinkTask() {
+         public void run(ResultSink sink) throws IOException {
+            sink.end(result);
+         }
+      });
+
+      try {
+         lastBatch.get();
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new IOException(ex);
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof IOException) {
+            throw (IOException) ex.getCause();
+         }
+         throw new IOException(ex.getCause());
+      } finally {
+         shutdown();
+      }
+   }
+
+   /**
+    * Queue the task behind the previous ones. A task is skipped once an earlier one failed, and the
+    * failure is reported by end().
+    */
+   private void submit(final SinkTask task) {
+      final Future<?> previous = lastBatch;
+
+      if (writer == null) {
+         writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+               Thread thread = new Thread(task, "result-sink");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+
+      lastBatch = writer.submit(new Callable<Void>() {
+         public Void call() throws Exception {
+            if (previous != null) {
+               previous.get();
+            }
+            task.run(sink);
+            return null;
+         }
+      });
+   }
+
+   /** Stop the thread once the batches queued are consumed; the next batch starts a new one */
+   public void shutdown() {
+      if (writer != null) {
+         writer.shutdown();
+         writer = null;
+         lastBatch = null;
+      }
+   }
+
+   private interface SinkTask {
+      void run(ResultSink sink) throws IOException;
+   }
+}
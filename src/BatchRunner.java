@@ -0,0 +1,344 @@
+/**
+ * The BatchRunner class runs the classifier module without any user interaction, so that it can be
+ * used on headless servers or from a scheduler. Every dataset is processed by the same Pipeline as
+ * the Driver, several datasets at a time, and its results are written to its own output directory.
+ * 
+ * Usage: java BatchRunner [options] -d <arff file or glob> [-d ...]
+ * 
+ * -d <path>: an arff file, a glob (e.g. "data/**.arff") or @file listing one path per line.
+ * 
+ * -c "<classifier> [options]": a base model, e.g. "weka.classifiers.lazy.IBk -K 3". Defaults to
+ * Naive Bayes, K-Nearest Neighbor and Bayes Net.
+ * 
+ * -x <folds>: the number of cross validation folds (default 10).
+ * 
+ * -s <seed>: the seed used to shuffle the datasets (default 1).
+ * 
+ * -a <methods>: the aggregation methods: majority, weighted, soft, weightedsoft, cascade, stacking
+ * (default majority, weighted and stacking).
+ * 
+ * -t <threads>: the number of datasets processed at the same time (default 1).
+ * 
+ * -o <dir>: the output directory (default "results").
+ * 
+ * -f <format>: the format of the per-instance results: csv, tsv, columnar, summary or none (default
+ * csv).
+ * 
+ * -w <weighting>: the weighting strategy of the weighted methods: bucket, accuracy, logodds, class
+ * or hedge[:beta] (default bucket).
+ * 
+ * -p <search>: tune the options of the base models first by a grid, random or halving search (see
+ * HyperparameterSearch). By default the models keep their options.
+ * 
+ * -e <margin>: estimate the accuracies on growing stratified subsamples until every confidence
+ * interval is within the margin (in percentage points), instead of cross validating on the whole
+ * dataset (see ApproximateEvaluator). No per-instance results are written then.
+ * 
+ * Each dataset gets a directory holding a report of its run (report.txt) and its per-instance
+ * results. The accuracies of every dataset are collected in summary.tsv.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import weka.classifiers.Classifier;
+import weka.core.Utils;
+
+public class BatchRunner {
+   private static final String[] DEFAULT_MODELS = {
+         "weka.classifiers.bayes.NaiveBayes", /** Naive Bayes */
+         "weka.classifiers.lazy.IBk", /** K-Nearest Neighbor */
+         "weka.classifiers.bayes.BayesNet" /** Maximum Entropy */
+   };
+
+   private List<File> datasets;
+   private List<String> modelSpecs;
+   private RunConfig config;
+   private int datasetThreads;
+   private File outputDir;
+
+   public BatchRunner(List<File> datasets, List<String> modelSpecs, RunConfig config,
+         int datasetThreads, File outputDir) {
+      this.datasets = datasets;
+      this.modelSpecs = modelSpecs;
+      this.config = config;
+      this.datasetThreads = Math.max(1, datasetThreads);
+      this.outputDir = outputDir;
+   }
+
+   public static void main(String[] args) throws Exception {
+      /** Never load the user interface, even by accident */
+      System.setProperty("java.awt.headless", "true");
+
+      RunConfig config = RunConfig.fromSystemProperties();
+      List<File> datasets = new ArrayList<File>();
+      List<String> modelSpecs = new ArrayList<String>();
+      int datasetThreads = 1;
+      String outputDir = "results";
+      config.setSink("csv");
+
+      for (int i = 0; i < args.length; i++) {
+         String option = args[i];
+         if (i + 1 >= args.length) {
+            throw new IllegalArgumentException("Missing value for option " + option);
+         }
+         String value = args[++i];
+
+         if (option.equals("-d")) {
+            datasets.addAll(expand(value));
+         } else if (option.equals("-c")) {
+            modelSpecs.add(value);
+         } else if (option.equals("-x")) {
+            config.setNumFolds(Integer.parseInt(value));
+         } else if (option.equals("-s")) {
+            config.setSeed(Integer.parseInt(value));
+         } else if (option.equals("-a")) {
+            config.setMethods(value);
+         } else if (option.equals("-t")) {
+            datasetThreads = Integer.parseInt(value);
+         } else if (option.equals("-o")) {
+            outputDir = value;
+         } else if (option.equals("-f")) {
+            config.setSink(value);
+         } else if (option.equals("-w")) {
+            config.setWeighting(value);
+         } else if (option.equals("-p")) {
+            config.setSearch(value);
+         } else if (option.equals("-e")) {
+            config.setApproximate(true);
+            config.setApproxMargin(Double.parseDouble(value));
+         } else {
+            throw new IllegalArgumentException("Unknown option: " + option);
+         }
+      }
+
+      if (datasets.isEmpty()) {
+         throw new IllegalArgumentException("No dataset given, use -d <arff file or glob>");
+      }
+      if (modelSpecs.isEmpty()) {
+         Collections.addAll(modelSpecs, DEFAULT_MODELS);
+      }
+
+      Pipeline.silenceClassifiers();
+
+      BatchRunner runner = new BatchRunner(datasets, modelSpecs, config, datasetThreads,
+            new File(outputDir));
+      if (runner.run() > 0) {
+         System.exit(1);
+      }
+   }
+
+   /** Process every dataset and return the number of datasets that failed */
+   public int run() throws Exception {
+      final FoldCrossValidator crossValidator = config.createCrossValidator();
+      ExecutorService pool = Executors.newFixedThreadPool(datasetThreads);
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      int failures = 0;
+
+      outputDir.mkdirs();
+      PrintWriter summary = new PrintWriter(new File(outputDir, "summary.tsv"), "UTF-8");
+      summary.println(getSummaryHeader());
+
+      try {
+         for (int i = 0; i < datasets.size(); i++) {
+            final File dataset = datasets.get(i);
+            final File datasetDir = new File(outputDir,
+                  String.format("%03d-%s", i + 1, dataset.getName().replaceAll("\\.arff$", "")));
+
+            results.add(pool.submit(new Callable<String>() {
+               public String call() throws Exception {
+                  return runDataset(dataset, datasetDir, crossValidator);
+               }
+            }));
+         }
+
+         /** Collect the summaries in the order the datasets were given */
+         for (int i = 0; i < datasets.size(); i++) {
+            String line;
+            try {
+               line = results.get(i).get();
+               System.out.println("Done: " + datasets.get(i));
+            } catch (ExecutionException ex) {
+               failures++;
+               line = datasets.get(i).getPath() + "\tFAILED: " + ex.getCause();
+               System.out.println("Failed: " + datasets.get(i) + " (" + ex.getCause() + ")");
+               ex.getCause().printStackTrace(Pipeline.getErrorStream());
+            }
+            summary.println(line);
+            summary.flush();
+         }
+      } finally {
+         summary.close();
+         pool.shutdown();
+         crossValidator.shutdown();
+      }
+
+      return failures;
+   }
+
+   /** Run the pipeline on the dataset and return its line of the summary */
+   private String runDataset(File dataset, File datasetDir, FoldCrossValidator crossValidator)
+         throws Exception {
+      long start = System.currentTimeMillis();
+      Classifier[] models = createModels();
+
+      datasetDir.mkdirs();
+      PrintStream report = new PrintStream(
+            new FileOutputStream(new File(datasetDir, "report.txt")), false, "UTF-8");
+
+      try {
+         report.println("Dataset: " + dataset.getAbsolutePath());
+         DataHandler dataHandler = loadDataset(dataset);
+
+         Pipeline pipeline;
+         if (config.isApproximate()) {
+            pipeline = new ApproximateEvaluator(models, config, crossValidator, report)
+                  .run(dataHandler);
+         } else {
+            pipeline = new Pipeline(models, config, crossValidator, report);
+            pipeline.run(dataHandler, ResultSinks.create(config.getSink(), datasetDir));
+         }
+
+         StringBuilder line = new StringBuilder();
+         line.append(dataset.getPath());
+         line.append("\t" + dataHandler.getClassInstances());
+         line.append("\t" + dataHandler.getSize());
+         for (int j = 0; j < models.length; j++) {
+            line.append("\t" + format(pipeline.getPredictionPerModel().get(j).getAccuracy()));
+         }
+         line.append("\t" + format(pipeline.getMajorityAccuracy()));
+         line.append("\t" + format(pipeline.getWeightedAccuracy()));
+         line.append("\t" + format(pipeline.getSoftAccuracy()));
+         line.append("\t" + format(pipeline.getWeightedSoftAccuracy()));
+         line.append("\t" + format(pipeline.getCascadeAccuracy()));
+         line.append("\t" + format(pipeline.getStackingAccuracy()));
+         line.append("\t" + (System.currentTimeMillis() - start) / 1000.0);
+
+         return line.toString();
+      } finally {
+         report.close();
+      }
+   }
+
+   private DataHandler loadDataset(File dataset) throws IOException {
+      if (config.getCacheDir() != null) {
+         return new DataHandler(new DatasetCache(new File(config.getCacheDir())).load(dataset));
+      }
+
+      BufferedReader reader = new BufferedReader(new FileReader(dataset));
+      try {
+         return new DataHandler(reader);
+      } finally {
+         reader.close();
+      }
+   }
+
+   /** Create a fresh set of base models, so that no classifier is shared between datasets */
+   private Classifier[] createModels() throws Exception {
+      Classifier[] models = new Classifier[modelSpecs.size()];
+
+      for (int j = 0; j < models.length; j++) {
+         String[] options = Utils.splitOptions(modelSpecs.get(j));
+         String name = options[0];
+         options[0] = "";
+         models[j] = Classifier.forName(name, options);
+      }
+
+      return models;
+   }
+
+   private String getSummaryHeader() throws Exception {
+      StringBuilder header = new StringBuilder("dataset\tinstances\tclasses");
+
+      for (String spec : modelSpecs) {
+         String name = Utils.splitOptions(spec)[0];
+         header.append("\t" + name.substring(name.lastIndexOf('.') + 1));
+      }
+      header.append("\tmajority\tweighted\tsoft\tweightedsoft\tcascade\tstacking\tseconds");
+
+      return header.toString();
+   }
+
+   /** Format an accuracy, leaving it empty when the method was not run */
+   private static String format(double accuracy) {
+      return accuracy < 0 ? "" : String.format("%.4f", accuracy);
+   }
+
+   /** Expand a path, a glob or an @file listing paths into the arff files it stands for */
+   public static List<File> expand(String pattern) throws IOException {
+      List<File> files = new ArrayList<File>();
+
+      if (pattern.startsWith("@")) {
+         BufferedReader reader = new BufferedReader(new FileReader(pattern.substring(1)));
+         try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+               if (!line.trim().isEmpty() && !line.trim().startsWith("#")) {
+                  files.addAll(expand(line.trim()));
+               }
+            }
+         } finally {
+            reader.close();
+         }
+         return files;
+      }
+
+      int globStart = indexOfGlob(pattern);
+      if (globStart < 0) {
+         files.add(new File(pattern));
+         return files;
+      }
+
+      /** Walk the deepest directory that does not contain any glob character */
+      int separator = Math.max(pattern.lastIndexOf('/', globStart),
+            pattern.lastIndexOf(File.separatorChar, globStart));
+      Path base = Paths.get(separator < 0 ? "." : pattern.substring(0, separator + 1));
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+      Stream<Path> paths = Files.walk(base);
+      try {
+         Iterator<Path> iterator = paths.iterator();
+         while (iterator.hasNext()) {
+            Path path = iterator.next();
+            Path candidate = separator < 0 ? base.relativize(path) : path;
+            if (Files.isRegularFile(path) && matcher.matches(candidate)) {
+               files.add(path.toFile());
+            }
+         }
+      } finally {
+         paths.close();
+      }
+
+      Collections.sort(files);
+      return files;
+   }
+
+   private static int indexOfGlob(String pattern) {
+      for (int i = 0; i < pattern.length(); i++) {
+         if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+            return i;
+         }
+      }
+      return -1;
+   }
+}
@@ -0,0 +1,11 @@
+/**
+ * The BucketWeighting class weighs the vote of each model by the bucket its accuracy falls in,
+ * from 9 above 90% down to 0 at or below 10% (see Aggregator.getWeight). These are the weights
+ * Weighted Majority Voting has always used.
+ */
+
+public class BucketWeighting extends AccuracyWeighting {
+   public double getWeight(int model, int predictedClass) {
+      return Aggregator.getWeight(100 * getAccuracy(model));
+   }
+}
@@ -0,0 +1,124 @@
+/**
+ * The Cascade class decides which base models an instance needs. The models are asked one after
+ * the other, cheapest first, and the weighted votes they cast are added up; the instance stops as
+ * soon as the lead of the first class over the second can no longer be overturned by the models
+ * not asked yet, so confident instances only pay for the cheap models. With a margin of 1, the
+ * class chosen is always the one Weighted Majority Voting would choose with every model.
+ * 
+ * Parameters are: order: the models, cheapest first. Models of the same cost are ordered by their
+ * largest weight, heaviest first, so that the lead builds up sooner.
+ * 
+ * weights: the weight of the vote the j-th model casts for the k-th class (weights[j][k]).
+ * 
+ * remaining: the most the lead can change once the models before the given position in the order
+ * have voted.
+ * 
+ * margin: the share of remaining the lead must exceed. Lower values stop earlier, at the cost of
+ * sometimes choosing another class than the vote of every model would.
+ */
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class Cascade implements Serializable {
+   private static final long serialVersionUID = 1L;
+
+   private int[] order;
+   private double[][] weights;
+   private double[] remaining;
+   private double margin;
+
+   /** Order the models by their cost (in any unit), cheapest first */
+   public Cascade(final double[] costs, double[][] weights, double margin) {
+      final double[] maxWeights = new double[weights.length];
+      Integer[] models = new Integer[weights.length];
+
+      for (int j = 0; j < weights.length; j++) {
+         models[j] = j;
+         for (int k = 0; k < weights[j].length; k++) {
+            maxWeights[j] = Math.max(maxWeights[j], Math.abs(weights[j][k]));
+         }
+      }
+
+      Arrays.sort(models, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            int byCost = Double.compare(costs[a], costs[b]);
+            return byCost != 0 ? byCost : Double.compare(maxWeights[b], maxWeights[a]);
+         }
+      });
+
+      this.order = new int[weights.length];
+      this.remaining = new double[weights.length + 1];
+      for (int p = 0; p < order.length; p++) {
+         order[p] = models[p];
+      }
+
+      /** A vote adds to a class, or takes from it with a negative weight: either way by its size */
+      for (int p = order.length - 1; p >= 0; p--) {
+         remaining[p] = remaining[p + 1] + maxWeights[order[p]];
+      }
+
+      this.weights = weights;
+      this.margin = margin;
+   }
+
+   /** Create a cascade over models weighing the same for every class, as in an EnsembleModel */
+   public static Cascade of(double[] costs, int[] modelWeights, int numClasses, double margin) {
+      double[][] weights = new double[modelWeights.length][numClasses];
+
+      for (int j = 0; j < modelWeights.length; j++) {
+         Arrays.fill(weights[j], modelWeights[j]);
+      }
+
+      return new Cascade(costs, weights, margin);
+   }
+
+   /** Add the vote the model at the position of the order cast to the class totals, from offset */
+   public void addVote(int position, int classId, double[] classTotals, int offset) {
+      classTotals[offset + classId] += weights[order[position]][classId];
+   }
+
+   /**
+    * Check whether the instance is decided once the models before the position in the order have
+    * voted, given its class totals (numClasses values, from offset)
+    */
+   public boolean isDecided(int position, double[] classTotals, int offset, int numClasses) {
+      if (position == order.length) {
+         return true;
+      }
+      if (position == 0) {
+         return false;
+      }
+
+      double first = 0;
+      double second = 0;
+      for (int k = offset; k < offset + numClasses; k++) {
+         if (classTotals[k] > first) {
+            second = first;
+            first = classTotals[k];
+         } else if (classTotals[k] > second) {
+            second = classTotals[k];
+         }
+      }
+
+      return first - second > margin * remaining[position];
+   }
+
+   /** Get the model at the position of the order */
+   public int getModel(int position) {
+      return this.order[position];
+   }
+
+   public int[] getOrder() {
+      return this.order;
+   }
+
+   public int getNumModels() {
+      return this.order.length;
+   }
+
+   public double getMargin() {
+      return this.margin;
+   }
+}
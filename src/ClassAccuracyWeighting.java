@@ -0,0 +1,40 @@
+/**
+ * The ClassAccuracyWeighting class weighs the vote of each model by how often the model is right
+ * when it predicts that class, i.e. its precision on the class as read from the column of its
+ * confusion matrix. A model that is reliable on some classes and not on others is trusted only
+ * where it is reliable. The precision is smoothed towards the accuracy of the model so that a class
+ * the model rarely predicted does not get an extreme weight.
+ * 
+ * Parameters are: correctPerClass, totalPerClass: the number of correct and total predictions of
+ * each model per predicted class, laid out model by model.
+ */
+
+public class ClassAccuracyWeighting extends AccuracyWeighting {
+   private long[] correctPerClass;
+   private long[] totalPerClass;
+
+   public void reset(int numModels, int numClasses) {
+      super.reset(numModels, numClasses);
+      this.correctPerClass = new long[numModels * numClasses];
+      this.totalPerClass = new long[numModels * numClasses];
+   }
+
+   public void update(int[] predicted, int actual) {
+      super.update(predicted, actual);
+
+      for (int j = 0; j < predicted.length; j++) {
+         int offset = j * numClasses + predicted[j];
+
+         if (predicted[j] == actual) {
+            correctPerClass[offset]++;
+         }
+         totalPerClass[offset]++;
+      }
+   }
+
+   public double getWeight(int model, int predictedClass) {
+      int offset = model * numClasses + predictedClass;
+
+      return (correctPerClass[offset] + getAccuracy(model)) / (totalPerClass[offset] + 1.0);
+   }
+}
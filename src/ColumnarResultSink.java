@@ -0,0 +1,70 @@
+/**
+ * The ColumnarResultSink class writes the results to a binary file, one column after another within
+ * each batch. A new file named after the aggregation method is created in the output directory for
+ * each run.
+ * 
+ * The file holds: a header (magic number, title, number of classes, class names, whether the
+ * likelihoods are stored), then one block per batch (number of rows, the prediction column, the
+ * final prediction column and, if stored, one likelihood column per class), then a block of 0 rows
+ * followed by the number of ties.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class ColumnarResultSink implements ResultSink {
+   public static final int MAGIC = 0x43525331;
+   private static final int BUFFER_SIZE = 1 << 20;
+
+   private File outputDir;
+   private DataOutputStream output;
+
+   public ColumnarResultSink(File outputDir) {
+      this.outputDir = outputDir;
+   }
+
+   public void begin(VoteResult result) throws IOException {
+      outputDir.mkdirs();
+      File file = new File(outputDir, ResultSinks.getFileName(result.getTitle()) + ".bin");
+      output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+
+      output.writeInt(MAGIC);
+      output.writeUTF(result.getTitle());
+      output.writeInt(result.getNumClasses());
+      for (int i = 0; i < result.getNumClasses(); i++) {
+         output.writeUTF(result.getDataClasses()[i]);
+      }
+      output.writeBoolean(result.hasLikelihood());
+   }
+
+   public void write(VoteResult result, int from, int to) throws IOException {
+      int[] predictions = result.getPredictions();
+      int[] finalPredictions = result.getFinalPredictions();
+
+      output.writeInt(to - from);
+      for (int instance = from; instance < to; instance++) {
+         output.writeInt(predictions[instance]);
+      }
+      for (int instance = from; instance < to; instance++) {
+         output.writeInt(finalPredictions[instance]);
+      }
+
+      if (result.hasLikelihood()) {
+         for (int i = 0; i < result.getNumClasses(); i++) {
+            for (int instance = from; instance < to; instance++) {
+               output.writeDouble(result.getLikelihood(instance, i));
+            }
+         }
+      }
+   }
+
+   public void end(VoteResult result) throws IOException {
+      output.writeInt(0);
+      output.writeInt(result.getTies());
+      output.close();
+   }
+}
@@ -0,0 +1,217 @@
+/**
+ * The ConfusionMatrix class counts the predictions of a classifier or an aggregation method by
+ * actual and predicted class. It is updated one prediction at a time, and partial matrices (one per
+ * thread, fold or chunk) can be merged, so every metric below is read from the counts without
+ * going over the predictions again.
+ * 
+ * Parameters are: numClasses: number of classes the arff file has.
+ * 
+ * counts: the number of predictions per actual class (row) and predicted class (column), laid out
+ * row by row. The extra last column counts the instances left without a prediction ("NONE"), e.g.
+ * because of a tie.
+ * 
+ * unlabeled: the number of predictions made on instances whose actual class is missing. They are
+ * never correct, as in the accuracy Weka reports.
+ */
+
+public class ConfusionMatrix {
+   private int numClasses;
+   private long[] counts;
+   private long unlabeled;
+
+   public ConfusionMatrix(int numClasses) {
+      this.numClasses = numClasses;
+      this.counts = new long[numClasses * (numClasses + 1)];
+   }
+
+   /** Build the matrix of the predictions a model made during cross validation */
+   public static ConfusionMatrix of(PredictionStore predictions) {
+      int numClasses = predictions.getNumClasses();
+      ConfusionMatrix matrix = new ConfusionMatrix(numClasses);
+
+      for (int i = 0; i < predictions.size(); i++) {
+         int actual = predictions.getActual(i);
+         int predicted = predictions.getPredicted(i);
+
+         if (actual < 0) {
+            matrix.addUnlabeled();
+         } else {
+            matrix.add(actual, predicted < 0 ? numClasses : predicted);
+         }
+      }
+
+      return matrix;
+   }
+
+   /** Count a prediction; a predicted class of numClasses means no prediction was made */
+   public void add(int actual, int predicted) {
+      counts[actual * (numClasses + 1) + predicted]++;
+   }
+
+   /** Count a prediction made on an instance whose actual class is missing */
+   public void addUnlabeled() {
+      unlabeled++;
+   }
+
+   /** Add the counts of another matrix, e.g. the one of another thread or fold */
+   public void merge(ConfusionMatrix other) {
+      if (other.numClasses != numClasses) {
+         throw new IllegalArgumentException(
+               "Cannot merge a matrix of " + other.numClasses + " classes into " + numClasses);
+      }
+
+      for (int i = 0; i < counts.length; i++) {
+         counts[i] += other.counts[i];
+      }
+      unlabeled += other.unlabeled;
+   }
+
+   public ConfusionMatrix copy() {
+      ConfusionMatrix copy = new ConfusionMatrix(numClasses);
+      copy.merge(this);
+      return copy;
+   }
+
+   public long getCount(int actual, int predicted) {
+      return counts[actual * (numClasses + 1) + predicted];
+   }
+
+   /** Get the number of predictions counted, labeled or not */
+   public long getTotal() {
+      long total = unlabeled;
+
+      for (int i = 0; i < counts.length; i++) {
+         total += counts[i];
+      }
+
+      return total;
+   }
+
+   public long getCorrect() {
+      long correct = 0;
+
+      for (int k = 0; k < numClasses; k++) {
+         correct += getCount(k, k);
+      }
+
+      return correct;
+   }
+
+   /** Get the number of instances left without a prediction */
+   public long getTies() {
+      long ties = 0;
+
+      for (int k = 0; k < numClasses; k++) {
+         ties += getCount(k, numClasses);
+      }
+
+      return ties;
+   }
+
+   /** Get the accuracy (in percent) over every prediction counted */
+   public double getAccuracy() {
+      long total = getTotal();
+      return total == 0 ? 0.0 : 100.0 * getCorrect() / total;
+   }
+
+   /** Get the share (in percent) of instances left without a prediction */
+   public double getTieRate() {
+      long total = getTotal();
+      return total == 0 ? 0.0 : 100.0 * getTies() / total;
+   }
+
+   /** Get the number of labeled instances of the actual class */
+   public long getActualCount(int actual) {
+      long count = 0;
+
+      for (int predicted = 0; predicted <= numClasses; predicted++) {
+         count += getCount(actual, predicted);
+      }
+
+      return count;
+   }
+
+   /** Get the number of labeled instances predicted as the class */
+   public long getPredictedCount(int predicted) {
+      long count = 0;
+
+      for (int actual = 0; actual < numClasses; actual++) {
+         count += getCount(actual, predicted);
+      }
+
+      return count;
+   }
+
+   /** Get the share of the predictions of the class that are correct (0 if never predicted) */
+   public double getPrecision(int k) {
+      long predicted = getPredictedCount(k);
+      return predicted == 0 ? 0.0 : (double) getCount(k, k) / predicted;
+   }
+
+   /** Get the share of the instances of the class that are predicted correctly */
+   public double getRecall(int k) {
+      long actual = getActualCount(k);
+      return actual == 0 ? 0.0 : (double) getCount(k, k) / actual;
+   }
+
+   public double getF1(int k) {
+      double precision = getPrecision(k);
+      double recall = getRecall(k);
+
+      return precision + recall == 0 ? 0.0 : 2 * precision * recall / (precision + recall);
+   }
+
+   /** Get the F1 measure averaged over the classes, each class counting the same */
+   public double getMacroF1() {
+      double total = 0;
+
+      for (int k = 0; k < numClasses; k++) {
+         total += getF1(k);
+      }
+
+      return numClasses == 0 ? 0.0 : total / numClasses;
+   }
+
+   /**
+    * Get Cohen's kappa statistic over the labeled instances: the agreement between the predicted
+    * and actual classes beyond the agreement expected by chance. Instances without a prediction
+    * never agree.
+    */
+   public double getKappa() {
+      double labeled = getTotal() - unlabeled;
+      double chance = 0;
+
+      if (labeled == 0) {
+         return 0.0;
+      }
+
+      for (int k = 0; k < numClasses; k++) {
+         chance += (double) getActualCount(k) * getPredictedCount(k);
+      }
+      chance = chance / (labeled * labeled);
+
+      double observed = getCorrect() / labeled;
+      return chance == 1 ? 1.0 : (observed - chance) / (1 - chance);
+   }
+
+   public int getNumClasses() {
+      return this.numClasses;
+   }
+
+   public long getUnlabeled() {
+      return this.unlabeled;
+   }
+
+   /** Display the precision, recall and F1 measure of every class */
+   public String toClassDetailsString(String[] dataClasses) {
+      StringBuilder details = new StringBuilder();
+
+      details.append(String.format("%-20s %10s %10s %10s%n", "Class", "Precision", "Recall", "F1"));
+      for (int k = 0; k < numClasses; k++) {
+         details.append(String.format("%-20s %10.4f %10.4f %10.4f%n", dataClasses[k],
+               getPrecision(k), getRecall(k), getF1(k)));
+      }
+
+      return details.toString();
+   }
+}
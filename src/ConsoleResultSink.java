@@ -0,0 +1,42 @@
+/**
+ * The ConsoleResultSink class displays the likelihood and the final prediction of every instance
+ * on the console. Each batch is formatted into a single buffer and printed at once.
+ */
+
+import java.io.IOException;
+
+public class ConsoleResultSink implements ResultSink {
+   public void begin(VoteResult result) throws IOException {}
+
+   public void write(VoteResult result, int from, int to) throws IOException {
+      StringBuilder buffer = new StringBuilder();
+
+      for (int instance = from; instance < to; instance++) {
+         if (result.hasLikelihood()) {
+            /** Display the probabilities per instance */
+            buffer.append("Instance [" + result.getInstanceNumber(instance) + "]:");
+            for (int i = 0; i < result.getNumClasses(); i++) {
+               double likelihood = result.getLikelihood(instance, i);
+               if (likelihood != -1) {
+                  buffer.append(" " + result.getDataClasses()[i] + ": "
+                        + String.format("%.4f%%", likelihood) + " ");
+               }
+            }
+            buffer.append(" \n");
+            buffer.append("Final Prediction: "
+                  + result.getClassName(result.getFinalPredictions()[instance]) + "\n");
+         } else {
+            /** Display the prediction per instance */
+            buffer.append("Instance [" + result.getInstanceNumber(instance) + "]: "
+                  + result.getClassName(result.getPredictions()[instance]) + "\n");
+         }
+         buffer.append(" \n");
+      }
+
+      System.out.print(buffer);
+   }
+
+   public void end(VoteResult result) throws IOException {
+      System.out.flush();
+   }
+}
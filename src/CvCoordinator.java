@@ -0,0 +1,563 @@
+/**
+ * The CvCoordinator class cross validates models on worker JVMs (see CvWorker) instead of the
+ * threads of this one. Every model is split into one task per fold, and the tasks of every model
+ * being cross validated go into a single queue: each connected worker takes the next task as soon
+ * as it is done with the previous one, so fast workers end up doing more of the work and no worker
+ * waits while tasks are left. The predictions come back in fold order and are recorded exactly as
+ * FoldCrossValidator records them, so the Evaluation, and the predictions of every model, are the
+ * same as in a local run.
+ * 
+ * The dataset is sent only once to each worker, which rebuilds the splits itself with
+ * DataHandler.crossValidationSplit and the same seed; a task only carries the classifier and the
+ * fold. When a worker fails, disconnects or returns no result before the deadline of its task, its
+ * task goes back to the front of the queue for the next worker, up to MAX_ATTEMPTS times. A worker
+ * that disconnects while idle is noticed before it is handed a task, so that it costs no attempt.
+ * 
+ * Objects are exchanged with Java serialization, which must never be exposed to untrusted peers:
+ * the coordinator only listens on the loopback interface, for worker JVMs on the same host, and
+ * both ends of a connection prove they hold the same secret token before either reads an object.
+ * Each sends a random challenge and answers the other's with its HMAC-SHA256 under the token, so
+ * the token itself never goes over the connection. The token is read from the CV_WORKER_TOKEN
+ * environment variable, or drawn at random and handed to the worker JVMs started here.
+ * 
+ * Parameters are: server: the socket the workers connect to.
+ * 
+ * token: the secret the coordinator and its workers share.
+ * 
+ * taskTimeout: the time (in milliseconds) a worker has to return the result of a task.
+ * 
+ * queue: the fold tasks not taken by a worker yet.
+ * 
+ * datasets: the serialized datasets, by content hash, ready to be sent to new workers.
+ * 
+ * liveWorkers: the number of workers connected.
+ * 
+ * localWorkers: the worker JVMs started by this coordinator.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+public class CvCoordinator extends FoldCrossValidator {
+   /** Number of workers a fold task may be sent to before its cross validation fails */
+   private static final int MAX_ATTEMPTS = 3;
+
+   /** Time (in milliseconds) a task may wait while no worker is connected */
+   private static final long WORKER_TIMEOUT = 60000;
+
+   /** Time (in milliseconds) between two checks that an idle worker is still connected */
+   private static final long IDLE_CHECK = 1000;
+
+   /** Time (in milliseconds) a new connection has to prove it holds the token */
+   private static final int HANDSHAKE_TIMEOUT = 10000;
+
+   /** Environment variable holding the token shared by the coordinator and its workers */
+   static final String TOKEN_VARIABLE = "CV_WORKER_TOKEN";
+
+   private static final SecureRandom RANDOM = new SecureRandom();
+
+   /** Number of datasets kept serialized here, and kept by each worker connection */
+   static final int MAX_DATASETS = 4;
+
+   private ServerSocket server;
+   private String token;
+   private long taskTimeout;
+   private LinkedBlockingDeque<FoldTask> queue;
+   private Map<String, byte[]> datasets;
+   private AtomicInteger liveWorkers;
+   private List<Process> localWorkers;
+   private List<Socket> connections;
+   private volatile boolean closed;
+   private volatile long lastWorkerSeen;
+
+   /**
+    * Listen for workers on the port (0 for any free port) and start the given number of worker JVMs
+    * on this host. Workers started elsewhere on the host connect with CvWorker, given the token in
+    * CV_WORKER_TOKEN.
+    */
+   public CvCoordinator(int numFolds, int seed, int port, int workers, String workerOptions,
+         long taskTimeout) throws IOException {
+      super(numFolds, seed, 0);
+      this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+      this.token = System.getenv(TOKEN_VARIABLE);
+      this.taskTimeout = Math.max(1, taskTimeout);
+      this.queue = new LinkedBlockingDeque<FoldTask>();
+      this.datasets = createLruMap(MAX_DATASETS);
+      this.liveWorkers = new AtomicInteger();
+      this.localWorkers = new ArrayList<Process>();
+      this.connections = new ArrayList<Socket>();
+      this.lastWorkerSeen = System.currentTimeMillis();
+
+      Thread acceptor = new Thread(new Runnable() {
+         public void run() {
+            acceptWorkers();
+         }
+      }, "cv-coordinator");
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      if (token == null || token.isEmpty()) {
+         byte[] secret = new byte[32];
+         RANDOM.nextBytes(secret);
+         token = toHex(secret);
+         if (port > 0) {
+            System.out.println("Cross validation workers connect to port " + port + " with "
+                  + TOKEN_VARIABLE + "=" + token);
+         }
+      }
+
+      for (int i = 0; i < workers; i++) {
+         startLocalWorker(workerOptions);
+      }
+   }
+
+   public int getPort() {
+      return server.getLocalPort();
+   }
+
+   /** Get the token of the coordinator, for the workers started in this JVM */
+   String getToken() {
+      return token;
+   }
+
+   public int getLiveWorkers() {
+      return liveWorkers.get();
+   }
+
+   /** The folds never run on this JVM, so Weka's serial cross validation is never used */
+   protected boolean isSerial() {
+      return false;
+   }
+
+   /** Queue one task per fold and wait for the workers to return every fold */
+   protected FoldResult[] runFolds(Classifier model, int modelIndex, Instances data,
+         Instances[] trainingSplits, Instances[] testingSplits, boolean shuffle) throws Exception {
+      String datasetId = ResultCache.hash(data);
+      FoldTask[] tasks = new FoldTask[getNumFolds()];
+      FoldResult[] results = new FoldResult[getNumFolds()];
+      byte[] dataset;
+
+      synchronized (datasets) {
+         dataset = datasets.get(datasetId);
+         if (dataset == null) {
+            dataset = serialize(data);
+            datasets.put(datasetId, dataset);
+         }
+      }
+
+      for (int i = 0; i < tasks.length; i++) {
+         tasks[i] = new FoldTask(new FoldRequest(datasetId, Classifier.makeCopy(model),
+               getNumFolds(), getSeed(), shuffle, i, modelIndex), dataset);
+         queue.add(tasks[i]);
+      }
+
+      for (int i = 0; i < tasks.length; i++) {
+         results[i] = await(tasks[i]);
+      }
+
+      return results;
+   }
+
+   /**
+    * Wait for the task, failing when no worker has been connected for too long. A worker holding
+    * the task past its deadline is disconnected, so that the task goes to the next worker.
+    */
+   private FoldResult await(FoldTask task) throws Exception {
+      while (true) {
+         try {
+            return task.result.get(1, TimeUnit.SECONDS);
+         } catch (TimeoutException ex) {
+            Socket worker = task.worker;
+            if (worker != null && task.isOverdue() && !task.result.isDone()) {
+               close(worker);
+            }
+
+            if (liveWorkers.get() > 0) {
+               lastWorkerSeen = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastWorkerSeen > WORKER_TIMEOUT) {
+               throw new IOException("No cross validation worker connected to port " + getPort()
+                     + " for " + WORKER_TIMEOUT / 1000 + " s");
+            }
+         } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+               throw (Exception) ex.getCause();
+            }
+            throw ex;
+         }
+      }
+   }
+
+   private void acceptWorkers() {
+      while (!closed) {
+         try {
+            final Socket socket = server.accept();
+            synchronized (connections) {
+               connections.add(socket);
+            }
+
+            Thread handler = new Thread(new Runnable() {
+               public void run() {
+                  serveWorker(socket);
+               }
+            }, "cv-worker-" + socket.getPort());
+            handler.setDaemon(true);
+            handler.start();
+         } catch (IOException ex) {
+            /** The server socket is closed on shutdown */
+         }
+      }
+   }
+
+   /**
+    * Hand tasks to a worker one at a time, for as long as it stays connected and returns every
+    * result before the deadline of its task
+    */
+   private void serveWorker(Socket socket) {
+      /** The datasets the worker still holds: it forgets them in the same order */
+      Map<String, Boolean> sentDatasets = createLruMap(MAX_DATASETS);
+      FoldTask task = null;
+
+      try {
+         socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+         authenticate(socket, token, "coordinator", "worker");
+      } catch (IOException ex) {
+         /** Not a worker of this coordinator: nothing it sends is ever deserialized */
+         close(socket);
+         return;
+      }
+      liveWorkers.incrementAndGet();
+      lastWorkerSeen = System.currentTimeMillis();
+
+      try {
+         ObjectOutputStream output =
+               new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+         output.flush();
+         BufferedInputStream buffered = new BufferedInputStream(socket.getInputStream());
+         ObjectInputStream input = new ObjectInputStream(buffered);
+
+         while (!closed) {
+            task = queue.poll(IDLE_CHECK, TimeUnit.MILLISECONDS);
+            if (!isConnected(socket, buffered)) {
+               /** The worker left while idle: the task was never sent, so it costs no attempt */
+               if (task != null) {
+                  queue.addFirst(task);
+                  task = null;
+               }
+               break;
+            }
+            if (task == null) {
+               continue;
+            }
+
+            String datasetId = task.request.getDatasetId();
+            boolean sent = sentDatasets.get(datasetId) != null;
+
+            /** The worker sends nothing until the fold is done, so no read may outlast the task */
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, taskTimeout));
+            task.send(socket, taskTimeout);
+            output.writeObject(task.request);
+            output.writeObject(sent ? null : task.dataset);
+            output.flush();
+            /** Forget the objects written, or the stream would keep every classifier sent */
+            output.reset();
+
+            Object response = input.readObject();
+            sentDatasets.put(datasetId, Boolean.TRUE);
+            task.worker = null;
+
+            if (response instanceof FoldResult) {
+               task.result.complete((FoldResult) response);
+            } else {
+               task.result.completeExceptionally((Throwable) response);
+            }
+            task = null;
+         }
+      } catch (InterruptedException ex) {
+         /** The coordinator is shutting down */
+      } catch (Exception ex) {
+         if (task != null) {
+            task.worker = null;
+            retry(task, ex instanceof SocketTimeoutException || task.isOverdue()
+                  ? new IOException("No result within " + taskTimeout / 1000 + " s", ex) : ex);
+         }
+      } finally {
+         liveWorkers.decrementAndGet();
+         close(socket);
+      }
+   }
+
+   /**
+    * Prove to the peer that this end, in the role, holds the token, and check that the peer, in its
+    * role, holds it too. Both ends run this before anything else goes over the connection; the
+    * roles keep a peer from passing the answer of this end off as its own.
+    */
+   static void authenticate(Socket socket, String token, String role, String peerRole)
+         throws IOException {
+      DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+      DataInputStream input = new DataInputStream(socket.getInputStream());
+      byte[] challenge = new byte[16];
+      byte[] peerChallenge = new byte[16];
+      byte[] proof = new byte[32];
+
+      RANDOM.nextBytes(challenge);
+      output.write(challenge);
+      output.flush();
+      input.readFully(peerChallenge);
+
+      output.write(sign(token, role, peerChallenge));
+      output.flush();
+      input.readFully(proof);
+
+      if (!MessageDigest.isEqual(proof, sign(token, peerRole, challenge))) {
+         throw new IOException("The peer does not hold the token of the coordinator");
+      }
+   }
+
+   /** Get the HMAC-SHA256, under the token, of the role followed by the challenge */
+   private static byte[] sign(String token, String role, byte[] challenge) throws IOException {
+      try {
+         Mac mac = Mac.getInstance("HmacSHA256");
+         mac.init(new SecretKeySpec(token.getBytes("UTF-8"), "HmacSHA256"));
+         mac.update(role.getBytes("UTF-8"));
+         return mac.doFinal(challenge);
+      } catch (GeneralSecurityException ex) {
+         throw new IOException(ex);
+      }
+   }
+
+   private static String toHex(byte[] bytes) {
+      StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+      for (byte b : bytes) {
+         hex.append(String.format("%02x", b));
+      }
+
+      return hex.toString();
+   }
+
+   /**
+    * Check that an idle worker is still connected. It sends nothing between tasks, so reaching the
+    * end of its stream, rather than waiting for more, means it is gone.
+    */
+   private static boolean isConnected(Socket socket, BufferedInputStream input) {
+      try {
+         if (input.available() > 0) {
+            return true;
+         }
+         socket.setSoTimeout(1);
+         input.mark(1);
+         if (input.read() < 0) {
+            return false;
+         }
+         input.reset();
+         return true;
+      } catch (SocketTimeoutException ex) {
+         return true;
+      } catch (IOException ex) {
+         return false;
+      }
+   }
+
+   private static void close(Socket socket) {
+      try {
+         socket.close();
+      } catch (IOException ex) {
+         /** The connection is already lost */
+      }
+   }
+
+   /** Put the task of a failed worker back at the front of the queue, or fail it */
+   private void retry(FoldTask task, Exception cause) {
+      task.attempts++;
+
+      if (task.attempts >= MAX_ATTEMPTS || closed) {
+         task.result.completeExceptionally(new IOException("Fold " + (task.request.getFold() + 1)
+               + " failed on " + task.attempts + " worker(s)", cause));
+      } else {
+         queue.addFirst(task);
+      }
+   }
+
+   /** Start a worker JVM on this host, with the class path of this one */
+   private void startLocalWorker(String workerOptions) throws IOException {
+      List<String> command = new ArrayList<String>();
+      String javaHome = System.getProperty("java.home");
+
+      command.add(javaHome + File.separator + "bin" + File.separator + "java");
+      if (workerOptions != null && !workerOptions.trim().isEmpty()) {
+         command.addAll(Arrays.asList(workerOptions.trim().split("\\s+")));
+      }
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add("CvWorker");
+      command.add("127.0.0.1");
+      command.add(String.valueOf(getPort()));
+
+      ProcessBuilder builder = new ProcessBuilder(command);
+      /** The token goes through the environment, which other users cannot read */
+      builder.environment().put(TOKEN_VARIABLE, token);
+      builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+      builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+      localWorkers.add(builder.start());
+   }
+
+   /** Disconnect every worker and stop the worker JVMs this coordinator started */
+   public void shutdown() {
+      closed = true;
+
+      try {
+         server.close();
+      } catch (IOException ex) {
+         /** Nothing is listening anymore either way */
+      }
+
+      synchronized (connections) {
+         for (Socket socket : connections) {
+            close(socket);
+         }
+      }
+
+      for (Process worker : localWorkers) {
+         worker.destroy();
+      }
+
+      for (FoldTask task : queue) {
+         task.result.completeExceptionally(new IOException("The coordinator was shut down"));
+      }
+   }
+
+   /** Create a map that drops its least recently used entry once it holds more than the capacity */
+   static <T> Map<String, T> createLruMap(final int capacity) {
+      return new LinkedHashMap<String, T>(capacity, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+            return size() > capacity;
+         }
+      };
+   }
+
+   private static byte[] serialize(Object object) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream output = new ObjectOutputStream(bytes);
+
+      output.writeObject(object);
+      output.close();
+
+      return bytes.toByteArray();
+   }
+
+   /**
+    * A fold waiting for its result, along with its serialized dataset, for workers that have not
+    * received it yet, the number of workers it was sent to, and the connection of the worker
+    * holding it with the time (in milliseconds) it must return the result by
+    */
+   private static class FoldTask {
+      private FoldRequest request;
+      private byte[] dataset;
+      private CompletableFuture<FoldResult> result;
+      private int attempts;
+      private volatile Socket worker;
+      private volatile long deadline;
+
+      public FoldTask(FoldRequest request, byte[] dataset) {
+         this.request = request;
+         this.dataset = dataset;
+         this.result = new CompletableFuture<FoldResult>();
+      }
+
+      public void send(Socket worker, long timeout) {
+         this.deadline = System.currentTimeMillis() + timeout;
+         this.worker = worker;
+      }
+
+      public boolean isOverdue() {
+         return System.currentTimeMillis() > deadline;
+      }
+   }
+
+   /** What a worker needs to train and test one fold, besides the dataset */
+   public static class FoldRequest implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private String datasetId;
+      private Classifier classifier;
+      private int numFolds;
+      private int seed;
+      private boolean shuffle;
+      private int fold;
+      private int modelIndex;
+
+      public FoldRequest(String datasetId, Classifier classifier, int numFolds, int seed,
+            boolean shuffle, int fold, int modelIndex) {
+         this.datasetId = datasetId;
+         this.classifier = classifier;
+         this.numFolds = numFolds;
+         this.seed = seed;
+         this.shuffle = shuffle;
+         this.fold = fold;
+         this.modelIndex = modelIndex;
+      }
+
+      public String getDatasetId() {
+         return this.datasetId;
+      }
+
+      public Classifier getClassifier() {
+         return this.classifier;
+      }
+
+      public int getNumFolds() {
+         return this.numFolds;
+      }
+
+      public int getSeed() {
+         return this.seed;
+      }
+
+      public boolean isShuffled() {
+         return this.shuffle;
+      }
+
+      public int getFold() {
+         return this.fold;
+      }
+
+      /** Get the position of the model in the ensemble, or -1 outside of one */
+      public int getModelIndex() {
+         return this.modelIndex;
+      }
+   }
+}
@@ -0,0 +1,190 @@
+/**
+ * The CvWorker class trains and tests cross validation folds for a CvCoordinator. It connects to
+ * the coordinator, then takes one fold at a time until the coordinator disconnects. Datasets are
+ * received once per connection and kept, along with their splits, so that the following folds of
+ * the same dataset only need the classifier.
+ * 
+ * Usage: java CvWorker <host> <port> [<slots>], where slots is the number of folds the worker JVM
+ * trains at the same time (default 1). Each slot is a connection of its own. scripts/cv-workers.sh
+ * starts several worker JVMs on the host of the coordinator. CV_WORKER_TOKEN must hold the token of
+ * the coordinator, which the worker proves it holds before anything is deserialized.
+ * 
+ * Parameters are: host, port: where the coordinator listens.
+ * 
+ * token: the secret shared with the coordinator.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Random;
+
+import weka.core.Instances;
+
+public class CvWorker implements Runnable {
+   /** Time (in milliseconds) spent trying to connect before giving up */
+   private static final long CONNECT_TIMEOUT = 30000;
+
+   private String host;
+   private int port;
+   private String token;
+   private Map<String, Instances> datasets;
+   private Map<String, Instances[][]> splits;
+
+   /**
+    * Each connection keeps the datasets it received, and forgets them in the order the coordinator
+    * expects, so that it is never sent a fold of a dataset it no longer holds
+    */
+   public CvWorker(String host, int port, String token) {
+      this.host = host;
+      this.port = port;
+      this.token = token;
+      this.datasets = CvCoordinator.createLruMap(CvCoordinator.MAX_DATASETS);
+      this.splits = CvCoordinator.createLruMap(CvCoordinator.MAX_DATASETS);
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 2) {
+         System.out.println("Usage: java CvWorker <host> <port> [<slots>]");
+         System.exit(1);
+      }
+
+      String token = System.getenv(CvCoordinator.TOKEN_VARIABLE);
+
+      if (token == null || token.isEmpty()) {
+         System.out.println(CvCoordinator.TOKEN_VARIABLE + " must hold the token of the coordinator");
+         System.exit(1);
+      }
+
+      int slots = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+      Thread[] threads = new Thread[slots];
+
+      Pipeline.silenceClassifiers();
+
+      for (int i = 0; i < slots; i++) {
+         CvWorker worker = new CvWorker(args[0], Integer.parseInt(args[1]), token);
+         threads[i] = new Thread(worker, "cv-slot-" + i);
+         threads[i].start();
+      }
+      for (int i = 0; i < slots; i++) {
+         threads[i].join();
+      }
+   }
+
+   public void run() {
+      try {
+         Socket socket = connect();
+
+         try {
+            serve(socket);
+         } finally {
+            socket.close();
+         }
+      } catch (Exception ex) {
+         /** The coordinator is gone: there is nothing left to do */
+         System.out.println("Worker stopped: " + ex);
+      }
+   }
+
+   private Socket connect() throws IOException, InterruptedException {
+      long start = System.currentTimeMillis();
+
+      while (true) {
+         try {
+            return new Socket(host, port);
+         } catch (ConnectException ex) {
+            if (System.currentTimeMillis() - start > CONNECT_TIMEOUT) {
+               throw ex;
+            }
+            Thread.sleep(200);
+         }
+      }
+   }
+
+   /** Train and test the folds the coordinator sends, until it disconnects */
+   private void serve(Socket socket) throws Exception {
+      CvCoordinator.authenticate(socket, token, "worker", "coordinator");
+
+      ObjectOutputStream output =
+            new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      output.flush();
+      ObjectInputStream input =
+            new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+
+      while (true) {
+         CvCoordinator.FoldRequest request = (CvCoordinator.FoldRequest) input.readObject();
+         byte[] dataset = (byte[]) input.readObject();
+         Serializable response;
+
+         try {
+            Instances[][] split = getSplits(request, dataset);
+            int fold = request.getFold();
+
+            response = FoldCrossValidator.trainFold(request.getClassifier(), split[0][fold],
+                  split[1][fold], request.getModelIndex(), fold + 1);
+         } catch (Exception ex) {
+            /** The fold itself failed: report it to the coordinator rather than retrying it */
+            response = ex;
+         }
+
+         output.writeObject(response);
+         output.flush();
+         output.reset();
+      }
+   }
+
+   /** Get the training and testing splits of the request, rebuilding them as the coordinator did */
+   private Instances[][] getSplits(CvCoordinator.FoldRequest request, byte[] dataset)
+         throws Exception {
+      String key = request.getDatasetId() + "|" + request.getNumFolds() + "|" + request.getSeed()
+            + "|" + request.isShuffled();
+      Instances data = getDataset(request.getDatasetId(), dataset);
+      Instances[][] split = splits.get(key);
+
+      if (split != null) {
+         return split;
+      }
+
+      DataHandler dataHandler = new DataHandler(data);
+      if (request.isShuffled()) {
+         dataHandler.crossValidationSplit(request.getNumFolds(), new Random(request.getSeed()));
+      } else {
+         dataHandler.crossValidationSplit(request.getNumFolds());
+      }
+
+      split = new Instances[][] { dataHandler.getTrainingSplit(), dataHandler.getTestingSplit() };
+      splits.put(key, split);
+
+      return split;
+   }
+
+   /** Get the dataset received earlier, or read it when the coordinator sends it */
+   private Instances getDataset(String datasetId, byte[] dataset) throws Exception {
+      Instances data = datasets.get(datasetId);
+      if (dataset == null && data != null) {
+         return data;
+      }
+
+      if (dataset == null) {
+         throw new IOException("Dataset " + datasetId + " was never received");
+      }
+
+      ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(dataset));
+      try {
+         data = (Instances) input.readObject();
+      } finally {
+         input.close();
+      }
+
+      datasets.put(datasetId, data);
+
+      return data;
+   }
+}
@@ -17,6 +17,7 @@
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.Random;
 
 import weka.core.Instances;
 
@@ -31,10 +32,14 @@ public class DataHandler {
    private String[] classInstances;
 
    public DataHandler(BufferedReader datafile) throws IOException {
-      data = new Instances(datafile);
+      this(parse(datafile));
+   }
+
+   public DataHandler(Instances data) {
+      this.data = data;
 
-      /** Set the class index as the index of the last attribute */
-      classIndex = data.numAttributes() - 1;
+      /** Set the class index as the index of the last attribute, unless one is already set */
+      classIndex = data.classIndex() < 0 ? data.numAttributes() - 1 : data.classIndex();
       data.setClassIndex(classIndex);
 
       /** Set the size of the dataset as the number of instances */
@@ -46,6 +51,17 @@ public class DataHandler {
       classInstanceCount = data.numInstances();
    }
 
+   /** Parse the arff file, recording the time and memory it takes with the Profiler */
+   private static Instances parse(BufferedReader datafile) throws IOException {
+      Profiler.Span span = Profiler.start("ARFF parse", "DataHandler");
+
+      try {
+         return new Instances(datafile);
+      } finally {
+         span.end();
+      }
+   }
+
    /**
     * Split the dataset into training and testing splits using the 10-fold cross validation method.
     */
@@ -61,6 +77,30 @@ public class DataHandler {
       testingSplits = split[1];
    }
 
+   /**
+    * Split the dataset the same way Weka's Evaluation.crossValidateModel does: a copy of the data is
+    * shuffled and stratified, and every training split is shuffled again with the same random
+    * generator, in fold order. Models trained on these splits produce the same predictions as the
+    * ones cross validated by Weka with the same seed.
+    */
+   public void crossValidationSplit(int numberOfFolds, Random random) {
+      Instances shuffled = new Instances(data);
+      split = new Instances[2][numberOfFolds];
+
+      shuffled.randomize(random);
+      if (shuffled.classAttribute().isNominal()) {
+         shuffled.stratify(numberOfFolds);
+      }
+
+      for (int i = 0; i < numberOfFolds; i++) {
+         split[0][i] = shuffled.trainCV(numberOfFolds, i, random);
+         split[1][i] = shuffled.testCV(numberOfFolds, i);
+      }
+
+      trainingSplits = split[0];
+      testingSplits = split[1];
+   }
+
    public Instances[] getTrainingSplit() {
       return this.trainingSplits;
    }
@@ -0,0 +1,277 @@
+/**
+ * The DatasetCache class keeps a binary copy of every arff file it parses, so that later runs on
+ * the same file can skip parsing the text. The copy is read back through memory-mapped columns and
+ * is discarded as soon as the size, the modification time or the content hash of the arff file
+ * changes.
+ * 
+ * A cache file holds: a header (magic number, version, size, modification time and SHA-256 hash of
+ * the arff file, the arff header of the dataset, class index, number of instances and number of
+ * attributes, the type of every column), then one column per attribute. Numeric and date columns
+ * hold 8-byte doubles (NaN when missing), nominal columns hold 4-byte value indices (-1 when
+ * missing). Datasets with string or relational attributes are not cached.
+ * 
+ * Parameters are: cacheDir: the directory the cache files are kept in.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class DatasetCache {
+   private static final int MAGIC = 0x44534331;
+   private static final int VERSION = 1;
+   private static final byte NUMERIC_COLUMN = 0;
+   private static final byte NOMINAL_COLUMN = 1;
+   private static final int HASH_WINDOW = 64 << 20;
+   private static final int BUFFER_SIZE = 1 << 20;
+
+   private File cacheDir;
+
+   public DatasetCache(File cacheDir) {
+      this.cacheDir = cacheDir;
+   }
+
+   /**
+    * Get the dataset of the arff file, from the cache when it is still valid. Otherwise the arff
+    * file is parsed and a new cache file is written for the next runs. A cache file that cannot be
+    * read is treated as missing and replaced.
+    */
+   public Instances load(File arffFile) throws IOException {
+      File cacheFile = getCacheFile(arffFile);
+      long start = System.currentTimeMillis();
+
+      if (cacheFile.exists()) {
+         Instances data;
+         try {
+            data = read(cacheFile, arffFile);
+         } catch (Exception ex) {
+            /** A truncated or corrupted cache file is a miss, and is written again below */
+            data = null;
+         }
+         if (data != null) {
+            System.out.println("Loaded " + data.numInstances() + " instances from cache in "
+                  + (System.currentTimeMillis() - start) + " ms");
+            return data;
+         }
+      }
+
+      BufferedReader reader = new BufferedReader(new FileReader(arffFile), BUFFER_SIZE);
+      Instances data;
+      Profiler.Span span = Profiler.start("ARFF parse", arffFile.getName());
+      try {
+         data = new Instances(reader);
+      } finally {
+         span.end();
+         reader.close();
+      }
+      data.setClassIndex(data.numAttributes() - 1);
+      System.out.println("Parsed " + data.numInstances() + " instances in "
+            + (System.currentTimeMillis() - start) + " ms");
+
+      if (isCacheable(data)) {
+         cacheDir.mkdirs();
+         write(cacheFile, arffFile, hash(arffFile), data);
+      }
+
+      return data;
+   }
+
+   /** Get the cache file of the arff file, named after its name and its absolute path */
+   public File getCacheFile(File arffFile) {
+      String path = arffFile.getAbsolutePath();
+      return new File(cacheDir,
+            arffFile.getName() + "." + Integer.toHexString(path.hashCode()) + ".cache");
+   }
+
+   /** Only numeric, date and nominal attributes can be stored in columns */
+   private boolean isCacheable(Instances data) {
+      for (int i = 0; i < data.numAttributes(); i++) {
+         Attribute attribute = data.attribute(i);
+         if (!attribute.isNumeric() && !attribute.isNominal()) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Write the dataset to the cache file, one column after another. Every writer has a temporary
+    * file of its own, so that threads or runs caching the same arff file never mix their writes.
+    */
+   private void write(File cacheFile, File arffFile, byte[] hash, Instances data)
+         throws IOException {
+      File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDir);
+
+      try {
+         DataOutputStream output = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+         try {
+            writeColumns(output, arffFile, hash, data);
+         } finally {
+            output.close();
+         }
+
+         /** Replace the previous cache file only once the new one is complete */
+         if (cacheFile.exists() && !cacheFile.delete()) {
+            throw new IOException("Cannot replace cache file: " + cacheFile);
+         }
+         if (!tempFile.renameTo(cacheFile)) {
+            throw new IOException("Cannot write cache file: " + cacheFile);
+         }
+      } finally {
+         /** A failed write leaves no temporary file behind: a renamed one no longer exists */
+         tempFile.delete();
+      }
+   }
+
+   private static void writeColumns(DataOutputStream output, File arffFile, byte[] hash,
+         Instances data) throws IOException {
+      int numInstances = data.numInstances();
+      int numAttributes = data.numAttributes();
+
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(arffFile.length());
+      output.writeLong(arffFile.lastModified());
+      output.write(hash);
+
+      byte[] header = new Instances(data, 0).toString().getBytes("UTF-8");
+      output.writeInt(header.length);
+      output.write(header);
+      output.writeInt(data.classIndex());
+      output.writeInt(numInstances);
+      output.writeInt(numAttributes);
+
+      for (int j = 0; j < numAttributes; j++) {
+         output.writeByte(data.attribute(j).isNominal() ? NOMINAL_COLUMN : NUMERIC_COLUMN);
+      }
+
+      for (int j = 0; j < numAttributes; j++) {
+         boolean nominal = data.attribute(j).isNominal();
+
+         for (int i = 0; i < numInstances; i++) {
+            Instance instance = data.instance(i);
+            if (nominal) {
+               output.writeInt(instance.isMissing(j) ? -1 : (int) instance.value(j));
+            } else {
+               output.writeDouble(instance.isMissing(j) ? Double.NaN : instance.value(j));
+            }
+         }
+      }
+   }
+
+   /**
+    * Rebuild the dataset from the cache file. Returns null when the cache file was written for an
+    * older version of the arff file. The arff file is only hashed once its size and modification
+    * time match, so a stale cache file is told apart without reading the arff file.
+    */
+   private Instances read(File cacheFile, File arffFile) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+
+      try {
+         FileChannel channel = file.getChannel();
+
+         if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+            return null;
+         }
+
+         /** Compare the size and the modification time, then the hash of the arff file */
+         long size = file.readLong();
+         long modified = file.readLong();
+         if (size != arffFile.length() || modified != arffFile.lastModified()) {
+            return null;
+         }
+         byte[] hash = hash(arffFile);
+         byte[] cachedHash = new byte[hash.length];
+         file.readFully(cachedHash);
+         if (!Arrays.equals(cachedHash, hash)) {
+            return null;
+         }
+
+         byte[] header = new byte[file.readInt()];
+         file.readFully(header);
+         Instances data = new Instances(new StringReader(new String(header, "UTF-8")));
+         data.setClassIndex(file.readInt());
+         int numInstances = file.readInt();
+         int numAttributes = file.readInt();
+         byte[] columnTypes = new byte[numAttributes];
+         file.readFully(columnTypes);
+
+         /** Map every column of the cache file */
+         ByteBuffer[] columns = new ByteBuffer[numAttributes];
+         long offset = file.getFilePointer();
+         for (int j = 0; j < numAttributes; j++) {
+            long columnSize = (long) numInstances * (columnTypes[j] == NOMINAL_COLUMN ? 4 : 8);
+            if (columnSize > Integer.MAX_VALUE) {
+               return null;
+            }
+            columns[j] = channel.map(FileChannel.MapMode.READ_ONLY, offset, columnSize);
+            offset = offset + columnSize;
+         }
+
+         Instances cached = new Instances(data, numInstances);
+         for (int i = 0; i < numInstances; i++) {
+            double[] values = new double[numAttributes];
+
+            for (int j = 0; j < numAttributes; j++) {
+               if (columnTypes[j] == NOMINAL_COLUMN) {
+                  int index = columns[j].getInt(i * 4);
+                  values[j] = index < 0 ? Instance.missingValue() : index;
+               } else {
+                  double value = columns[j].getDouble(i * 8);
+                  values[j] = Double.isNaN(value) ? Instance.missingValue() : value;
+               }
+            }
+
+            cached.add(new Instance(1.0, values));
+         }
+
+         return cached;
+      } finally {
+         file.close();
+      }
+   }
+
+   /** Get the SHA-256 hash of the content of the file, reading it through memory-mapped windows */
+   public static byte[] hash(File file) throws IOException {
+      MessageDigest digest;
+      try {
+         digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException ex) {
+         throw new IOException(ex);
+      }
+
+      FileInputStream input = new FileInputStream(file);
+      try {
+         FileChannel channel = input.getChannel();
+         long size = channel.size();
+
+         for (long position = 0; position < size; position += HASH_WINDOW) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                  Math.min(HASH_WINDOW, size - position));
+            digest.update(window);
+         }
+      } finally {
+         input.close();
+      }
+
+      return digest.digest();
+   }
+}
@@ -0,0 +1,80 @@
+/**
+ * The DelimitedResultSink class writes the results to a CSV or TSV file, one row per instance with
+ * the likelihood of every class followed by the prediction and the final prediction. A new file
+ * named after the aggregation method is created in the output directory for each run.
+ * 
+ * Class names may hold any character: a CSV field holding the delimiter, a quote or a line break
+ * is quoted as RFC 4180 does, and a TSV field has its tabs, line breaks and backslashes escaped
+ * with a backslash.
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class DelimitedResultSink implements ResultSink {
+   private static final int BUFFER_SIZE = 1 << 20;
+
+   private File outputDir;
+   private char delimiter;
+   private String extension;
+   private BufferedWriter writer;
+
+   public DelimitedResultSink(File outputDir, char delimiter) {
+      this.outputDir = outputDir;
+      this.delimiter = delimiter;
+      this.extension = delimiter == '\t' ? ".tsv" : ".csv";
+   }
+
+   public void begin(VoteResult result) throws IOException {
+      outputDir.mkdirs();
+      File file = new File(outputDir, ResultSinks.getFileName(result.getTitle()) + extension);
+      writer = new BufferedWriter(new FileWriter(file), BUFFER_SIZE);
+
+      writer.write("instance");
+      if (result.hasLikelihood()) {
+         for (int i = 0; i < result.getNumClasses(); i++) {
+            writer.write(delimiter);
+            writer.write(escape(result.getDataClasses()[i]));
+         }
+      }
+      writer.write(delimiter + "prediction" + delimiter + "final_prediction");
+      writer.newLine();
+   }
+
+   public void write(VoteResult result, int from, int to) throws IOException {
+      for (int instance = from; instance < to; instance++) {
+         writer.write(Long.toString(result.getInstanceNumber(instance)));
+         if (result.hasLikelihood()) {
+            for (int i = 0; i < result.getNumClasses(); i++) {
+               double likelihood = result.getLikelihood(instance, i);
+               writer.write(delimiter);
+               writer.write(Double.toString(likelihood == -1 ? 0.0 : likelihood));
+            }
+         }
+         writer.write(delimiter);
+         writer.write(escape(result.getClassName(result.getPredictions()[instance])));
+         writer.write(delimiter);
+         writer.write(escape(result.getClassName(result.getFinalPredictions()[instance])));
+         writer.newLine();
+      }
+   }
+
+   public void end(VoteResult result) throws IOException {
+      writer.close();
+   }
+
+   /** Write a field so that it stays one field of one row */
+   private String escape(String field) {
+      if (delimiter == '\t') {
+         return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n")
+               .replace("\r", "\\r");
+      }
+      if (field.indexOf(delimiter) < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0
+            && field.indexOf('\r') < 0) {
+         return field;
+      }
+      return '"' + field.replace("\"", "\"\"") + '"';
+   }
+}
@@ -1,18 +1,15 @@
 /** The Driver class handles the execution of the whole classifier module */
 
 import java.io.BufferedReader;
-import java.io.OutputStream;
-import java.io.PrintStream;
-import java.util.HashMap;
+import java.io.File;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.classifiers.functions.MultilayerPerceptron;
 import weka.classifiers.functions.LibSVM;
 import weka.classifiers.bayes.BayesNet;
 import weka.classifiers.lazy.IBk;
-import weka.core.FastVector;
-import weka.core.Instances;
 
 public class Driver {
 
@@ -21,91 +18,69 @@ public class Driver {
        * Read the arff file and allow the DataHandler class to process it for necessary parameters
        */
       FileHandler handler = new FileHandler();
-      BufferedReader datafile = handler.readFile();
+      RunConfig config = RunConfig.fromSystemProperties();
 
-      DataHandler dataHandler = new DataHandler(datafile);
+      File arffFile = handler.chooseFile();
 
-      /** Get data classes */
-      String[] dataClasses = dataHandler.getDataClasses();
+      if (config.isStreaming()) {
+         runStreaming(arffFile, config);
+         return;
+      }
 
-      int numClasses = dataHandler.getSize();
-      int numInstances = dataHandler.getClassInstances();
+      /** Use the binary copy of the arff file kept by previous runs when caching is enabled */
+      DataHandler dataHandler;
+      if (config.getCacheDir() != null) {
+         DatasetCache cache = new DatasetCache(new File(config.getCacheDir()));
+         dataHandler = new DataHandler(cache.load(arffFile));
+      } else {
+         BufferedReader datafile = handler.readFile(arffFile);
+         dataHandler = new DataHandler(datafile);
+      }
 
       /** Use a set of 5 classifiers */
       Classifier[] models = {
             new NaiveBayes(), /** Naive Bayes */
            // new LibSVM(), /** SVM */
            // new MultilayerPerceptron(), /** Neural Network */
-            new IBk(), /** K-Nearest Neighbor */
+            config.createNearestNeighbor(), /** K-Nearest Neighbor */
             new BayesNet() /** Maximum Entropy */
       };
 
-      libsvm.svm.svm_set_print_string_function(new libsvm.svm_print_interface() {
-         @Override
-         /** Disables the geeky SVM output */
-         public void print(String s) {}
-      });
-
-      System.setErr(new PrintStream(new OutputStream() {
-         /** Disables the warnings returned by the classifiers */
-         public void write(int b) {}
-      }));
-
-      HashMap<Integer, Model> predictionPerModel = new HashMap<Integer, Model>();
-      Instances data = dataHandler.getData();
-
-      /** Store every group of predictions for current model in a FastVector */
-      FastVector predictions = new FastVector();
-
-      /** Run for each model */
-      for (int j = 0; j < models.length; j++) {
-         System.out.println("*********************************");
-         Model model = new Model();
-
-         /** For each training-testing split pair, train and test the classifier */
-         predictions = model.classify(models[j], data);
-
-         /** Get and set the accuracy of the models given their predictions */
-         model.calculateAccuracy(predictions);
-         model.setPredictions(data, predictions);
-
-         predictionPerModel.put(j, model);
-         System.out.println("*********************************");
+      Pipeline.silenceClassifiers();
+
+      /** Stop the fold pool, or the worker JVMs, once the run is over */
+      FoldCrossValidator crossValidator = config.createCrossValidator();
+      try {
+         /** Estimate the accuracies on growing subsamples when an approximate answer is enough */
+         if (config.isApproximate()) {
+            new ApproximateEvaluator(models, config, crossValidator, System.out).run(dataHandler);
+            return;
+         }
+
+         /** Cross validate every model, then aggregate their predictions */
+         Pipeline pipeline = new Pipeline(models, config, crossValidator, System.out);
+         pipeline.run(dataHandler, config.createResultSink());
+      } finally {
+         crossValidator.shutdown();
       }
+   }
 
-      /** Aggregate the predictions made by the set of classifiers */
-      Aggregator aggr = new Aggregator(models, predictionPerModel, dataClasses, numInstances,
-            numClasses, predictions);
-
-      aggr.populateModelList();
-
-      /** Stores the list of aggregated predictions */
-      double[] aggrPredictions;
-      double aggrAccuracy = 0.0;
-
-      System.out.println("*********************************");
-      /** Majority Voting */
-      aggrPredictions = aggr.majorityVoting();
-
-      aggrAccuracy = aggr.calculateAggrAccuracy(aggrPredictions);
-
-      System.out.println("---------------------------------");
-      System.out.println("Accuracy: " + String.format("%.4f%%", aggrAccuracy));
-      System.out.println("*********************************");
-
-      System.out.println("*********************************");
-      /** Weighted Majority Voting */
-      aggrPredictions = aggr.weightedMajorityVoting();
-
-      aggrAccuracy = aggr.calculateAggrAccuracy(aggrPredictions);
+   /**
+    * Classify an arff file too large to be loaded into memory, using the models that can learn one
+    * instance at a time
+    */
+   private static void runStreaming(File arffFile, RunConfig config) throws Exception {
+      IBk knn = new IBk();
+      knn.setWindowSize(config.getWindowSize());
 
-      System.out.println("---------------------------------");
-      System.out.println("Accuracy: " + String.format("%.4f%%", aggrAccuracy));
-      System.out.println("*********************************");
+      Classifier[] models = {
+            new NaiveBayesUpdateable(), /** Naive Bayes */
+            knn /** K-Nearest Neighbor, keeping only the most recent instances */
+      };
 
-      System.out.println("*********************************");
-      /** Stacking with SVM */
-      aggr.stackingWithSVM(data);
-      System.out.println("*********************************");
+      StreamingEvaluator evaluator = new StreamingEvaluator(models, config.getChunkSize(),
+            config.createResultSink(), config.createResultSink());
+      evaluator.setWeighting(config.createWeightingStrategy());
+      evaluator.run(arffFile);
    }
 }
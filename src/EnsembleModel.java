@@ -0,0 +1,266 @@
+/**
+ * The EnsembleModel class holds an ensemble trained on a whole dataset, ready to classify new
+ * instances: the base models, the weights Weighted Majority Voting gives them, and optionally the
+ * stacking meta-classifier. It is serialized once after training and loaded by the ScoringService.
+ * 
+ * Parameters are: header: the attributes of the dataset the ensemble was trained on (no instances).
+ * 
+ * models: the base models, trained on the whole dataset.
+ * 
+ * weights: the weight of each base model, given its cross validated accuracy.
+ * 
+ * stacking: the stacking classifier trained on the whole dataset, or null.
+ * 
+ * costs: the time (in milliseconds) each base model took to predict the testing splits of its cross
+ * validation, which orders the models of a Cascade. It is null for ensembles saved before it was
+ * measured.
+ */
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.functions.LibSVM;
+import weka.classifiers.meta.Stacking;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+public class EnsembleModel implements Serializable {
+   private static final long serialVersionUID = 1L;
+
+   private Instances header;
+   private Classifier[] models;
+   private int[] weights;
+   private Classifier stacking;
+   private double[] costs;
+
+   public EnsembleModel(Instances header, Classifier[] models, int[] weights, Classifier stacking) {
+      this.header = header;
+      this.models = models;
+      this.weights = weights;
+      this.stacking = stacking;
+   }
+
+   /**
+    * Train the ensemble on the whole dataset. The models are cross validated first so that their
+    * weights reflect their accuracy on unseen instances.
+    */
+   public static EnsembleModel train(Classifier[] models, DataHandler dataHandler, RunConfig config,
+         boolean withStacking) throws Exception {
+      Instances data = dataHandler.getData();
+      FoldCrossValidator crossValidator = config.createCrossValidator();
+      EnsembleRunner runner = new EnsembleRunner(models, config, crossValidator);
+      HashMap<Integer, Model> predictionPerModel;
+      try {
+         predictionPerModel = runner.run(data);
+      } finally {
+         crossValidator.shutdown();
+      }
+      runner.printTimingReport(predictionPerModel);
+
+      Classifier[] trained = new Classifier[models.length];
+      int[] weights = new int[models.length];
+      double[] costs = new double[models.length];
+      for (int j = 0; j < models.length; j++) {
+         trained[j] = Classifier.makeCopy(models[j]);
+         trained[j].buildClassifier(data);
+         weights[j] = Aggregator.getWeight(predictionPerModel.get(j).getAccuracy());
+         costs[j] = predictionPerModel.get(j).getPredictionTime();
+      }
+
+      Classifier stacking = null;
+      if (withStacking && config.usesOutOfFoldStacking()) {
+         /** Train the meta-classifier on the predictions the models made during cross validation */
+         ArrayList<Model> modelList = new ArrayList<Model>();
+         for (int j = 0; j < models.length; j++) {
+            modelList.add(predictionPerModel.get(j));
+         }
+
+         OutOfFoldStacking oof = new OutOfFoldStacking(config.stacksDistributions(), null);
+         oof.buildMetaData(modelList, data.classAttribute());
+         stacking = new StackedClassifier(copyAll(trained), oof.train(new LibSVM()), oof,
+               config.getNumFolds(), config.getSeed());
+      } else if (withStacking) {
+         Stacking stackSVM = new Stacking();
+         stackSVM.setClassifiers(copyAll(models));
+         stackSVM.setMetaClassifier(new LibSVM());
+         stackSVM.buildClassifier(data);
+         stacking = stackSVM;
+      }
+
+      EnsembleModel ensemble =
+            new EnsembleModel(new Instances(data, 0), trained, weights, stacking);
+      ensemble.costs = costs;
+      return ensemble;
+   }
+
+   private static Classifier[] copyAll(Classifier[] models) throws Exception {
+      Classifier[] copies = new Classifier[models.length];
+
+      for (int j = 0; j < models.length; j++) {
+         copies[j] = Classifier.makeCopy(models[j]);
+      }
+
+      return copies;
+   }
+
+   public void save(String file) throws Exception {
+      SerializationHelper.write(file, this);
+   }
+
+   public static EnsembleModel load(String file) throws Exception {
+      return (EnsembleModel) SerializationHelper.read(file);
+   }
+
+   /** Get an independent copy of the ensemble, for use by another thread */
+   public EnsembleModel copy() throws Exception {
+      EnsembleModel copy = new EnsembleModel(header, copyAll(models),
+            weights, stacking == null ? null : Classifier.makeCopy(stacking));
+      copy.costs = costs;
+      return copy;
+   }
+
+   /**
+    * Turn a line of comma-separated values, in the order of the attributes of the dataset, into an
+    * instance. Values are quoted as Instance.toString writes them. "?" marks a missing value, and
+    * the class value may be left out.
+    */
+   public Instance parseInstance(String line) throws ParseException {
+      List<String> values = splitValues(line);
+      double[] attributes = new double[header.numAttributes()];
+
+      for (int i = 0; i < attributes.length; i++) {
+         Attribute attribute = header.attribute(i);
+         String value = i < values.size() ? values.get(i) : null;
+
+         if (value == null) {
+            attributes[i] = Instance.missingValue();
+         } else if (attribute.isNominal()) {
+            int index = attribute.indexOfValue(value);
+            if (index < 0) {
+               throw new ParseException("Unknown value " + value + " of " + attribute.name(), i);
+            }
+            attributes[i] = index;
+         } else if (attribute.isDate()) {
+            attributes[i] = attribute.parseDate(value);
+         } else {
+            try {
+               attributes[i] = Double.parseDouble(value);
+            } catch (NumberFormatException ex) {
+               throw new ParseException("Not a number: " + value, i);
+            }
+         }
+      }
+
+      Instance instance = new Instance(1.0, attributes);
+      instance.setDataset(header);
+      return instance;
+   }
+
+   /**
+    * Split a line into its values. A value holding a comma, a space or a quote is enclosed in
+    * single or double quotes, with the characters Weka escapes preceded by a backslash. An unquoted
+    * "?" or an empty value is missing, and is returned as null.
+    */
+   static List<String> splitValues(String line) throws ParseException {
+      List<String> values = new ArrayList<String>();
+      StringBuilder value = new StringBuilder();
+      int i = 0;
+
+      while (i <= line.length()) {
+         while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+         }
+         value.setLength(0);
+
+         if (i < line.length() && (line.charAt(i) == '\'' || line.charAt(i) == '"')) {
+            char quote = line.charAt(i++);
+            while (i < line.length() && line.charAt(i) != quote) {
+               char c = line.charAt(i++);
+               if (c == '\\' && i < line.length()) {
+                  c = unescape(line.charAt(i++));
+               }
+               value.append(c);
+            }
+            if (i++ >= line.length()) {
+               throw new ParseException("Unterminated quote in value " + (values.size() + 1), i);
+            }
+            while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+               i++;
+            }
+            if (i < line.length() && line.charAt(i) != ',') {
+               throw new ParseException("Text after the quoted value " + (values.size() + 1), i);
+            }
+            values.add(value.toString());
+         } else {
+            while (i < line.length() && line.charAt(i) != ',') {
+               value.append(line.charAt(i++));
+            }
+            String text = value.toString().trim();
+            values.add(text.equals("?") || text.isEmpty() ? null : text);
+         }
+
+         /** Step over the comma */
+         i++;
+      }
+
+      return values;
+   }
+
+   /** Get the character a backslash escape stands for, as Weka's Utils.backQuoteChars writes it */
+   private static char unescape(char escaped) {
+      if (escaped == 'n') {
+         return '\n';
+      } else if (escaped == 'r') {
+         return '\r';
+      } else if (escaped == 't') {
+         return '\t';
+      }
+      return escaped;
+   }
+
+   /** Get classes (in String) of the dataset */
+   public String[] getDataClasses() {
+      String[] dataClasses = new String[header.numClasses()];
+
+      for (int i = 0; i < dataClasses.length; i++) {
+         dataClasses[i] = header.classAttribute().value(i);
+      }
+
+      return dataClasses;
+   }
+
+   public Instances getHeader() {
+      return this.header;
+   }
+
+   public Classifier[] getModels() {
+      return this.models;
+   }
+
+   public int[] getWeights() {
+      return this.weights;
+   }
+
+   public Classifier getStacking() {
+      return this.stacking;
+   }
+
+   public double[] getCosts() {
+      return this.costs;
+   }
+
+   /**
+    * Create a Cascade over the base models, weighted as in Weighted Majority Voting. Without
+    * measured costs, the models are ordered by weight only.
+    */
+   public Cascade createCascade(double margin) {
+      return Cascade.of(costs == null ? new double[models.length] : costs, weights,
+            header.numClasses(), margin);
+   }
+}
@@ -0,0 +1,217 @@
+/**
+ * The EnsembleRunner class trains and cross validates every base model of the ensemble, either one
+ * after another or all at once on a pool of worker threads.
+ * 
+ * Parameters are: models: the base models of the ensemble.
+ * 
+ * threads: the number of models evaluated at the same time.
+ * 
+ * crossValidator: the fold-parallel cross validation shared by the models, or null to use Weka's.
+ * 
+ * config: the settings of the run, e.g. where the full-dataset models are kept.
+ * 
+ * resultCache: the cache of cross validation results shared by the models, or null to always train.
+ * 
+ * incrementalTrainer: updates the models of the last run with the appended rows, or null to train
+ * every model from scratch.
+ * 
+ * predictions: predictions produced by the last model, used by the Aggregator to read the actual
+ * classification of each instance. How the predictions are held is taken from the config.
+ * 
+ * wallClockTime: the time (in milliseconds) the whole run took.
+ * 
+ * out: where the summaries and the timing report are displayed.
+ */
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+public class EnsembleRunner {
+   private Classifier[] models;
+   private int threads;
+   private FoldCrossValidator crossValidator;
+   private RunConfig config;
+   private ResultCache resultCache;
+   private IncrementalTrainer incrementalTrainer;
+   private PredictionStore predictions;
+   private long wallClockTime;
+   private PrintStream out;
+
+   public EnsembleRunner(Classifier[] models, RunConfig config,
+         FoldCrossValidator crossValidator) {
+      this.models = models;
+      this.config = config;
+      this.threads = config.getThreads();
+      this.resultCache = config.createResultCache();
+      this.crossValidator = crossValidator;
+      this.incrementalTrainer = config.createIncrementalTrainer(crossValidator);
+      this.wallClockTime = 0;
+      this.out = System.out;
+   }
+
+   public void setOutput(PrintStream out) {
+      this.out = out;
+   }
+
+   /** Evaluate every model and return the models keyed by their position in the ensemble */
+   public HashMap<Integer, Model> run(Instances data) throws Exception {
+      HashMap<Integer, Model> predictionPerModel;
+      long start = System.currentTimeMillis();
+
+      /** Hash the dataset once for all the models */
+      String datasetHash =
+            resultCache == null || incrementalTrainer != null ? null : ResultCache.hash(data);
+
+      if (threads == 1) {
+         predictionPerModel = runSerial(data, datasetHash);
+      } else {
+         predictionPerModel = runParallel(data, datasetHash);
+      }
+
+      wallClockTime = System.currentTimeMillis() - start;
+
+      return predictionPerModel;
+   }
+
+   /** Run for each model, one after another */
+   private HashMap<Integer, Model> runSerial(Instances data, String datasetHash) throws Exception {
+      HashMap<Integer, Model> predictionPerModel = new HashMap<Integer, Model>();
+
+      for (int j = 0; j < models.length; j++) {
+         out.println("*********************************");
+         Model model = new Model();
+         model.setIndex(j);
+         model.setCrossValidator(crossValidator);
+         model.setResultCache(resultCache, datasetHash);
+         model.setIncrementalTrainer(incrementalTrainer);
+         model.setFinalModelFile(config.getFinalModelFile(models[j], j));
+         model.setPredictionStorage(config.storesDistributions(),
+               config.storesPredictionsOffHeap());
+
+         /** For each training-testing split pair, train and test the classifier */
+         predictions = model.evaluate(models[j], data);
+         out.println(model.getSummary());
+         out.println(model.getPhaseReport());
+
+         /** Get and set the accuracy of the models given their predictions */
+         model.calculateAccuracy(predictions);
+         model.setPredictions(predictions);
+
+         predictionPerModel.put(j, model);
+         out.println("*********************************");
+      }
+
+      return predictionPerModel;
+   }
+
+   /**
+    * Run every model at the same time. Each task works on its own copy of the classifier and of the
+    * dataset, so that no Weka object is shared between threads. Summaries are displayed afterwards
+    * in the order of the models so the output matches the serial run.
+    */
+   private HashMap<Integer, Model> runParallel(final Instances data, final String datasetHash)
+         throws Exception {
+      HashMap<Integer, Model> predictionPerModel = new HashMap<Integer, Model>();
+      ArrayList<Future<Model>> results = new ArrayList<Future<Model>>();
+      final PredictionStore[] predictionList = new PredictionStore[models.length];
+      ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, models.length));
+
+      try {
+         for (int j = 0; j < models.length; j++) {
+            final Classifier copy = Classifier.makeCopy(models[j]);
+            final Instances dataCopy = new Instances(data);
+            final String finalModelFile = config.getFinalModelFile(models[j], j);
+            final int index = j;
+            results.add(pool.submit(new Callable<Model>() {
+               public Model call() throws Exception {
+                  Model model = new Model();
+                  model.setIndex(index);
+                  model.setCrossValidator(crossValidator);
+                  model.setResultCache(resultCache, datasetHash);
+                  model.setIncrementalTrainer(incrementalTrainer);
+                  model.setFinalModelFile(finalModelFile);
+                  model.setPredictionStorage(config.storesDistributions(),
+                        config.storesPredictionsOffHeap());
+                  PredictionStore modelPredictions = model.evaluate(copy, dataCopy);
+
+                  model.calculateAccuracy(modelPredictions);
+                  model.setPredictions(modelPredictions);
+                  predictionList[index] = modelPredictions;
+
+                  return model;
+               }
+            }));
+         }
+
+         for (int j = 0; j < models.length; j++) {
+            Model model = getResult(results.get(j));
+
+            out.println("*********************************");
+            out.println(model.getSummary());
+            out.println(model.getPhaseReport());
+            out.println("*********************************");
+
+            predictionPerModel.put(j, model);
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+
+      predictions = predictionList[models.length - 1];
+
+      return predictionPerModel;
+   }
+
+   /** Unwrap the exception thrown by a model so that it reaches the caller unchanged */
+   private Model getResult(Future<Model> result) throws Exception {
+      try {
+         return result.get();
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof Exception) {
+            throw (Exception) ex.getCause();
+         }
+         throw ex;
+      }
+   }
+
+   /** Display the wall-clock time of the run and the time each model took */
+   public void printTimingReport(HashMap<Integer, Model> predictionPerModel) {
+      long totalTime = 0;
+
+      out.println("*********************************");
+      out.println("Timing Report (" + threads + " thread(s))");
+      out.println("---------------------------------");
+
+      for (int j = 0; j < models.length; j++) {
+         long elapsedTime = predictionPerModel.get(j).getElapsedTime();
+         totalTime = totalTime + elapsedTime;
+         out.println(models[j].getClass().getSimpleName() + ": " + elapsedTime + " ms");
+      }
+
+      out.println("---------------------------------");
+      out.println("Sum of model times: " + totalTime + " ms");
+      out.println("Wall-clock time: " + wallClockTime + " ms");
+      if (wallClockTime > 0) {
+         out.println(
+               "Speedup: " + String.format("%.2fx", (double) totalTime / (double) wallClockTime));
+      }
+      out.println("*********************************");
+   }
+
+   public PredictionStore getPredictions() {
+      return this.predictions;
+   }
+
+   public long getWallClockTime() {
+      return this.wallClockTime;
+   }
+}
@@ -0,0 +1,349 @@
+/**
+ * The FastKNN class is a K-Nearest Neighbor classifier meant to replace IBk in the ensemble on
+ * large datasets. It classifies the way IBk does with its default settings (Euclidean distance on
+ * attributes normalized to [0, 1], one vote per neighbor), but every instance is turned into a
+ * vector of a flat array once, and the neighbors are found by a NeighborIndex instead of a linear
+ * search:
+ * 
+ * "linear": a linear search, exact.
+ * 
+ * "kdtree": a k-d tree, exact and fast while there are few dimensions.
+ * 
+ * "hnsw": a navigable small world graph, approximate and fast with many dimensions. efSearch trades
+ * recall for speed.
+ * 
+ * "auto" (default): linear for small datasets, kdtree up to MAX_KDTREE_DIMENSIONS dimensions, and
+ * above, hnsw once there are enough instances for the graph to be worth building: building it costs
+ * about as much as a hundred linear searches per instance.
+ * 
+ * A nominal attribute becomes one dimension per value, so that two different values are at the
+ * same distance as in IBk. Missing values are replaced by the mean (numeric) or by no value at all
+ * (nominal), which is where the distances differ from those of IBk. As in IBk, the points as far
+ * as the k-th nearest neighbor vote too, so more than k neighbors may vote; the hnsw index only
+ * finds those among its candidates. Only nominal classes are supported.
+ * 
+ * Parameters are: k: the number of neighbors.
+ * 
+ * indexType: the index finding the neighbors.
+ * 
+ * efSearch, links: the number of candidates kept when searching, and of links per point, of the
+ * hnsw index.
+ * 
+ * header: the attributes of the training data (no instances).
+ * 
+ * offsets: the first dimension of each attribute, or -1 for the class and unsupported attributes.
+ * 
+ * points, classes, weights: the training instances as vectors, with their class and weight.
+ */
+
+import java.util.Enumeration;
+import java.util.Vector;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.lazy.IBk;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+
+public class FastKNN extends Classifier {
+   private static final long serialVersionUID = 1L;
+
+   /** Number of training instances below which a linear search is the fastest */
+   private static final int MIN_INDEXED_INSTANCES = 2000;
+
+   /** Number of dimensions above which a k-d tree is no faster than a linear search */
+   private static final int MAX_KDTREE_DIMENSIONS = 20;
+
+   /** Number of training instances from which an hnsw index is faster than a linear search */
+   private static final int MIN_GRAPH_INSTANCES = 50000;
+
+   /** Number of candidates considered when a point is linked into the hnsw index */
+   private static final int EF_CONSTRUCTION = 64;
+
+   /** Scale of a one-hot dimension, so that two different nominal values are at distance 1 */
+   private static final double NOMINAL_SCALE = Math.sqrt(0.5);
+
+   private int k;
+   private String indexType;
+   private int efSearch;
+   private int links;
+   private Instances header;
+   private int[] offsets;
+   private double[] minimums;
+   private double[] ranges;
+   private double[] means;
+   private int dimensions;
+   private double[] points;
+   private int[] classes;
+   private double[] weights;
+   private int numPoints;
+   private NeighborIndex index;
+   private transient double[] query;
+   private transient int[] neighbors;
+   private transient double[] distances;
+
+   public FastKNN() {
+      this.k = 1;
+      this.indexType = "auto";
+      this.efSearch = 64;
+      this.links = 16;
+   }
+
+   public void buildClassifier(Instances data) throws Exception {
+      if (!data.classAttribute().isNominal()) {
+         throw new Exception("FastKNN only handles nominal classes");
+      }
+
+      header = new Instances(data, 0);
+      layOut(data);
+
+      /** Training instances without a class are ignored, as IBk does */
+      int count = 0;
+      for (int i = 0; i < data.numInstances(); i++) {
+         if (!data.instance(i).classIsMissing()) {
+            count++;
+         }
+      }
+
+      points = new double[count * dimensions];
+      classes = new int[count];
+      weights = new double[count];
+      numPoints = 0;
+      for (int i = 0; i < data.numInstances(); i++) {
+         Instance instance = data.instance(i);
+         if (instance.classIsMissing()) {
+            continue;
+         }
+         toVector(instance, points, numPoints * dimensions);
+         classes[numPoints] = (int) instance.classValue();
+         weights[numPoints] = instance.weight();
+         numPoints++;
+      }
+
+      index = createIndex(getIndexType(numPoints, dimensions));
+      index.build(points, numPoints, dimensions);
+   }
+
+   /** Decide the dimensions of each attribute, and the range and mean of the numeric ones */
+   private void layOut(Instances data) {
+      int numAttributes = data.numAttributes();
+
+      offsets = new int[numAttributes];
+      minimums = new double[numAttributes];
+      ranges = new double[numAttributes];
+      means = new double[numAttributes];
+      dimensions = 0;
+
+      for (int a = 0; a < numAttributes; a++) {
+         Attribute attribute = data.attribute(a);
+
+         offsets[a] = -1;
+         if (a == data.classIndex()) {
+            continue;
+         }
+         if (attribute.isNominal()) {
+            offsets[a] = dimensions;
+            dimensions += attribute.numValues();
+         } else if (attribute.isNumeric()) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            int count = 0;
+
+            for (int i = 0; i < data.numInstances(); i++) {
+               double value = data.instance(i).value(a);
+               if (!Instance.isMissingValue(value)) {
+                  min = Math.min(min, value);
+                  max = Math.max(max, value);
+                  sum += value;
+                  count++;
+               }
+            }
+
+            offsets[a] = dimensions;
+            dimensions++;
+            minimums[a] = count == 0 ? 0 : min;
+            ranges[a] = count == 0 ? 0 : max - min;
+            means[a] = count == 0 ? 0 : sum / count;
+         }
+      }
+   }
+
+   /** Write the instance as a vector into the array, from the offset */
+   private void toVector(Instance instance, double[] vector, int offset) {
+      for (int a = 0; a < offsets.length; a++) {
+         if (offsets[a] < 0) {
+            continue;
+         }
+
+         double value = instance.value(a);
+         int position = offset + offsets[a];
+
+         if (header.attribute(a).isNominal()) {
+            for (int v = 0; v < header.attribute(a).numValues(); v++) {
+               vector[position + v] = 0;
+            }
+            if (!Instance.isMissingValue(value)) {
+               vector[position + (int) value] = NOMINAL_SCALE;
+            }
+         } else {
+            if (Instance.isMissingValue(value)) {
+               value = means[a];
+            }
+            vector[position] = ranges[a] == 0 ? 0 : (value - minimums[a]) / ranges[a];
+         }
+      }
+   }
+
+   private String getIndexType(int numInstances, int numDimensions) {
+      if (!"auto".equals(indexType)) {
+         return indexType;
+      }
+      if (numInstances < MIN_INDEXED_INSTANCES) {
+         return "linear";
+      }
+      if (numDimensions <= MAX_KDTREE_DIMENSIONS) {
+         return "kdtree";
+      }
+      return numInstances < MIN_GRAPH_INSTANCES ? "linear" : "hnsw";
+   }
+
+   private NeighborIndex createIndex(String type) {
+      if ("linear".equals(type)) {
+         return new LinearIndex();
+      } else if ("kdtree".equals(type)) {
+         return new KdTreeIndex();
+      } else if ("hnsw".equals(type)) {
+         return new HnswIndex(links, EF_CONSTRUCTION, efSearch, 1);
+      }
+      throw new IllegalArgumentException("Unknown neighbor index: " + type);
+   }
+
+   /**
+    * Give every class 1 / (number of training instances), then add the weight of each neighbor to
+    * its class, as IBk does
+    */
+   public double[] distributionForInstance(Instance instance) throws Exception {
+      double[] distribution = new double[header.numClasses()];
+      double total = (double) distribution.length / Math.max(1, numPoints);
+
+      for (int c = 0; c < distribution.length; c++) {
+         distribution[c] = 1.0 / Math.max(1, numPoints);
+      }
+
+      if (query == null) {
+         query = new double[dimensions];
+         neighbors = new int[k];
+         distances = new double[k];
+      }
+
+      toVector(instance, query, 0);
+      int count = index.search(query, k, neighbors, distances);
+      if (count > neighbors.length) {
+         /** More points are tied with the k-th nearest than there is room for */
+         neighbors = new int[count];
+         distances = new double[count];
+         count = index.search(query, k, neighbors, distances);
+      }
+
+      for (int i = 0; i < count; i++) {
+         distribution[classes[neighbors[i]]] += weights[neighbors[i]];
+         total += weights[neighbors[i]];
+      }
+      if (total > 0) {
+         Utils.normalize(distribution, total);
+      }
+
+      return distribution;
+   }
+
+   /** Get an IBk with the same number of neighbors, to compare FastKNN with */
+   public IBk toIBk() {
+      IBk ibk = new IBk();
+      ibk.setKNN(k);
+      return ibk;
+   }
+
+   public Enumeration listOptions() {
+      Vector<Option> options = new Vector<Option>();
+
+      options.addElement(new Option("\tNumber of nearest neighbors (default 1).", "K", 1,
+            "-K <number of neighbors>"));
+      options.addElement(new Option(
+            "\tNeighbor index: auto, linear, kdtree or hnsw (default auto).", "I", 1,
+            "-I <index>"));
+      options.addElement(new Option(
+            "\tCandidates kept when searching the hnsw index (default 64).", "E", 1, "-E <ef>"));
+      options.addElement(new Option("\tLinks per point of the hnsw index (default 16).", "M", 1,
+            "-M <links>"));
+
+      return options.elements();
+   }
+
+   public void setOptions(String[] options) throws Exception {
+      String value = Utils.getOption('K', options);
+      setKNN(value.length() == 0 ? 1 : Integer.parseInt(value));
+
+      value = Utils.getOption('I', options);
+      setIndexType(value.length() == 0 ? "auto" : value);
+
+      value = Utils.getOption('E', options);
+      setEfSearch(value.length() == 0 ? 64 : Integer.parseInt(value));
+
+      value = Utils.getOption('M', options);
+      setLinks(value.length() == 0 ? 16 : Integer.parseInt(value));
+
+      super.setOptions(options);
+   }
+
+   public String[] getOptions() {
+      return new String[] { "-K", String.valueOf(k), "-I", indexType, "-E",
+            String.valueOf(efSearch), "-M", String.valueOf(links) };
+   }
+
+   public int getKNN() {
+      return this.k;
+   }
+
+   public void setKNN(int k) {
+      this.k = Math.max(1, k);
+   }
+
+   public String getIndexType() {
+      return this.indexType;
+   }
+
+   public void setIndexType(String indexType) {
+      if (!"auto".equals(indexType)) {
+         createIndex(indexType);
+      }
+      this.indexType = indexType;
+   }
+
+   public int getEfSearch() {
+      return this.efSearch;
+   }
+
+   public void setEfSearch(int efSearch) {
+      this.efSearch = Math.max(1, efSearch);
+   }
+
+   public int getLinks() {
+      return this.links;
+   }
+
+   public void setLinks(int links) {
+      this.links = Math.max(2, links);
+   }
+
+   public String toString() {
+      if (index == null) {
+         return "FastKNN: No model built yet.";
+      }
+      return "FastKNN using " + k + " nearest neighbour(s) found by "
+            + index.getClass().getSimpleName() + " over " + numPoints + " instances in "
+            + dimensions + " dimensions";
+   }
+}
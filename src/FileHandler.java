@@ -4,6 +4,7 @@
  */
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 
@@ -12,7 +13,26 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class FileHandler {
    public BufferedReader readFile() {
-      String filename = null;
+      return readFile(chooseFile());
+   }
+
+   public BufferedReader readFile(File file) {
+      String filename = file == null ? null : file.getAbsolutePath();
+
+      BufferedReader inputReader = null;
+
+      try {
+         inputReader = new BufferedReader(new FileReader(filename));
+      } catch (FileNotFoundException ex) {
+         System.err.println("File not found: " + filename);
+      }
+
+      return inputReader;
+   }
+
+   /** Let the user select the arff file, returns null if no file was chosen */
+   public File chooseFile() {
+      File file = null;
       
       JFileChooser chooser = new JFileChooser();
       int returnVal = chooser.showOpenDialog(null);
@@ -22,17 +42,9 @@ public class FileHandler {
       
       if (returnVal == JFileChooser.APPROVE_OPTION) {
          System.out.println("You chose to open this file: " + chooser.getSelectedFile().getName());
-         filename = chooser.getSelectedFile().getAbsolutePath();
+         file = chooser.getSelectedFile();
       }
 
-      BufferedReader inputReader = null;
-
-      try {
-         inputReader = new BufferedReader(new FileReader(filename));
-      } catch (FileNotFoundException ex) {
-         System.err.println("File not found: " + filename);
-      }
-
-      return inputReader;
+      return file;
    }
 }
\ No newline at end of file
@@ -0,0 +1,295 @@
+/**
+ * The FoldCrossValidator class cross validates a classifier with every fold trained and tested at
+ * the same time on a fork-join pool. The splits come from DataHandler.crossValidationSplit, and the
+ * predictions of each fold are recorded in fold order, so the resulting Evaluation holds the same
+ * predictions and statistics as Evaluation.crossValidateModel with the same seed.
+ * 
+ * Parameters are: numFolds: the number of folds used in cross validation.
+ * 
+ * seed: the seed of the random generator used to shuffle the dataset.
+ * 
+ * pool: the fork-join pool the folds are trained on. It can be shared by several models. Without a
+ * pool, the folds run one after another on the calling thread when their time is recorded, and
+ * through Weka's serial Evaluation.crossValidateModel otherwise.
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class FoldCrossValidator {
+   private int numFolds;
+   private int seed;
+   private ForkJoinPool pool;
+
+   public FoldCrossValidator(int numFolds, int seed, int threads) {
+      this.numFolds = numFolds;
+      this.seed = seed;
+      this.pool = threads > 0 ? new ForkJoinPool(threads) : null;
+   }
+
+   /** Cross validate the model and return the Evaluation holding its predictions */
+   public Evaluation crossValidateModel(Classifier model, Instances data) throws Exception {
+      return crossValidateModel(model, data, null);
+   }
+
+   /**
+    * Cross validate the model, recording the time each fold spends training and testing into the
+    * timer when one is given.
+    */
+   public Evaluation crossValidateModel(Classifier model, Instances data, PhaseTimer timer)
+         throws Exception {
+      return crossValidateModel(model, data, timer, true);
+   }
+
+   /**
+    * Cross validate the model. Without shuffling, every fold tests a contiguous block of the data, so
+    * the predictions come back in the order of the instances.
+    */
+   public Evaluation crossValidateModel(Classifier model, Instances data, PhaseTimer timer,
+         boolean shuffle) throws Exception {
+      return crossValidateModel(model, data, timer, shuffle, null);
+   }
+
+   /**
+    * Cross validate the model, adding its predictions to the store when one is given rather than
+    * recording them in the Evaluation, whose statistics are computed all the same. Weka's serial
+    * cross validation always records them, so they are copied into the store afterwards.
+    */
+   public Evaluation crossValidateModel(Classifier model, Instances data, PhaseTimer timer,
+         boolean shuffle, PredictionStore store) throws Exception {
+      return crossValidateModel(model, data, timer, shuffle, store, -1);
+   }
+
+   /**
+    * Cross validate the model at the position in the ensemble, which labels the profiled phases of
+    * its folds (-1 for a model outside the ensemble)
+    */
+   public Evaluation crossValidateModel(Classifier model, Instances data, PhaseTimer timer,
+         boolean shuffle, PredictionStore store, int modelIndex) throws Exception {
+      DataHandler dataHandler = new DataHandler(data);
+      Evaluation evaluation = new Evaluation(data);
+
+      if (isSerial() && shuffle && timer == null) {
+         evaluation.crossValidateModel(model, data, numFolds, new Random(seed));
+         if (store != null) {
+            store.addAll(evaluation.predictions());
+         }
+         return evaluation;
+      }
+
+      if (shuffle) {
+         dataHandler.crossValidationSplit(numFolds, new Random(seed));
+      } else {
+         dataHandler.crossValidationSplit(numFolds);
+      }
+      Instances[] trainingSplits = dataHandler.getTrainingSplit();
+      Instances[] testingSplits = dataHandler.getTestingSplit();
+      FoldResult[] results =
+            runFolds(model, modelIndex, data, trainingSplits, testingSplits, shuffle);
+
+      /** Record the predictions in the order Weka uses: fold by fold, instance by instance */
+      for (int i = 0; i < numFolds; i++) {
+         if (timer != null) {
+            timer.record("Fold " + (i + 1) + " fit", results[i].getFitTime());
+            timer.record("Fold " + (i + 1) + " predict", results[i].getPredictTime());
+            timer.record("Fold fit (all folds)", results[i].getFitTime());
+            timer.record("Fold predict (all folds)", results[i].getPredictTime());
+         }
+
+         evaluation.setPriors(trainingSplits[i]);
+         for (int j = 0; j < testingSplits[i].numInstances(); j++) {
+            double[] distribution = results[i].getDistributions()[j];
+            Instance instance = testingSplits[i].instance(j);
+
+            if (store == null) {
+               evaluation.evaluateModelOnceAndRecordPrediction(distribution, instance);
+            } else {
+               evaluation.evaluateModelOnce(distribution, instance);
+               store.add(instance.classValue(), distribution, instance.weight());
+            }
+         }
+      }
+
+      return evaluation;
+   }
+
+   /**
+    * Train and test a copy of the model on every fold and return the results in fold order. The
+    * folds run on the fork-join pool, or one after another without a pool. The data, and whether it
+    * was shuffled, let subclasses running the folds elsewhere rebuild the same splits.
+    */
+   protected FoldResult[] runFolds(Classifier model, int modelIndex, Instances data,
+         Instances[] trainingSplits, Instances[] testingSplits, boolean shuffle) throws Exception {
+      /** Copy the classifier once per fold before any fold starts training */
+      Classifier[] copies = Classifier.makeCopies(model, numFolds);
+      ArrayList<FoldTask> folds = new ArrayList<FoldTask>();
+      FoldResult[] results = new FoldResult[numFolds];
+
+      for (int i = 0; i < numFolds; i++) {
+         folds.add(new FoldTask(copies[i], trainingSplits[i], testingSplits[i], modelIndex, i + 1));
+         if (pool != null) {
+            pool.execute(folds.get(i));
+         }
+      }
+
+      for (int i = 0; i < numFolds; i++) {
+         results[i] = getResult(folds.get(i));
+      }
+
+      return results;
+   }
+
+   /** Train the classifier on the training split and predict the class of the testing split */
+   public static FoldResult trainFold(Classifier classifier, Instances train, Instances test)
+         throws Exception {
+      return trainFold(classifier, train, test, -1, -1);
+   }
+
+   /**
+    * Train and test the fold (numbered from 1) of the model at the position in the ensemble, which
+    * label the profiled phases
+    */
+   public static FoldResult trainFold(Classifier classifier, Instances train, Instances test,
+         int modelIndex, int fold) throws Exception {
+      double[][] distributions = new double[test.numInstances()][];
+      String name = classifier.getClass().getSimpleName();
+      Profiler.Span span = Profiler.start("Fold fit", name, modelIndex, fold);
+
+      classifier.buildClassifier(train);
+      long fitTime = span.end();
+
+      span = Profiler.start("Fold predict", name, modelIndex, fold);
+      for (int j = 0; j < test.numInstances(); j++) {
+         /** Hide the class value from the classifier, as Weka does */
+         Instance classMissing = (Instance) test.instance(j).copy();
+         classMissing.setDataset(test);
+         classMissing.setClassMissing();
+         distributions[j] = classifier.distributionForInstance(classMissing);
+      }
+
+      return new FoldResult(distributions, fitTime, span.end());
+   }
+
+   /**
+    * Check whether Weka's serial cross validation may be used: there is no pool to run folds on.
+    * It is not when the folds are timed, since Weka does not time them.
+    */
+   protected boolean isSerial() {
+      return pool == null;
+   }
+
+   /** Unwrap the exception thrown while training a fold so that it reaches the caller unchanged */
+   private FoldResult getResult(ForkJoinTask<FoldResult> fold) throws Exception {
+      try {
+         /** Without a pool, the fold is trained on the calling thread */
+         return pool == null ? fold.invoke() : fold.get();
+      } catch (FoldException ex) {
+         throw (Exception) ex.getCause();
+      } catch (ExecutionException ex) {
+         Throwable cause = ex.getCause();
+         while (cause instanceof FoldException) {
+            cause = cause.getCause();
+         }
+         if (cause instanceof Exception) {
+            throw (Exception) cause;
+         }
+         throw ex;
+      }
+   }
+
+   public int getNumFolds() {
+      return this.numFolds;
+   }
+
+   public int getSeed() {
+      return this.seed;
+   }
+
+   /** Get the fork-join pool the folds are trained on, or null when Weka's serial one is used */
+   public ForkJoinPool getPool() {
+      return this.pool;
+   }
+
+   public void shutdown() {
+      if (pool != null) {
+         pool.shutdown();
+      }
+   }
+
+   /** Train and test one fold on the fork-join pool */
+   private static class FoldTask extends RecursiveTask<FoldResult> {
+      private static final long serialVersionUID = 1L;
+
+      private Classifier classifier;
+      private Instances train;
+      private Instances test;
+      private int modelIndex;
+      private int fold;
+
+      public FoldTask(Classifier classifier, Instances train, Instances test, int modelIndex,
+            int fold) {
+         this.classifier = classifier;
+         this.train = train;
+         this.test = test;
+         this.modelIndex = modelIndex;
+         this.fold = fold;
+      }
+
+      protected FoldResult compute() {
+         try {
+            return trainFold(classifier, train, test, modelIndex, fold);
+         } catch (Exception ex) {
+            throw new FoldException(ex);
+         }
+      }
+   }
+
+   /**
+    * The class distributions predicted on the testing split of a fold, along with the time (in
+    * nanoseconds) spent training and testing it
+    */
+   public static class FoldResult implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private double[][] distributions;
+      private long fitTime;
+      private long predictTime;
+
+      public FoldResult(double[][] distributions, long fitTime, long predictTime) {
+         this.distributions = distributions;
+         this.fitTime = fitTime;
+         this.predictTime = predictTime;
+      }
+
+      public double[][] getDistributions() {
+         return this.distributions;
+      }
+
+      public long getFitTime() {
+         return this.fitTime;
+      }
+
+      public long getPredictTime() {
+         return this.predictTime;
+      }
+   }
+
+   /** Carries a checked exception out of a fork-join task */
+   private static class FoldException extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      public FoldException(Exception cause) {
+         super(cause);
+      }
+   }
+}
@@ -0,0 +1,55 @@
+/**
+ * The HedgeWeighting class weighs the models as the Weighted Majority and Hedge algorithms do:
+ * every model starts with the same weight, and the weight of a model is multiplied by beta (between
+ * 0 and 1) each time it predicts a labeled instance wrong. The weights therefore follow the models
+ * that did best recently, which suits a stream whose distribution changes over time.
+ * 
+ * Only the number of mistakes of each model is kept. The weights are scaled by the weight of the
+ * model with the fewest mistakes, which does not change the vote but keeps the weights from
+ * underflowing on long streams.
+ * 
+ * Parameters are: beta: the factor a weight is multiplied by on every mistake.
+ * 
+ * mistakes: the number of mistakes per model.
+ * 
+ * fewestMistakes: the number of mistakes of the best model.
+ */
+
+public class HedgeWeighting implements WeightingStrategy {
+   private double beta;
+   private long[] mistakes;
+   private long fewestMistakes;
+
+   public HedgeWeighting(double beta) {
+      if (beta <= 0 || beta >= 1) {
+         throw new IllegalArgumentException("beta must be between 0 and 1: " + beta);
+      }
+      this.beta = beta;
+   }
+
+   public void reset(int numModels, int numClasses) {
+      this.mistakes = new long[numModels];
+      this.fewestMistakes = 0;
+   }
+
+   public void update(int[] predicted, int actual) {
+      long fewest = Long.MAX_VALUE;
+
+      for (int j = 0; j < predicted.length; j++) {
+         if (predicted[j] != actual) {
+            mistakes[j]++;
+         }
+         fewest = Math.min(fewest, mistakes[j]);
+      }
+
+      fewestMistakes = fewest;
+   }
+
+   public double getWeight(int model, int predictedClass) {
+      return Math.pow(beta, mistakes[model] - fewestMistakes);
+   }
+
+   public double getBeta() {
+      return this.beta;
+   }
+}
@@ -0,0 +1,305 @@
+/**
+ * The HnswIndex class finds approximate nearest neighbors with a hierarchical navigable small world
+ * graph (Malkov and Yashunin), which stays fast where a k-d tree degrades to a linear search: when
+ * the points have many dimensions. Every point is linked to its nearest points on layer 0, and a
+ * decreasing share of the points is linked again on each upper layer. A search walks greedily down
+ * the upper layers, then explores layer 0 keeping the efSearch best points found, so efSearch
+ * trades recall (the share of the true nearest neighbors found) for speed.
+ * 
+ * Parameters are: links: the number of links of a point on the upper layers, twice as many on
+ * layer 0.
+ * 
+ * efConstruction: the number of candidates considered when a point is linked.
+ * 
+ * efSearch: the number of candidates kept when searching. The search returns the exact neighbors
+ * when it is at least the number of points. The points tied with the k-th nearest are returned
+ * as long as they are among the candidates.
+ * 
+ * dropped, droppedDistances: the candidates dropped to keep the k nearest, to find their ties.
+ * 
+ * seed: the seed of the random generator drawing the layer of each point, so that an index built
+ * twice on the same points is the same.
+ * 
+ * baseLinks, baseCounts: the links of every point on layer 0, links at a time.
+ * 
+ * upperLinks, upperCounts: the links of a point on the layers above 0, links at a time, or null for
+ * a point only on layer 0.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class HnswIndex implements NeighborIndex {
+   private static final long serialVersionUID = 1L;
+
+   private int links;
+   private int efConstruction;
+   private int efSearch;
+   private long seed;
+   private double[] points;
+   private int numPoints;
+   private int dimensions;
+   private int[] baseLinks;
+   private int[] baseCounts;
+   private int[][] upperLinks;
+   private int[][] upperCounts;
+   private int entryPoint;
+   private int maxLayer;
+   private transient NeighborHeap results;
+   private transient NeighborHeap candidates;
+   private transient int[] visited;
+   private transient int visit;
+   private transient int[] dropped;
+   private transient double[] droppedDistances;
+
+   public HnswIndex(int links, int efConstruction, int efSearch, long seed) {
+      this.links = Math.max(2, links);
+      this.efConstruction = Math.max(1, efConstruction);
+      this.efSearch = Math.max(1, efSearch);
+      this.seed = seed;
+   }
+
+   public void build(double[] points, int numPoints, int dimensions) {
+      Random random = new Random(seed);
+      double levelScale = 1.0 / Math.log(links);
+      int[] found = new int[efConstruction];
+      double[] foundDistances = new double[efConstruction];
+
+      this.points = points;
+      this.numPoints = numPoints;
+      this.dimensions = dimensions;
+      this.baseLinks = new int[numPoints * 2 * links];
+      this.baseCounts = new int[numPoints];
+      this.upperLinks = new int[numPoints][];
+      this.upperCounts = new int[numPoints][];
+      this.entryPoint = -1;
+      this.maxLayer = -1;
+      this.visited = new int[numPoints];
+      this.visit = 0;
+
+      for (int point = 0; point < numPoints; point++) {
+         int layer = (int) (-Math.log(1.0 - random.nextDouble()) * levelScale);
+         int offset = point * dimensions;
+
+         if (layer > 0) {
+            upperLinks[point] = new int[layer * links];
+            upperCounts[point] = new int[layer];
+         }
+         if (entryPoint < 0) {
+            entryPoint = point;
+            maxLayer = layer;
+            continue;
+         }
+
+         int nearest = descend(points, offset, layer);
+         for (int l = Math.min(layer, maxLayer); l >= 0; l--) {
+            searchLayer(points, offset, nearest, efConstruction, l);
+            int maxLinks = getMaxLinks(l);
+
+            /** Link the point to its nearest candidates, and them back to the point */
+            int count = results.drainTo(found, foundDistances);
+            nearest = found[0];
+            for (int i = 0; i < Math.min(count, maxLinks); i++) {
+               addLink(point, found[i], l, maxLinks);
+               addLink(found[i], point, l, maxLinks);
+            }
+         }
+
+         if (layer > maxLayer) {
+            entryPoint = point;
+            maxLayer = layer;
+         }
+      }
+   }
+
+   public int search(double[] query, int k, int[] neighbors, double[] distances) {
+      if (numPoints == 0) {
+         return 0;
+      }
+      if (visited == null) {
+         visited = new int[numPoints];
+      }
+
+      int ef = Math.max(efSearch, k);
+      int nearest = descend(query, 0, 0);
+      searchLayer(query, 0, nearest, ef, 0);
+      if (dropped == null || dropped.length < ef) {
+         dropped = new int[ef];
+         droppedDistances = new double[ef];
+      }
+
+      /** Keep the k nearest of the candidates, farthest dropped first */
+      int numDropped = 0;
+      while (results.size() > k) {
+         droppedDistances[numDropped] = results.getFarthest();
+         dropped[numDropped++] = results.poll();
+      }
+
+      /** The last candidates dropped, as far as the k-th nearest, are its ties */
+      int numTies = 0;
+      while (numTies < numDropped
+            && droppedDistances[numDropped - 1 - numTies] == results.getFarthest()) {
+         numTies++;
+      }
+      if (results.size() + numTies > neighbors.length) {
+         int count = results.size() + numTies;
+         results.clear(ef);
+         return count;
+      }
+
+      int count = results.drainTo(neighbors, distances);
+      for (int i = 0; i < numTies; i++) {
+         neighbors[count + i] = dropped[numDropped - 1 - i];
+         distances[count + i] = droppedDistances[numDropped - 1 - i];
+      }
+      return count + numTies;
+   }
+
+   /** Walk greedily from the entry point down to the layer above the given one */
+   private int descend(double[] query, int offset, int layer) {
+      int nearest = entryPoint;
+      double nearestDistance = getDistance(query, offset, nearest);
+
+      for (int l = maxLayer; l > layer; l--) {
+         boolean moved = true;
+
+         while (moved) {
+            moved = false;
+            int[] neighbors = getLinks(nearest, l);
+            int from = getLinksOffset(nearest, l);
+            int count = getLinkCount(nearest, l);
+
+            for (int i = from; i < from + count; i++) {
+               double distance = getDistance(query, offset, neighbors[i]);
+               if (distance < nearestDistance) {
+                  nearest = neighbors[i];
+                  nearestDistance = distance;
+                  moved = true;
+               }
+            }
+         }
+      }
+
+      return nearest;
+   }
+
+   /**
+    * Explore the layer from the entry point, always expanding the nearest candidate not expanded
+    * yet, until it is farther than every one of the ef best points found. The best points are left
+    * in results.
+    */
+   private void searchLayer(double[] query, int offset, int entry, int ef, int layer) {
+      if (results == null) {
+         results = new NeighborHeap(ef);
+         candidates = new NeighborHeap(ef);
+      }
+      results.clear(ef);
+      /** A max-heap on the negated distance hands out the nearest candidate first */
+      candidates.clear(numPoints);
+
+      if (++visit == Integer.MAX_VALUE) {
+         Arrays.fill(visited, 0);
+         visit = 1;
+      }
+
+      double distance = getDistance(query, offset, entry);
+      visited[entry] = visit;
+      results.offer(entry, distance);
+      candidates.offer(entry, -distance);
+
+      while (candidates.size() > 0) {
+         double candidateDistance = -candidates.getFarthest();
+         int candidate = candidates.poll();
+
+         if (candidateDistance > results.getBound()) {
+            break;
+         }
+
+         int[] neighbors = getLinks(candidate, layer);
+         int from = getLinksOffset(candidate, layer);
+         int count = getLinkCount(candidate, layer);
+
+         for (int i = from; i < from + count; i++) {
+            int neighbor = neighbors[i];
+            if (visited[neighbor] == visit) {
+               continue;
+            }
+            visited[neighbor] = visit;
+
+            distance = getDistance(query, offset, neighbor);
+            if (distance < results.getBound()) {
+               results.offer(neighbor, distance);
+               candidates.offer(neighbor, -distance);
+            }
+         }
+      }
+   }
+
+   /**
+    * Link the point to the neighbor on the layer. A point with too many links keeps the nearest
+    * ones.
+    */
+   private void addLink(int point, int neighbor, int layer, int maxLinks) {
+      int[] pointLinks = getLinks(point, layer);
+      int from = getLinksOffset(point, layer);
+      int count = getLinkCount(point, layer);
+
+      if (count < maxLinks) {
+         pointLinks[from + count] = neighbor;
+         setLinkCount(point, layer, count + 1);
+         return;
+      }
+
+      /** Replace the farthest link when the neighbor is nearer */
+      int pointOffset = point * dimensions;
+      int farthest = -1;
+      double farthestDistance = getDistance(points, pointOffset, neighbor);
+
+      for (int i = from; i < from + count; i++) {
+         double distance = getDistance(points, pointOffset, pointLinks[i]);
+         if (distance > farthestDistance) {
+            farthest = i;
+            farthestDistance = distance;
+         }
+      }
+      if (farthest >= 0) {
+         pointLinks[farthest] = neighbor;
+      }
+   }
+
+   private int getMaxLinks(int layer) {
+      return layer == 0 ? 2 * links : links;
+   }
+
+   private int[] getLinks(int point, int layer) {
+      return layer == 0 ? baseLinks : upperLinks[point];
+   }
+
+   private int getLinksOffset(int point, int layer) {
+      return layer == 0 ? point * 2 * links : (layer - 1) * links;
+   }
+
+   private int getLinkCount(int point, int layer) {
+      return layer == 0 ? baseCounts[point] : upperCounts[point][layer - 1];
+   }
+
+   private void setLinkCount(int point, int layer, int count) {
+      if (layer == 0) {
+         baseCounts[point] = count;
+      } else {
+         upperCounts[point][layer - 1] = count;
+      }
+   }
+
+   /** Get the squared distance between the point at the offset of the array and an indexed point */
+   private double getDistance(double[] vector, int offset, int point) {
+      double distance = 0;
+
+      for (int d = 0, p = point * dimensions; d < dimensions; d++, p++) {
+         double diff = vector[offset + d] - points[p];
+         distance += diff * diff;
+      }
+
+      return distance;
+   }
+}
@@ -0,0 +1,352 @@
+/**
+ * The HyperparameterSearch class tunes the options of the base models before the ensemble is cross
+ * validated. Every configuration of a model is cross validated on the same folds as the ensemble
+ * (DataHandler.crossValidationSplit with the same number of folds and seed), which are split once
+ * and shared by every configuration. The folds are evaluated in rounds of 1, 2, 4, ... folds, every
+ * pair of configuration and fold of a round running as its own task on a fork-join pool, and the
+ * folds a configuration already went through are never evaluated again.
+ * 
+ * After every round, a configuration that could no longer reach the best one even if it predicted
+ * every remaining instance right is dropped, and so is one whose accuracy so far is worse than the
+ * best one's beyond doubt: the upper bound of its Wilson score interval (99% confidence) is below
+ * the lower bound of the best one's. Successive halving ("halving") also drops the worse half of
+ * the configurations left. The model as configured is always one of the configurations and is only
+ * dropped once it cannot catch up any more, so the search never picks a model that does worse over
+ * all the folds.
+ * 
+ * Parameters are: strategy: how the configurations are chosen: "grid" (every configuration of the
+ * space), "random" or "halving" (up to trials configurations drawn at random).
+ * 
+ * trials: the number of configurations drawn by "random" and "halving".
+ * 
+ * numFolds, seed: the cross validation the configurations are compared on.
+ * 
+ * pool: the fork-join pool the configurations and folds are evaluated on.
+ * 
+ * config: the settings of the run, where the search space of each model is read from.
+ * 
+ * out: where the result of every search is displayed.
+ */
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Statistics;
+import weka.core.Utils;
+
+public class HyperparameterSearch {
+   private static final double PRUNE_CONFIDENCE = 0.99;
+
+   private String strategy;
+   private int trials;
+   private int numFolds;
+   private int seed;
+   private ForkJoinPool pool;
+   private RunConfig config;
+   private PrintStream out;
+
+   public HyperparameterSearch(RunConfig config, ForkJoinPool pool) {
+      this.strategy = config.getSearch();
+      this.trials = config.getSearchTrials();
+      this.numFolds = config.getNumFolds();
+      this.seed = config.getSeed();
+      this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+      this.config = config;
+      this.out = System.out;
+
+      if (!strategy.equals("grid") && !strategy.equals("random") && !strategy.equals("halving")) {
+         throw new IllegalArgumentException("Unknown search strategy: " + strategy);
+      }
+   }
+
+   public void setOutput(PrintStream out) {
+      this.out = out;
+   }
+
+   /**
+    * Search the options of every model that has a search space and return the best configuration
+    * of each, untrained, in the order of the models. Models without a space are returned as they
+    * are.
+    */
+   public Classifier[] tune(Classifier[] models, Instances data) throws Exception {
+      DataHandler dataHandler = new DataHandler(data);
+      Classifier[] tuned = new Classifier[models.length];
+
+      dataHandler.crossValidationSplit(numFolds, new Random(seed));
+      double totalWeight = 0;
+      for (int i = 0; i < data.numInstances(); i++) {
+         totalWeight = totalWeight + data.instance(i).weight();
+      }
+
+      for (int j = 0; j < models.length; j++) {
+         SearchSpace space = config.getSearchSpace(models[j]);
+
+         if (space == null) {
+            tuned[j] = models[j];
+         } else {
+            tuned[j] = search(models[j], space, dataHandler.getTrainingSplit(),
+                  dataHandler.getTestingSplit(), totalWeight);
+         }
+      }
+
+      return tuned;
+   }
+
+   /** Search the configurations of one model and return the best one */
+   private Classifier search(Classifier model, SearchSpace space, Instances[] trainingSplits,
+         Instances[] testingSplits, double totalWeight) throws Exception {
+      long start = System.currentTimeMillis();
+      List<Candidate> candidates = createCandidates(model, space);
+      List<Candidate> alive = new ArrayList<Candidate>(candidates);
+      int evaluated = 0;
+
+      for (int folds = 1; !alive.isEmpty(); folds = Math.min(numFolds, folds * 2)) {
+         evaluated += runRound(alive, folds, trainingSplits, testingSplits);
+
+         for (int c = alive.size() - 1; c >= 0; c--) {
+            if (alive.get(c).error != null) {
+               alive.remove(c);
+            }
+         }
+         if (folds == numFolds || alive.isEmpty()) {
+            break;
+         }
+         prune(alive, folds, totalWeight);
+      }
+
+      Candidate best = null;
+      for (Candidate candidate : candidates) {
+         if (candidate.folds == numFolds && candidate.error == null
+               && (best == null || candidate.correct > best.correct)) {
+            best = candidate;
+         }
+      }
+
+      printReport(model, candidates, best, evaluated, System.currentTimeMillis() - start);
+      return best == null ? model : best.classifier;
+   }
+
+   /**
+    * Create a candidate for the model as configured, then one per configuration the strategy
+    * chooses. A configuration the model does not accept is reported and skipped.
+    */
+   private List<Candidate> createCandidates(Classifier model, SearchSpace space) {
+      List<Candidate> candidates = new ArrayList<Candidate>();
+      List<String[]> configurations = strategy.equals("grid") ? space.grid()
+            : space.sample(trials, new Random(seed));
+
+      Candidate configured = new Candidate("(as configured)", model);
+      configured.configured = true;
+      candidates.add(configured);
+      for (String[] configuration : configurations) {
+         String options = Utils.joinOptions(configuration);
+         try {
+            candidates.add(new Candidate(options, space.apply(model, configuration)));
+         } catch (Exception ex) {
+            out.println("Skipped " + model.getClass().getSimpleName() + " " + options + ": "
+                  + ex.getMessage());
+         }
+      }
+
+      return candidates;
+   }
+
+   /**
+    * Evaluate every candidate on the folds it has not gone through yet, up to the given number of
+    * folds, all at once on the pool. Returns the number of folds evaluated.
+    */
+   private int runRound(List<Candidate> alive, int folds, Instances[] trainingSplits,
+         Instances[] testingSplits) {
+      List<ScoreTask> tasks = new ArrayList<ScoreTask>();
+
+      for (Candidate candidate : alive) {
+         for (int fold = candidate.folds; fold < folds; fold++) {
+            ScoreTask task =
+                  new ScoreTask(candidate, trainingSplits[fold], testingSplits[fold], fold + 1);
+            tasks.add(task);
+            pool.execute(task);
+         }
+      }
+
+      for (ScoreTask task : tasks) {
+         Score score = task.join();
+
+         if (score.error != null) {
+            task.candidate.error = score.error;
+         } else {
+            task.candidate.correct += score.correct;
+            task.candidate.testedWeight += score.weight;
+         }
+      }
+
+      for (Candidate candidate : alive) {
+         candidate.folds = folds;
+      }
+
+      return tasks.size();
+   }
+
+   /**
+    * Drop the candidates that cannot catch up with the best one any more or are worse beyond doubt,
+    * then, with successive halving, the worse half of those left. The model as configured is only
+    * dropped when it cannot catch up.
+    */
+   private void prune(List<Candidate> alive, int folds, double totalWeight) {
+      /** Every candidate left went through the same folds */
+      double remaining = totalWeight - alive.get(0).testedWeight;
+      int tested = (int) Math.round(alive.get(0).testedWeight);
+      double z = Statistics.normalInverse(1 - (1 - PRUNE_CONFIDENCE) / 2);
+      Candidate best = alive.get(0);
+
+      for (Candidate candidate : alive) {
+         if (candidate.correct > best.correct) {
+            best = candidate;
+         }
+      }
+      double bestLower = ApproximateEvaluator.getInterval(best.getAccuracy(), tested, z)[0];
+
+      for (Candidate candidate : alive) {
+         double upper = ApproximateEvaluator.getInterval(candidate.getAccuracy(), tested, z)[1];
+         if (candidate.correct + remaining < best.correct
+               || (!candidate.configured && upper < bestLower)) {
+            candidate.droppedAt = folds;
+         }
+      }
+
+      if (strategy.equals("halving")) {
+         List<Candidate> ranked = new ArrayList<Candidate>();
+         for (Candidate candidate : alive) {
+            if (!candidate.configured && candidate.droppedAt == 0) {
+               ranked.add(candidate);
+            }
+         }
+         /** Stable: the earlier candidate stays on equal scores */
+         Collections.sort(ranked, new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+               return Double.compare(b.correct, a.correct);
+            }
+         });
+         for (int c = (ranked.size() + 1) / 2; c < ranked.size(); c++) {
+            ranked.get(c).droppedAt = folds;
+         }
+      }
+
+      for (int c = alive.size() - 1; c >= 0; c--) {
+         if (alive.get(c).droppedAt > 0) {
+            alive.remove(c);
+         }
+      }
+   }
+
+   /** Display the accuracy every candidate reached and the one chosen */
+   private void printReport(Classifier model, List<Candidate> candidates, Candidate best,
+         int evaluated, long elapsedTime) {
+      out.println("*********************************");
+      out.println("Hyperparameter Search (" + strategy + "): " + model.getClass().getSimpleName());
+      out.println("---------------------------------");
+
+      for (Candidate candidate : candidates) {
+         String status;
+         if (candidate.error != null) {
+            status = "failed: " + candidate.error.getMessage();
+         } else if (candidate.droppedAt > 0) {
+            status = "dropped after " + candidate.droppedAt + " fold(s)";
+         } else {
+            status = "all folds";
+         }
+         out.println(candidate.options + ": " + String.format("%.4f%%", candidate.getAccuracy())
+               + " (" + status + ")");
+      }
+
+      out.println("---------------------------------");
+      out.println("Best: " + (best == null ? "none, the model is kept as configured"
+            : best.options + " (" + String.format("%.4f%%", best.getAccuracy()) + ")"));
+      int full = candidates.size() * numFolds;
+      out.println("Folds evaluated: " + evaluated + " of " + full + " ("
+            + String.format("%.1f%%", full == 0 ? 0.0 : 100.0 * evaluated / full) + ")");
+      out.println("Elapsed time: " + elapsedTime + " ms");
+      out.println("*********************************");
+   }
+
+   /**
+    * A configuration of the model and the weight of the instances it predicted right on the folds
+    * it went through so far
+    */
+   private static class Candidate {
+      private String options;
+      private Classifier classifier;
+      private int folds;
+      private double correct;
+      private double testedWeight;
+      private int droppedAt;
+      private Exception error;
+      private boolean configured;
+
+      public Candidate(String options, Classifier classifier) {
+         this.options = options;
+         this.classifier = classifier;
+      }
+
+      public double getAccuracy() {
+         return testedWeight == 0 ? 0.0 : 100.0 * correct / testedWeight;
+      }
+   }
+
+   /** The weight of the instances of one fold predicted right, or the error that stopped it */
+   private static class Score {
+      private double correct;
+      private double weight;
+      private Exception error;
+   }
+
+   /** Train a copy of the candidate on the training split of a fold and score its testing split */
+   private static class ScoreTask extends RecursiveTask<Score> {
+      private static final long serialVersionUID = 1L;
+
+      private Candidate candidate;
+      private Instances train;
+      private Instances test;
+      private int fold;
+
+      public ScoreTask(Candidate candidate, Instances train, Instances test, int fold) {
+         this.candidate = candidate;
+         this.train = train;
+         this.test = test;
+         this.fold = fold;
+      }
+
+      protected Score compute() {
+         Score score = new Score();
+
+         try {
+            /** Every task trains on its own copy, as a classifier may change the instances */
+            FoldCrossValidator.FoldResult result = FoldCrossValidator.trainFold(
+                  Classifier.makeCopy(candidate.classifier), new Instances(train), test, -1, fold);
+
+            for (int j = 0; j < test.numInstances(); j++) {
+               Instance instance = test.instance(j);
+               double[] distribution = result.getDistributions()[j];
+
+               score.weight += instance.weight();
+               if (!instance.classIsMissing() && Utils.sum(distribution) > 0
+                     && Utils.maxIndex(distribution) == (int) instance.classValue()) {
+                  score.correct += instance.weight();
+               }
+            }
+         } catch (Exception ex) {
+            score.error = ex;
+         }
+
+         return score;
+      }
+   }
+}
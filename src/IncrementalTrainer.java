@@ -0,0 +1,665 @@
+/**
+ * The IncrementalTrainer class cross validates a model on a dataset that only grows by rows
+ * appended at its end, without starting over on every run. It keeps, per model, the fold models and
+ * the out-of-fold predictions of the last run. When the next run finds the same rows followed by
+ * new ones, the models are brought up to date with the new rows instead of being retrained:
+ * 
+ * - updateable models (UpdateableClassifier, and NaiveBayes without discretization, which updates
+ * the same way) first learn every new row in the fold models that train on it, as retraining them
+ * would. The folds whose model learned a row are then predicted again, old rows included, so that
+ * every out-of-fold prediction comes from the current fold models.
+ * 
+ * - the other models (e.g. BayesNet) predict the new rows with the fold models they have, which
+ * made the predictions of the old rows too, and are only retrained from scratch every retrainEvery
+ * updates.
+ * 
+ * Every row is given its fold by its position and the seed, so that the folds of the old rows never
+ * change as the dataset grows; the folds are not stratified like those of FoldCrossValidator. The
+ * predictions are held in row order.
+ * A run on a dataset whose first rows changed, or whose attributes changed, retrains from scratch.
+ * 
+ * A state file (<key>.state) holds: a header (magic number, version, key, number of rows, content
+ * hash of the rows, updates since the model was last retrained, time the fold models take to
+ * predict every row, number of classes, whether the class distributions were kept), the actual
+ * and predicted classes, the weight and, when kept, the class distribution (as floats) of every
+ * row, then the serialized fold models. A stacking file (<key>.stacking) holds the stacking
+ * meta-classifier of an ensemble, along with the number of runs with appended rows it scored
+ * since it was retrained.
+ * 
+ * Parameters are: stateDir: the directory the state of every model is kept in.
+ * 
+ * numFolds, seed: the cross validation the models are evaluated with.
+ * 
+ * retrainEvery: the number of updates after which a model that cannot learn rows one at a time is
+ * retrained from scratch, and after which the stacking meta-classifier is retrained.
+ * 
+ * pool: the fork-join pool the folds are trained on, or null to train them one after another.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+public class IncrementalTrainer {
+   private static final int MAGIC = 0x494e4331;
+   private static final int VERSION = 2;
+   private static final int BUFFER_SIZE = 1 << 20;
+
+   private File stateDir;
+   private int numFolds;
+   private int seed;
+   private int retrainEvery;
+   private ForkJoinPool pool;
+
+   public IncrementalTrainer(File stateDir, int numFolds, int seed, int retrainEvery) {
+      this.stateDir = stateDir;
+      this.numFolds = numFolds;
+      this.seed = seed;
+      this.retrainEvery = Math.max(1, retrainEvery);
+   }
+
+   public void setPool(ForkJoinPool pool) {
+      this.pool = pool;
+   }
+
+   /** Check whether the model can learn rows one at a time instead of being retrained */
+   public static boolean isUpdateable(Classifier model) {
+      if (model instanceof UpdateableClassifier) {
+         return true;
+      }
+      return model instanceof NaiveBayes
+            && !((NaiveBayes) model).getUseSupervisedDiscretization();
+   }
+
+   /**
+    * Get the fold of the row at the position: the same for every run with the seed, whatever the
+    * number of rows
+    */
+   public int getFold(int row) {
+      long z = (row + 1) * 0x9E3779B97F4A7C15L + seed;
+
+      /** The finalizer of SplitMix64, so that neighboring rows land in unrelated folds */
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      z = z ^ (z >>> 31);
+      return (int) ((z >>> 1) % numFolds);
+   }
+
+   /**
+    * Cross validate the model on the dataset, updating the state of the last run when the dataset
+    * only grew since, and store the new state. The predictions are held with or without their class
+    * distributions, on or off the Java heap; a state kept without distributions is retrained when
+    * they are needed. The time of every phase goes to the timer.
+    */
+   public Result evaluate(Classifier model, Instances data, boolean withDistributions,
+         boolean offHeap, PhaseTimer timer) throws Exception {
+      return evaluate(model, -1, data, withDistributions, offHeap, timer);
+   }
+
+   /**
+    * Cross validate the model at the position in the ensemble, which labels the profiled phases of
+    * its folds
+    */
+   public Result evaluate(Classifier model, int modelIndex, Instances data,
+         boolean withDistributions, boolean offHeap, PhaseTimer timer) throws Exception {
+      String key = getKey(model, data);
+      State state = read(key, withDistributions, offHeap);
+      String name = model.getClass().getSimpleName();
+      Result result = new Result();
+      Profiler.Span span;
+
+      span = Profiler.start("Incremental check", name, modelIndex, -1);
+      String rowsHash = state == null || state.numRows > data.numInstances() ? null
+            : ResultCache.hash(data, state.numRows);
+      timer.record("Incremental check", span.end());
+
+      if (rowsHash == null || !rowsHash.equals(state.rowsHash)) {
+         result.mode = "retrained (no state for these rows)";
+         state = retrain(model, modelIndex, data, withDistributions, offHeap, timer);
+      } else if (state.numRows == data.numInstances()) {
+         result.mode = "unchanged";
+      } else if (isUpdateable(model)) {
+         result.appended = data.numInstances() - state.numRows;
+         int refreshed =
+               update(state, modelIndex, data, true, withDistributions, offHeap, timer);
+         result.mode = "updated (" + refreshed + " of " + numFolds + " folds predicted again)";
+      } else if (state.updates + 1 >= retrainEvery) {
+         result.mode = "retrained (after " + state.updates + " updates)";
+         result.appended = data.numInstances() - state.numRows;
+         state = retrain(model, modelIndex, data, withDistributions, offHeap, timer);
+      } else {
+         result.mode = "predicted without retraining (" + (state.updates + 1) + " of "
+               + retrainEvery + " updates)";
+         result.appended = data.numInstances() - state.numRows;
+         update(state, modelIndex, data, false, withDistributions, offHeap, timer);
+         state.updates++;
+      }
+
+      if (!result.mode.equals("unchanged")) {
+         span = Profiler.start("Incremental state store", name, modelIndex, -1);
+         state.rowsHash = ResultCache.hash(data);
+         write(key, state);
+         timer.record("Incremental state store", span.end());
+      }
+
+      result.predictions = state.predictions;
+      result.predictionTime = state.predictionTime;
+      result.retrained = result.mode.startsWith("retrained");
+      result.summary = summarize(model, data, state.predictions);
+      return result;
+   }
+
+   /**
+    * Record a run of the ensemble of the models and get the stacking meta-classifier an earlier run
+    * saved, when it may score this one: while no base model was retrained from scratch, it is
+    * kept as long as no row was appended, and for retrainEvery runs with appended rows. Returns
+    * null when the meta-classifier is to be retrained, then saved with saveStacking.
+    */
+   public Classifier getStacking(Classifier[] models, Instances data, boolean useDistributions,
+         boolean appended, boolean retrained) throws IOException {
+      File stackingFile = getStackingFile(models, data, useDistributions);
+      int updates;
+      Classifier metaClassifier;
+
+      if (retrained || !stackingFile.exists()) {
+         return null;
+      }
+
+      ObjectInputStream input = new ObjectInputStream(
+            new BufferedInputStream(new FileInputStream(stackingFile), BUFFER_SIZE));
+      try {
+         updates = input.readInt();
+         metaClassifier = (Classifier) input.readObject();
+      } catch (IOException ex) {
+         /** A corrupted file retrains the meta-classifier, which replaces it */
+         return null;
+      } catch (ClassNotFoundException ex) {
+         return null;
+      } finally {
+         input.close();
+      }
+
+      if (!appended) {
+         return metaClassifier;
+      }
+      if (updates + 1 >= retrainEvery) {
+         return null;
+      }
+      writeStacking(stackingFile, updates + 1, metaClassifier);
+      return metaClassifier;
+   }
+
+   /** Save the stacking meta-classifier just retrained for the ensemble of the models */
+   public void saveStacking(Classifier[] models, Instances data, boolean useDistributions,
+         Classifier metaClassifier) throws IOException {
+      writeStacking(getStackingFile(models, data, useDistributions), 0, metaClassifier);
+   }
+
+   /** Get the stacking file of the ensemble of the models, stacking distributions or votes */
+   private File getStackingFile(Classifier[] models, Instances data, boolean useDistributions)
+         throws IOException {
+      StringBuilder settings = new StringBuilder();
+
+      for (Classifier model : models) {
+         settings.append(getKey(model, data) + "|");
+      }
+      settings.append(useDistributions ? "distribution" : "vote");
+
+      return new File(stateDir, ResultCache.hash(settings.toString()) + ".stacking");
+   }
+
+   /** Write the count of runs and the meta-classifier, replacing the file once it is complete */
+   private void writeStacking(File stackingFile, int updates, Classifier metaClassifier)
+         throws IOException {
+      stateDir.mkdirs();
+      File tempFile = File.createTempFile(stackingFile.getName(), ".tmp", stateDir);
+
+      try {
+         ObjectOutputStream output = new ObjectOutputStream(
+               new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+         try {
+            output.writeInt(updates);
+            output.writeObject(metaClassifier);
+         } finally {
+            output.close();
+         }
+
+         if (stackingFile.exists() && !stackingFile.delete()) {
+            throw new IOException("Could not replace " + stackingFile);
+         }
+         if (!tempFile.renameTo(stackingFile)) {
+            throw new IOException("Could not write " + stackingFile);
+         }
+      } finally {
+         /** A failed write leaves no temporary file behind: a renamed one no longer exists */
+         tempFile.delete();
+      }
+   }
+
+   /** Train a copy of the model per fold on every row outside the fold and predict the fold */
+   private State retrain(final Classifier model, final int modelIndex, Instances data,
+         boolean withDistributions, boolean offHeap, PhaseTimer timer) throws Exception {
+      final Instances[] train = new Instances[numFolds];
+      final Instances[] test = new Instances[numFolds];
+      int[] folds = new int[data.numInstances()];
+
+      for (int f = 0; f < numFolds; f++) {
+         train[f] = new Instances(data, data.numInstances());
+         test[f] = new Instances(data, data.numInstances() / numFolds + 1);
+      }
+      for (int i = 0; i < data.numInstances(); i++) {
+         folds[i] = getFold(i);
+         for (int f = 0; f < numFolds; f++) {
+            (f == folds[i] ? test[f] : train[f]).add(data.instance(i));
+         }
+      }
+
+      final Classifier[] foldModels = Classifier.makeCopies(model, numFolds);
+      ArrayList<ForkJoinTask<FoldCrossValidator.FoldResult>> tasks =
+            new ArrayList<ForkJoinTask<FoldCrossValidator.FoldResult>>();
+      for (int f = 0; f < numFolds; f++) {
+         final int fold = f;
+         tasks.add(ForkJoinTask.adapt(new Callable<FoldCrossValidator.FoldResult>() {
+            public FoldCrossValidator.FoldResult call() throws Exception {
+               return FoldCrossValidator.trainFold(foldModels[fold], train[fold], test[fold],
+                     modelIndex, fold + 1);
+            }
+         }));
+      }
+
+      /** Gather the distributions of every fold back into row order */
+      double[][] distributions = new double[data.numInstances()][];
+      int[] next = new int[numFolds];
+      ArrayList<FoldCrossValidator.FoldResult> results = run(tasks);
+      for (int f = 0; f < numFolds; f++) {
+         timer.record("Fold fit (all folds)", results.get(f).getFitTime());
+         timer.record("Fold predict (all folds)", results.get(f).getPredictTime());
+      }
+      for (int i = 0; i < data.numInstances(); i++) {
+         distributions[i] = results.get(folds[i]).getDistributions()[next[folds[i]]++];
+      }
+
+      State state = new State();
+      state.foldModels = foldModels;
+      state.predictions = new PredictionStore(data.numInstances(), data.numClasses(),
+            withDistributions, offHeap);
+      addPredictions(state.predictions, data, 0, distributions);
+      state.numRows = data.numInstances();
+      for (int f = 0; f < numFolds; f++) {
+         state.predictionTime += results.get(f).getPredictTime() / 1000000.0;
+      }
+      return state;
+   }
+
+   /**
+    * Predict the rows appended since the state was stored, with the fold model of each. Updateable
+    * fold models first learn the appended rows outside their fold; every fold whose model learned
+    * a row is then predicted again whole, so that no prediction comes from an older version of its
+    * fold model. Returns the number of folds predicted again.
+    */
+   private int update(final State state, final int modelIndex, Instances data, final boolean learn,
+         boolean withDistributions, boolean offHeap, PhaseTimer timer) throws Exception {
+      final Instances[] train = new Instances[numFolds];
+      final Instances[] test = new Instances[numFolds];
+      boolean[] refreshed = new boolean[numFolds];
+      int[] folds = new int[data.numInstances()];
+      int numRefreshed = 0;
+
+      for (int f = 0; f < numFolds; f++) {
+         train[f] = new Instances(data, data.numInstances() - state.numRows);
+      }
+      for (int i = 0; i < data.numInstances(); i++) {
+         folds[i] = getFold(i);
+         for (int f = 0; f < numFolds && learn && i >= state.numRows; f++) {
+            if (f != folds[i]) {
+               train[f].add(data.instance(i));
+               refreshed[f] = true;
+            }
+         }
+      }
+
+      /** A fold is tested on its appended rows, or on all its rows when its model changed */
+      boolean[] tested = new boolean[data.numInstances()];
+      for (int f = 0; f < numFolds; f++) {
+         test[f] = new Instances(data, data.numInstances() / numFolds + 1);
+         numRefreshed += refreshed[f] ? 1 : 0;
+      }
+      for (int i = 0; i < data.numInstances(); i++) {
+         tested[i] = i >= state.numRows || refreshed[folds[i]];
+         if (tested[i]) {
+            test[folds[i]].add(data.instance(i));
+         }
+      }
+
+      ArrayList<ForkJoinTask<FoldCrossValidator.FoldResult>> tasks =
+            new ArrayList<ForkJoinTask<FoldCrossValidator.FoldResult>>();
+      for (int f = 0; f < numFolds; f++) {
+         final int fold = f;
+         tasks.add(ForkJoinTask.adapt(new Callable<FoldCrossValidator.FoldResult>() {
+            public FoldCrossValidator.FoldResult call() throws Exception {
+               return updateFold(state.foldModels[fold], learn ? train[fold] : null, test[fold],
+                     modelIndex, fold + 1);
+            }
+         }));
+      }
+
+      long start = System.nanoTime();
+      ArrayList<FoldCrossValidator.FoldResult> results = run(tasks);
+      timer.record(learn ? "Fold update and predict" : "Fold predict", System.nanoTime() - start);
+
+      /** Scale the time of the rows predicted to every row, the unit of a full cross validation */
+      long predictTime = 0;
+      int numTested = 0;
+      for (int f = 0; f < numFolds; f++) {
+         predictTime += results.get(f).getPredictTime();
+         numTested += test[f].numInstances();
+      }
+      if (numTested > 0) {
+         state.predictionTime = predictTime / 1000000.0 * data.numInstances() / numTested;
+      }
+
+      PredictionStore predictions = new PredictionStore(data.numInstances(), data.numClasses(),
+            withDistributions, offHeap);
+      float[] distribution = new float[data.numClasses()];
+      int[] next = new int[numFolds];
+      for (int i = 0; i < data.numInstances(); i++) {
+         if (tested[i]) {
+            Instance instance = data.instance(i);
+            predictions.add(instance.classValue(),
+                  results.get(folds[i]).getDistributions()[next[folds[i]]++], instance.weight());
+            continue;
+         }
+
+         for (int k = 0; k < distribution.length && withDistributions; k++) {
+            distribution[k] = (float) state.predictions.getProbability(i, k);
+         }
+         predictions.add(state.predictions.getActual(i), state.predictions.getPredicted(i),
+               state.predictions.getWeight(i), distribution);
+      }
+
+      state.predictions = predictions;
+      state.numRows = data.numInstances();
+      return numRefreshed;
+   }
+
+   /**
+    * Let the fold model learn the training rows, when given, then predict the testing rows. The
+    * time of the update is returned as the fit time of the fold.
+    */
+   private static FoldCrossValidator.FoldResult updateFold(Classifier foldModel, Instances train,
+         Instances test, int modelIndex, int fold) throws Exception {
+      String name = foldModel.getClass().getSimpleName();
+      Profiler.Span span;
+      long updateTime = 0;
+
+      if (train != null) {
+         span = Profiler.start("Fold update", name, modelIndex, fold);
+         for (int j = 0; j < train.numInstances(); j++) {
+            if (foldModel instanceof UpdateableClassifier) {
+               ((UpdateableClassifier) foldModel).updateClassifier(train.instance(j));
+            } else {
+               ((NaiveBayes) foldModel).updateClassifier(train.instance(j));
+            }
+         }
+         updateTime = span.end();
+      }
+
+      span = Profiler.start("Fold predict", name, modelIndex, fold);
+      double[][] distributions = new double[test.numInstances()][];
+      for (int j = 0; j < test.numInstances(); j++) {
+         /** Hide the class value from the classifier, as Weka does */
+         Instance classMissing = (Instance) test.instance(j).copy();
+         classMissing.setDataset(test);
+         classMissing.setClassMissing();
+         distributions[j] = foldModel.distributionForInstance(classMissing);
+      }
+
+      return new FoldCrossValidator.FoldResult(distributions, updateTime, span.end());
+   }
+
+   /** Add the predictions of the rows from the first one on, in row order */
+   private static void addPredictions(PredictionStore predictions, Instances data, int first,
+         double[][] distributions) {
+      for (int i = 0; i < distributions.length; i++) {
+         Instance instance = data.instance(first + i);
+         predictions.add(instance.classValue(), distributions[i], instance.weight());
+      }
+   }
+
+   /** Run the tasks on the pool, or one after another without one, and return their results */
+   private <T> ArrayList<T> run(ArrayList<ForkJoinTask<T>> tasks) throws Exception {
+      ArrayList<T> results = new ArrayList<T>();
+
+      if (pool != null) {
+         for (ForkJoinTask<T> task : tasks) {
+            pool.execute(task);
+         }
+      }
+      for (ForkJoinTask<T> task : tasks) {
+         try {
+            results.add(pool == null ? task.invoke() : task.get());
+         } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+               throw (Exception) ex.getCause();
+            }
+            throw ex;
+         }
+      }
+
+      return results;
+   }
+
+   /** Compute the evaluation summary of the predictions of every row */
+   private static String summarize(Classifier model, Instances data, PredictionStore predictions)
+         throws Exception {
+      Evaluation evaluation = new Evaluation(data);
+
+      for (int i = 0; i < predictions.size(); i++) {
+         if (predictions.hasDistributions()) {
+            evaluation.evaluateModelOnce(predictions.getDistribution(i), data.instance(i));
+         } else {
+            int predicted = predictions.getPredicted(i);
+            evaluation.evaluateModelOnce(predicted < 0 ? Instance.missingValue() : predicted,
+                  data.instance(i));
+         }
+      }
+
+      return evaluation.toSummaryString("---------------------------------\n "
+            + model.getClass().getSimpleName() + "\n---------------------------------", false);
+   }
+
+   /**
+    * Get the key of the state of the model: its class and options, the attributes of the dataset
+    * and the cross validation, but not the rows, which only grow from one run to the next
+    */
+   private String getKey(Classifier model, Instances data) throws IOException {
+      String settings = new Instances(data, 0).toString() + "|" + data.classIndex() + "|"
+            + model.getClass().getName() + "|" + Utils.joinOptions(model.getOptions()) + "|"
+            + numFolds + "|" + seed;
+
+      return ResultCache.hash(settings);
+   }
+
+   /** Read the state of the key, or return null when there is none or it cannot be used */
+   private State read(String key, boolean withDistributions, boolean offHeap) throws IOException {
+      File stateFile = new File(stateDir, key + ".state");
+      DataInputStream input;
+      State state = new State();
+
+      if (!stateFile.exists()) {
+         return null;
+      }
+      input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(stateFile), BUFFER_SIZE));
+
+      try {
+         if (input.readInt() != MAGIC || input.readInt() != VERSION
+               || !input.readUTF().equals(key)) {
+            return null;
+         }
+
+         state.numRows = input.readInt();
+         state.rowsHash = input.readUTF();
+         state.updates = input.readInt();
+         state.predictionTime = input.readDouble();
+         int numClasses = input.readInt();
+         boolean hasDistributions = input.readBoolean();
+         if (withDistributions && !hasDistributions) {
+            return null;
+         }
+
+         state.predictions =
+               new PredictionStore(state.numRows, numClasses, withDistributions, offHeap);
+         float[] distribution = new float[numClasses];
+         for (int i = 0; i < state.numRows; i++) {
+            int actual = input.readInt();
+            int predicted = input.readInt();
+            float weight = input.readFloat();
+
+            if (hasDistributions) {
+               for (int k = 0; k < numClasses; k++) {
+                  distribution[k] = input.readFloat();
+               }
+            }
+            state.predictions.add(actual, predicted, weight, distribution);
+         }
+
+         state.foldModels = (Classifier[]) new ObjectInputStream(input).readObject();
+      } catch (IOException ex) {
+         /** A truncated or corrupted state is treated as missing and replaced after retraining */
+         return null;
+      } catch (ClassNotFoundException ex) {
+         return null;
+      } finally {
+         input.close();
+      }
+
+      return state.foldModels.length == numFolds ? state : null;
+   }
+
+   /** Write the state of the key, replacing the previous one only once it is complete */
+   private void write(String key, State state) throws IOException {
+      stateDir.mkdirs();
+      File stateFile = new File(stateDir, key + ".state");
+      File tempFile = File.createTempFile(key, ".tmp", stateDir);
+
+      try {
+         DataOutputStream output = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+         try {
+            writeState(output, key, state);
+         } finally {
+            output.close();
+         }
+
+         if (stateFile.exists() && !stateFile.delete()) {
+            throw new IOException("Could not replace " + stateFile);
+         }
+         if (!tempFile.renameTo(stateFile)) {
+            throw new IOException("Could not write " + stateFile);
+         }
+      } finally {
+         /** A failed write leaves no temporary file behind: a renamed one no longer exists */
+         tempFile.delete();
+      }
+   }
+
+   /** Write the header, the predictions and the fold models of a state */
+   private static void writeState(DataOutputStream output, String key, State state)
+         throws IOException {
+      PredictionStore predictions = state.predictions;
+
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeUTF(key);
+      output.writeInt(state.numRows);
+      output.writeUTF(state.rowsHash);
+      output.writeInt(state.updates);
+      output.writeDouble(state.predictionTime);
+      output.writeInt(predictions.getNumClasses());
+      output.writeBoolean(predictions.hasDistributions());
+
+      for (int i = 0; i < predictions.size(); i++) {
+         output.writeInt(predictions.getActual(i));
+         output.writeInt(predictions.getPredicted(i));
+         output.writeFloat((float) predictions.getWeight(i));
+         if (predictions.hasDistributions()) {
+            for (int k = 0; k < predictions.getNumClasses(); k++) {
+               output.writeFloat((float) predictions.getProbability(i, k));
+            }
+         }
+      }
+
+      ObjectOutputStream objects = new ObjectOutputStream(output);
+      objects.writeObject(state.foldModels);
+      objects.flush();
+   }
+
+   /** The fold models and predictions of a model on the first numRows rows of a dataset */
+   private static class State {
+      private int numRows;
+      private String rowsHash;
+      private int updates;
+      private double predictionTime;
+      private PredictionStore predictions;
+      private Classifier[] foldModels;
+   }
+
+   /** The predictions of a run, its evaluation summary and how the state was brought up to date */
+   public static class Result {
+      private PredictionStore predictions;
+      private String summary;
+      private String mode;
+      private int appended;
+      private boolean retrained;
+      private double predictionTime;
+
+      public PredictionStore getPredictions() {
+         return this.predictions;
+      }
+
+      /** Get the time (in milliseconds) the fold models take to predict every row */
+      public double getPredictionTime() {
+         return this.predictionTime;
+      }
+
+      public String getSummary() {
+         return this.summary;
+      }
+
+      /** Get how the run went: "unchanged", "updated", "retrained (...)" or "predicted (...)" */
+      public String getMode() {
+         return this.mode;
+      }
+
+      /** Get the number of rows appended since the last run */
+      public int getAppended() {
+         return this.appended;
+      }
+
+      /** Check whether the fold models were trained from scratch in this run */
+      public boolean isRetrained() {
+         return this.retrained;
+      }
+   }
+}
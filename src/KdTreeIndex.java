@@ -0,0 +1,186 @@
+/**
+ * The KdTreeIndex class finds the exact nearest neighbors with a k-d tree, which is much faster
+ * than a linear search as long as the points have few dimensions (up to about 20). Every node
+ * splits its points at the median of the dimension they spread the most along, until a node holds
+ * no more than LEAF_SIZE points. The points are copied in the order of the leaves, so the points of
+ * a leaf are next to each other in memory.
+ * 
+ * Parameters are: data: the points, in the order of the leaves.
+ * 
+ * order: the position, in the indexed array, of each point of data.
+ * 
+ * splitDimension, splitValue, left, right: the nodes of the tree. A leaf has no split dimension
+ * (-1), and holds the points start[node] to end[node] - 1 of data.
+ */
+
+public class KdTreeIndex implements NeighborIndex {
+   private static final long serialVersionUID = 1L;
+
+   /** Maximum number of points in a leaf */
+   private static final int LEAF_SIZE = 16;
+
+   private double[] data;
+   private int[] order;
+   private int dimensions;
+   private int[] splitDimension;
+   private double[] splitValue;
+   private int[] left;
+   private int[] right;
+   private int[] start;
+   private int[] end;
+   private int numNodes;
+   private transient NeighborHeap heap;
+
+   public void build(double[] points, int numPoints, int dimensions) {
+      int maxNodes = 2 * Math.max(1, (numPoints + LEAF_SIZE - 1) / LEAF_SIZE) * 2;
+
+      this.dimensions = dimensions;
+      this.order = new int[numPoints];
+      this.splitDimension = new int[maxNodes];
+      this.splitValue = new double[maxNodes];
+      this.left = new int[maxNodes];
+      this.right = new int[maxNodes];
+      this.start = new int[maxNodes];
+      this.end = new int[maxNodes];
+      this.numNodes = 0;
+
+      for (int i = 0; i < numPoints; i++) {
+         order[i] = i;
+      }
+      buildNode(points, 0, numPoints);
+
+      /** Copy the points in the order of the leaves */
+      data = new double[numPoints * dimensions];
+      for (int i = 0; i < numPoints; i++) {
+         System.arraycopy(points, order[i] * dimensions, data, i * dimensions, dimensions);
+      }
+   }
+
+   /** Build the node holding the points order[from] to order[to - 1] and return its position */
+   private int buildNode(double[] points, int from, int to) {
+      int node = numNodes++;
+      int dimension = to - from > LEAF_SIZE ? getWidestDimension(points, from, to) : -1;
+
+      start[node] = from;
+      end[node] = to;
+      splitDimension[node] = dimension;
+      if (dimension < 0) {
+         return node;
+      }
+
+      int middle = (from + to) >>> 1;
+      select(points, dimension, from, to - 1, middle);
+      splitValue[node] = points[order[middle] * dimensions + dimension];
+
+      left[node] = buildNode(points, from, middle);
+      right[node] = buildNode(points, middle, to);
+      return node;
+   }
+
+   /** Get the dimension the points spread the most along, or -1 when they are all the same */
+   private int getWidestDimension(double[] points, int from, int to) {
+      int widest = -1;
+      double widestSpread = 0;
+
+      for (int d = 0; d < dimensions; d++) {
+         double min = Double.POSITIVE_INFINITY;
+         double max = Double.NEGATIVE_INFINITY;
+
+         for (int i = from; i < to; i++) {
+            double value = points[order[i] * dimensions + d];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+         }
+         if (max - min > widestSpread) {
+            widestSpread = max - min;
+            widest = d;
+         }
+      }
+
+      return widest;
+   }
+
+   /**
+    * Reorder order[from] to order[to] so that the point at position nth is the one a sort along the
+    * dimension would put there, with no greater point before it and no smaller one after it
+    */
+   private void select(double[] points, int dimension, int from, int to, int nth) {
+      while (to > from) {
+         double pivot = points[order[(from + to) >>> 1] * dimensions + dimension];
+         int i = from;
+         int j = to;
+
+         while (i <= j) {
+            while (points[order[i] * dimensions + dimension] < pivot) {
+               i++;
+            }
+            while (points[order[j] * dimensions + dimension] > pivot) {
+               j--;
+            }
+            if (i <= j) {
+               int swap = order[i];
+               order[i] = order[j];
+               order[j] = swap;
+               i++;
+               j--;
+            }
+         }
+
+         if (nth <= j) {
+            to = j;
+         } else if (nth >= i) {
+            from = i;
+         } else {
+            return;
+         }
+      }
+   }
+
+   public int search(double[] query, int k, int[] neighbors, double[] distances) {
+      if (heap == null) {
+         heap = new NeighborHeap(k, true);
+      }
+      heap.clear(Math.min(k, order.length));
+
+      if (order.length > 0) {
+         searchNode(0, query);
+      }
+
+      int count = heap.drainTo(neighbors, distances);
+      for (int i = 0; i < count && count <= neighbors.length; i++) {
+         neighbors[i] = order[neighbors[i]];
+      }
+      return count;
+   }
+
+   /** Visit the side of the split the query is on first, then the other side if it may be nearer */
+   private void searchNode(int node, double[] query) {
+      int dimension = splitDimension[node];
+
+      if (dimension < 0) {
+         for (int i = start[node], offset = start[node] * dimensions; i < end[node];
+               i++, offset += dimensions) {
+            double bound = heap.getBound();
+            double distance = 0;
+
+            for (int d = 0; d < dimensions && distance <= bound; d++) {
+               double diff = data[offset + d] - query[d];
+               distance += diff * diff;
+            }
+            if (distance <= bound) {
+               heap.offer(i, distance);
+            }
+         }
+         return;
+      }
+
+      double diff = query[dimension] - splitValue[node];
+      int near = diff < 0 ? left[node] : right[node];
+      int far = diff < 0 ? right[node] : left[node];
+
+      searchNode(near, query);
+      if (diff * diff <= heap.getBound()) {
+         searchNode(far, query);
+      }
+   }
+}
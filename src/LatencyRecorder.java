@@ -0,0 +1,57 @@
+/**
+ * The LatencyRecorder class keeps the latency of the most recent requests in a fixed-size ring so
+ * that percentiles can be reported at any time, whatever the number of requests served.
+ * 
+ * Parameters are: latencies: the latency (in nanoseconds) of the most recent requests.
+ * 
+ * count: the number of requests recorded since the start.
+ */
+
+import java.util.Arrays;
+
+public class LatencyRecorder {
+   private long[] latencies;
+   private long count;
+   private long start;
+
+   public LatencyRecorder(int capacity) {
+      this.latencies = new long[capacity];
+      this.count = 0;
+      this.start = System.nanoTime();
+   }
+
+   public synchronized void record(long nanos) {
+      latencies[(int) (count % latencies.length)] = nanos;
+      count++;
+   }
+
+   /** Get the latency (in milliseconds) below which the given fraction of recent requests fall */
+   public synchronized double getPercentile(double fraction) {
+      int size = (int) Math.min(count, latencies.length);
+      if (size == 0) {
+         return 0.0;
+      }
+
+      long[] sorted = Arrays.copyOf(latencies, size);
+      Arrays.sort(sorted);
+      int index = (int) Math.min(size - 1, Math.ceil(fraction * size) - 1);
+
+      return sorted[Math.max(0, index)] / 1000000.0;
+   }
+
+   public synchronized long getCount() {
+      return this.count;
+   }
+
+   /** Get the number of requests recorded per second since the start */
+   public synchronized double getThroughput() {
+      return count / Math.max(1e-9, (System.nanoTime() - start) / 1000000000.0);
+   }
+
+   public String toReport() {
+      return "requests: " + getCount() + ", throughput: "
+            + String.format("%.1f/s", getThroughput()) + ", p50: "
+            + String.format("%.3f ms", getPercentile(0.50)) + ", p99: "
+            + String.format("%.3f ms", getPercentile(0.99));
+   }
+}
@@ -0,0 +1,47 @@
+/**
+ * The LinearIndex class finds the nearest neighbors by computing the distance to every point, as
+ * Weka's LinearNNSearch does. It is exact, and the fastest index on small datasets. A distance
+ * stops being summed as soon as it exceeds the farthest neighbor kept. The points tied with the
+ * k-th nearest are found too.
+ * 
+ * Parameters are: points: the points, one after another.
+ * 
+ * heap: the nearest points found by the current search.
+ */
+
+public class LinearIndex implements NeighborIndex {
+   private static final long serialVersionUID = 1L;
+
+   private double[] points;
+   private int numPoints;
+   private int dimensions;
+   private transient NeighborHeap heap;
+
+   public void build(double[] points, int numPoints, int dimensions) {
+      this.points = points;
+      this.numPoints = numPoints;
+      this.dimensions = dimensions;
+   }
+
+   public int search(double[] query, int k, int[] neighbors, double[] distances) {
+      if (heap == null) {
+         heap = new NeighborHeap(k, true);
+      }
+      heap.clear(Math.min(k, numPoints));
+
+      for (int i = 0, offset = 0; i < numPoints; i++, offset += dimensions) {
+         double bound = heap.getBound();
+         double distance = 0;
+
+         for (int d = 0; d < dimensions && distance <= bound; d++) {
+            double diff = points[offset + d] - query[d];
+            distance += diff * diff;
+         }
+         if (distance <= bound) {
+            heap.offer(i, distance);
+         }
+      }
+
+      return heap.drainTo(neighbors, distances);
+   }
+}
@@ -0,0 +1,115 @@
+/**
+ * The LoadGenerator class measures the throughput and latency of a ScoringService running on the
+ * same machine. It sends the instances of an arff file to the service from several threads at once.
+ * 
+ * Usage: java LoadGenerator -d <arff file> [-u <url>] [-n <requests>] [-c <concurrent clients>] [-b
+ * <instances per request>]
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+public class LoadGenerator {
+   public static void main(String[] args) throws Exception {
+      String arffFile = Utils.getOption('d', args);
+      String url = Utils.getOption('u', args);
+      String requests = Utils.getOption('n', args);
+      String clients = Utils.getOption('c', args);
+      String batchSize = Utils.getOption('b', args);
+
+      if (arffFile.isEmpty()) {
+         throw new IllegalArgumentException("No arff file given, use -d <arff file>");
+      }
+
+      DataHandler dataHandler = new DataHandler(new FileHandler().readFile(new File(arffFile)));
+      Instances data = dataHandler.getData();
+      String[] lines = new String[data.numInstances()];
+      for (int i = 0; i < lines.length; i++) {
+         lines[i] = data.instance(i).toString();
+      }
+
+      run(url.isEmpty() ? "http://127.0.0.1:8080/score" : url, lines,
+            requests.isEmpty() ? 10000 : Integer.parseInt(requests),
+            clients.isEmpty() ? 8 : Integer.parseInt(clients),
+            batchSize.isEmpty() ? 1 : Integer.parseInt(batchSize));
+   }
+
+   public static void run(final String url, final String[] lines, final int requests, int clients,
+         final int batchSize) throws Exception {
+      final LatencyRecorder latency = new LatencyRecorder(Math.max(1, requests));
+      final AtomicInteger next = new AtomicInteger();
+      final AtomicLong failures = new AtomicLong();
+      final CountDownLatch done = new CountDownLatch(clients);
+      long start = System.nanoTime();
+
+      for (int c = 0; c < clients; c++) {
+         new Thread(new Runnable() {
+            public void run() {
+               int request;
+               while ((request = next.getAndIncrement()) < requests) {
+                  StringBuilder body = new StringBuilder();
+                  for (int i = 0; i < batchSize; i++) {
+                     body.append(lines[(request * batchSize + i) % lines.length]).append('\n');
+                  }
+
+                  long sent = System.nanoTime();
+                  try {
+                     if (post(url, body.toString()) == 200) {
+                        latency.record(System.nanoTime() - sent);
+                     } else {
+                        failures.incrementAndGet();
+                     }
+                  } catch (Exception ex) {
+                     failures.incrementAndGet();
+                  }
+               }
+               done.countDown();
+            }
+         }, "load-client-" + c).start();
+      }
+
+      done.await();
+      double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+      System.out.println("*********************************");
+      System.out.println(
+            "Load Test (" + clients + " clients, " + batchSize + " instance(s) per request)");
+      System.out.println("---------------------------------");
+      System.out.println("Requests: " + latency.getCount() + " (" + failures.get() + " failed)");
+      System.out.println("Throughput: " + String.format("%.1f requests/s, %.1f instances/s",
+            latency.getCount() / seconds, latency.getCount() * batchSize / seconds));
+      System.out.println("Latency p50: " + String.format("%.3f ms", latency.getPercentile(0.50)));
+      System.out.println("Latency p99: " + String.format("%.3f ms", latency.getPercentile(0.99)));
+      System.out.println("*********************************");
+   }
+
+   private static int post(String url, String body) throws Exception {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+
+      OutputStream output = connection.getOutputStream();
+      output.write(body.getBytes("UTF-8"));
+      output.close();
+
+      int status = connection.getResponseCode();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+            status == 200 ? connection.getInputStream() : connection.getErrorStream(), "UTF-8"));
+      while (reader.readLine() != null) {
+         /** Read the whole response so the connection can be reused */
+      }
+      reader.close();
+
+      return status;
+   }
+}
@@ -0,0 +1,16 @@
+/**
+ * The LogOddsWeighting class weighs the vote of each model by the log-odds of its accuracy, the
+ * weight that is optimal for independent models. With more than two classes, the odds are taken
+ * against random guessing (log((K - 1) * p / (1 - p)) for K classes), so a model no better than
+ * chance gets no weight. The accuracy is smoothed with one correct and one wrong prediction so
+ * that a perfect model does not get an infinite weight.
+ */
+
+public class LogOddsWeighting extends AccuracyWeighting {
+   public double getWeight(int model, int predictedClass) {
+      double accuracy = (correct[model] + 1.0) / (total[model] + 2.0);
+      double weight = Math.log(accuracy / (1 - accuracy)) + Math.log(Math.max(1, numClasses - 1));
+
+      return Math.max(0, weight);
+   }
+}
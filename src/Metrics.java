@@ -0,0 +1,154 @@
+/**
+ * The Metrics class publishes the confusion matrix and the timing of a model or an aggregation
+ * method through JMX, under the name classifier:type=Metrics,dataset=<dataset>,name=<name>,
+ * model=<model>. The matrix is copied when it is recorded, so readers always see a consistent
+ * snapshot while the next run is counted. Metrics are told apart by all three, so that datasets run
+ * at the same time, or two models of the same class, never share them.
+ * 
+ * Parameters are: dataset: the relation name of the dataset, or null when there is none.
+ * 
+ * name: the name of the model or aggregation method (e.g. Majority Voting).
+ * 
+ * model: the position of the model in the ensemble, or -1 for an aggregation method.
+ * 
+ * matrix: the confusion matrix of the last run, or null before the first one.
+ * 
+ * runs, lastRunNanos, totalRunNanos: the number of runs recorded and the time they took.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class Metrics implements MetricsMBean {
+   private static final HashMap<String, Metrics> REGISTRY = new HashMap<String, Metrics>();
+
+   private String dataset;
+   private String name;
+   private int model;
+   private volatile ConfusionMatrix matrix;
+   private AtomicLong runs;
+   private volatile long lastRunNanos;
+   private AtomicLong totalRunNanos;
+
+   private Metrics(String dataset, String name, int model) {
+      this.dataset = dataset;
+      this.name = name;
+      this.model = model;
+      this.runs = new AtomicLong();
+      this.totalRunNanos = new AtomicLong();
+   }
+
+   /** Get the metrics of the aggregation method of the name on the dataset */
+   public static Metrics get(String dataset, String name) {
+      return get(dataset, name, -1);
+   }
+
+   /**
+    * Get the metrics of the model at the position in the ensemble on the dataset, registering them
+    * with the MBean server the first time
+    */
+   public static synchronized Metrics get(String dataset, String name, int model) {
+      String key = dataset + "\u0000" + name + "\u0000" + model;
+      Metrics metrics = REGISTRY.get(key);
+
+      if (metrics == null) {
+         metrics = new Metrics(dataset, name, model);
+         REGISTRY.put(key, metrics);
+
+         try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                  new ObjectName("classifier:type=Metrics"
+                        + (dataset == null ? "" : ",dataset=" + ObjectName.quote(dataset))
+                        + ",name=" + ObjectName.quote(name)
+                        + (model < 0 ? "" : ",model=" + model)));
+         } catch (JMException ex) {
+            /** Monitoring is optional: the metrics are still kept without JMX */
+         }
+      }
+
+      return metrics;
+   }
+
+   /** Get the metrics of every name registered so far */
+   public static synchronized List<Metrics> getAll() {
+      return new ArrayList<Metrics>(REGISTRY.values());
+   }
+
+   /** Record a finished run: its confusion matrix and the time (in nanoseconds) it took */
+   public void record(ConfusionMatrix matrix, long nanos) {
+      this.matrix = matrix.copy();
+      this.lastRunNanos = nanos;
+      runs.incrementAndGet();
+      totalRunNanos.addAndGet(nanos);
+   }
+
+   /** Publish the confusion matrix of a run that is still going, e.g. after every chunk */
+   public void update(ConfusionMatrix matrix) {
+      this.matrix = matrix.copy();
+   }
+
+   public String getDataset() {
+      return this.dataset;
+   }
+
+   public String getName() {
+      return this.name;
+   }
+
+   /** Get the position of the model in the ensemble, or -1 for an aggregation method */
+   public int getModel() {
+      return this.model;
+   }
+
+   public ConfusionMatrix getConfusionMatrix() {
+      return this.matrix;
+   }
+
+   public double getAccuracy() {
+      ConfusionMatrix current = matrix;
+      return current == null ? 0.0 : current.getAccuracy();
+   }
+
+   public double getKappa() {
+      ConfusionMatrix current = matrix;
+      return current == null ? 0.0 : current.getKappa();
+   }
+
+   public double getMacroF1() {
+      ConfusionMatrix current = matrix;
+      return current == null ? 0.0 : current.getMacroF1();
+   }
+
+   public double getTieRate() {
+      ConfusionMatrix current = matrix;
+      return current == null ? 0.0 : current.getTieRate();
+   }
+
+   public long getInstances() {
+      ConfusionMatrix current = matrix;
+      return current == null ? 0 : current.getTotal();
+   }
+
+   public long getTies() {
+      ConfusionMatrix current = matrix;
+      return current == null ? 0 : current.getTies();
+   }
+
+   public long getRuns() {
+      return runs.get();
+   }
+
+   public double getLastRunMillis() {
+      return lastRunNanos / 1000000.0;
+   }
+
+   public double getTotalRunMillis() {
+      return totalRunNanos.get() / 1000000.0;
+   }
+}
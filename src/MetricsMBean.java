@@ -0,0 +1,33 @@
+/**
+ * The MetricsMBean interface lists the numbers a Metrics instance exposes through JMX, e.g. to
+ * jconsole or a JMX exporter, so that a running classifier can be monitored live.
+ */
+
+public interface MetricsMBean {
+   /** Accuracy (in percent) of the last run */
+   double getAccuracy();
+
+   /** Cohen's kappa statistic of the last run */
+   double getKappa();
+
+   /** F1 measure averaged over the classes in the last run */
+   double getMacroF1();
+
+   /** Share (in percent) of the instances left without a prediction in the last run */
+   double getTieRate();
+
+   /** Number of predictions counted in the last run */
+   long getInstances();
+
+   /** Number of instances left without a prediction in the last run */
+   long getTies();
+
+   /** Number of runs recorded */
+   long getRuns();
+
+   /** Time (in milliseconds) the last run took */
+   double getLastRunMillis();
+
+   /** Time (in milliseconds) all the recorded runs took */
+   double getTotalRunMillis();
+}
@@ -2,60 +2,213 @@
  * The Model class produces predictions of a certain instance's classification based on the features
  * it is given.
  * 
- * Each model has: predictionList: a list of predictions (in String) made by the model on each
- * instance.
+ * Each model has: predictions: the predictions (with their class distributions) the model made
+ * during cross validation, in the order Weka returned them, held in primitive columns.
+ * 
+ * storeDistributions: whether the class distributions are kept along with the predicted classes.
+ * Soft voting and stacking on distributions need them.
+ * 
+ * offHeap: whether the predictions are held outside the Java heap.
  * 
  * accuracy: the accuracy of the model in predicting the class of a certain instance.
  * 
+ * confusionMatrix: the predictions of the last cross validation run counted by actual and predicted
+ * class, from which the accuracy is read.
+ * 
+ * name: the name the model's metrics are published under, once it has been evaluated.
+ * 
+ * dataset: the relation name of the dataset the model was last evaluated on, which its metrics are
+ * published under along with the name and the index.
+ * 
+ * index: the position of the model in the ensemble, which labels its profiled phases, or -1 for a
+ * model outside the ensemble.
+ * 
  * weight: a weight assigned to the model based on its accuracy.
+ * 
+ * summary: the evaluation summary of the model's last cross validation run.
+ * 
+ * elapsedTime: the time (in milliseconds) the model's last cross validation run took.
+ * 
+ * predictionTime: the time (in milliseconds) the fold models of the last run took to predict every
+ * row of the dataset, the cost Cascade Voting orders the models by. It is kept with the cached
+ * results and the incremental state, so a run that trains nothing reports the same cost.
+ * 
+ * crossValidator: the cross validation the model is evaluated with, with the folds and seed of the
+ * run. It must be set before the model is evaluated.
+ * 
+ * finalModelFile: the file the model trained on the full dataset is serialized to. When it is not
+ * set, the full-dataset training is skipped since cross validation trains its own copies.
+ * 
+ * finalModel: the model trained on the full dataset, kept for later scoring.
+ * 
+ * timer: the time spent in each phase of the model's last run.
+ * 
+ * resultCache: where the cross validation results are looked up before training and stored after.
+ * When it is not set, the model is always trained.
+ * 
+ * datasetHash: the content hash of the dataset, part of the key of the cached results.
+ * 
+ * incrementalTrainer: keeps the fold models and predictions of the last run, so that rows appended
+ * to the dataset since are the only ones trained on and predicted. When it is set, the result cache
+ * is not used.
+ * 
+ * incrementalUpdate: whether the last run updated the state of the run before it rather than
+ * training the model from scratch.
+ * 
+ * appendedRows: the number of rows appended to the dataset since the run before the last one.
  */
 
-import java.util.Random;
+import java.io.File;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
-import weka.classifiers.evaluation.NominalPrediction;
-import weka.core.FastVector;
 import weka.core.Instances;
+import weka.core.SerializationHelper;
 
 public class Model {
-   private String[] predictionList;
+   private PredictionStore predictions;
+   private boolean storeDistributions = true;
+   private boolean offHeap;
    private double accuracy;
+   private ConfusionMatrix confusionMatrix;
+   private String name;
+   private String dataset;
+   private int index = -1;
    private int weight;
+   private String summary;
+   private long elapsedTime;
+   private double predictionTime;
+   private FoldCrossValidator crossValidator;
+   private String finalModelFile;
+   private Classifier finalModel;
+   private PhaseTimer timer;
+   private ResultCache resultCache;
+   private String datasetHash;
+   private IncrementalTrainer incrementalTrainer;
+   private boolean incrementalUpdate;
+   private int appendedRows;
 
    /** Classify instances */
-   public FastVector classify(Classifier model, Instances data) throws Exception {
-      FastVector predictions = new FastVector();
-      Evaluation evaluation = new Evaluation(data);
-
-      model.buildClassifier(data);
-      /** Use 10-fold cross validation to train the model */
-      evaluation.crossValidateModel(model, data, 10, new Random(1));
+   public PredictionStore classify(Classifier model, Instances data) throws Exception {
+      PredictionStore predictions = evaluate(model, data);
 
       /** Output data regarding the model such as: kappa statistic, mean absolute error, etc */
-      predictions = evaluation.predictions();
-      System.out.println(evaluation.toSummaryString("---------------------------------\n "
-            + model.getClass().getSimpleName() + "\n---------------------------------", false));
+      System.out.println(summary);
+      System.out.println(getPhaseReport());
 
       return predictions;
    }
 
-   /** Convert the predictions (returned as double values) into a readable String value */
-   public void setPredictions(Instances data, FastVector predictions) {
-      NominalPrediction np;
-      double predicted;
+   /**
+    * Classify instances without writing anything to the console. The evaluation summary is kept so
+    * that callers running several models at once can display it afterwards.
+    */
+   public PredictionStore evaluate(Classifier model, Instances data) throws Exception {
+      PredictionStore predictions = new PredictionStore(data.numInstances(), data.numClasses(),
+            storeDistributions, offHeap);
+      Evaluation evaluation;
+      long start = System.currentTimeMillis();
+      Profiler.Span span;
+
+      timer = new PhaseTimer();
+      name = model.getClass().getSimpleName();
+      dataset = data.relationName();
+      if (crossValidator == null) {
+         throw new IllegalStateException("No cross validator set for " + name);
+      }
+
+      /** Reuse the results of an earlier run with the same dataset and settings */
+      String cacheKey = null;
+      if (resultCache != null && incrementalTrainer == null) {
+         span = Profiler.start("Result cache lookup", name, index, -1);
+         cacheKey = resultCache.getKey(datasetHash, model, crossValidator.getNumFolds(),
+               crossValidator.getSeed());
+         ResultCache.Entry cached = resultCache.get(cacheKey, finalModelFile != null,
+               storeDistributions, offHeap);
+         timer.record("Result cache lookup", span.end());
+
+         if (cached != null) {
+            if (finalModelFile != null) {
+               finalModel = cached.getFinalModel();
+               writeFinalModel();
+            }
+            summary = cached.getSummary();
+            predictionTime = cached.getPredictionTime();
+            elapsedTime = System.currentTimeMillis() - start;
+            return cached.getPredictions();
+         }
+      }
+
+      /** Train on the full dataset only when the trained model is kept for later scoring */
+      if (finalModelFile != null) {
+         span = Profiler.start("Full fit", name, index, -1);
+         finalModel = Classifier.makeCopy(model);
+         finalModel.buildClassifier(data);
+         timer.record("Full fit", span.end());
+
+         span = Profiler.start("Serialize final model", name, index, -1);
+         writeFinalModel();
+         timer.record("Serialize final model", span.end());
+      }
+
+      /** Train on the rows appended since the last run only, when the dataset just grew */
+      if (incrementalTrainer != null) {
+         IncrementalTrainer.Result result =
+               incrementalTrainer.evaluate(model, index, data, storeDistributions, offHeap, timer);
+         incrementalUpdate = !result.isRetrained();
+         appendedRows = result.getAppended();
+         predictionTime = result.getPredictionTime();
+         summary = result.getSummary() + "\nIncremental run: " + result.getMode() + ", "
+               + result.getAppended() + " row(s) appended\n";
+         elapsedTime = System.currentTimeMillis() - start;
+         return result.getPredictions();
+      }
+
+      /** Use the cross validation of the run to train the model */
+      span = Profiler.start("Cross validation", name, index, -1);
+      evaluation = crossValidator.crossValidateModel(model, data, timer, true, predictions, index);
+      timer.record("Cross validation", span.end());
+      predictionTime = timer.getTotal("Fold predict (all folds)");
 
-      predictionList = new String[data.numInstances()];
+      summary = evaluation.toSummaryString("---------------------------------\n "
+            + model.getClass().getSimpleName() + "\n---------------------------------", false);
 
-      for (int i = 0; i < predictions.size(); i++) {
-         np = (NominalPrediction) predictions.elementAt(i);
-         predicted = np.predicted();
-         predictionList[i] = data.classAttribute().value((int) predicted);
+      if (resultCache != null) {
+         span = Profiler.start("Result cache store", name, index, -1);
+         resultCache.put(cacheKey, predictions, summary, predictionTime, finalModel);
+         timer.record("Result cache store", span.end());
       }
+      elapsedTime = System.currentTimeMillis() - start;
+
+      return predictions;
+   }
+
+   /** Keep the predictions the model made, which the Aggregator reads */
+   public void setPredictions(PredictionStore predictions) {
+      this.predictions = predictions;
+   }
+
+   public PredictionStore getPredictions() {
+      return this.predictions;
+   }
+
+   /**
+    * Choose how the predictions of the next evaluation are held: with or without their class
+    * distributions, and on or off the Java heap
+    */
+   public void setPredictionStorage(boolean storeDistributions, boolean offHeap) {
+      this.storeDistributions = storeDistributions;
+      this.offHeap = offHeap;
    }
 
-   public String[] getPredictions() {
-      return this.predictionList;
+   /** Serialize the full-dataset model, creating the directory it goes to first */
+   private void writeFinalModel() throws Exception {
+      File directory = new File(finalModelFile).getAbsoluteFile().getParentFile();
+
+      if (directory != null) {
+         directory.mkdirs();
+      }
+      SerializationHelper.write(finalModelFile, finalModel);
    }
 
    /**
@@ -63,17 +216,17 @@ public class Model {
     * of the instance and computing how many times it makes the correct classification over the
     * number of predictions made.
     */
-   public void calculateAccuracy(FastVector predictions) {
-      double correct = 0;
+   public void calculateAccuracy(PredictionStore predictions) {
+      confusionMatrix = ConfusionMatrix.of(predictions);
+      accuracy = confusionMatrix.getAccuracy();
 
-      for (int i = 0; i < predictions.size(); i++) {
-         NominalPrediction np = (NominalPrediction) predictions.elementAt(i);
-         if (np.predicted() == np.actual()) {
-            correct++;
-         }
+      if (name != null) {
+         Metrics.get(dataset, name, index).record(confusionMatrix, elapsedTime * 1000000L);
       }
+   }
 
-      accuracy = 100 * correct / predictions.size();
+   public ConfusionMatrix getConfusionMatrix() {
+      return this.confusionMatrix;
    }
 
    public double getAccuracy() {
@@ -87,4 +240,79 @@ public class Model {
    public int getWeight() {
       return this.weight;
    }
+
+   public String getSummary() {
+      return this.summary;
+   }
+
+   public long getElapsedTime() {
+      return this.elapsedTime;
+   }
+
+   /**
+    * Get the time (in milliseconds) the fold models of the last run took to predict every row,
+    * whether they were trained in this run, updated or read back from the cache
+    */
+   public double getPredictionTime() {
+      return this.predictionTime;
+   }
+
+   public void setCrossValidator(FoldCrossValidator crossValidator) {
+      this.crossValidator = crossValidator;
+   }
+
+   /** Look up and store the cross validation results in the cache, for the dataset of the hash */
+   public void setResultCache(ResultCache resultCache, String datasetHash) {
+      this.resultCache = resultCache;
+      this.datasetHash = datasetHash;
+   }
+
+   /** Set the position of the model in the ensemble */
+   public void setIndex(int index) {
+      this.index = index;
+   }
+
+   public int getIndex() {
+      return this.index;
+   }
+
+   /** Update the state of the last run with the appended rows instead of training from scratch */
+   public void setIncrementalTrainer(IncrementalTrainer incrementalTrainer) {
+      this.incrementalTrainer = incrementalTrainer;
+   }
+
+   /** Check whether the last run updated the state of the run before it instead of training */
+   public boolean isIncrementalUpdate() {
+      return this.incrementalUpdate;
+   }
+
+   /** Get the number of rows the last incremental run found appended to the dataset */
+   public int getAppendedRows() {
+      return this.appendedRows;
+   }
+
+   public void setFinalModelFile(String finalModelFile) {
+      this.finalModelFile = finalModelFile;
+   }
+
+   public Classifier getFinalModel() {
+      return this.finalModel;
+   }
+
+   /** Load a final model serialized by a previous run */
+   public static Classifier readFinalModel(String finalModelFile) throws Exception {
+      return (Classifier) SerializationHelper.read(finalModelFile);
+   }
+
+   public PhaseTimer getTimer() {
+      return this.timer;
+   }
+
+   /** Display where the time of the model's last run went */
+   public String getPhaseReport() {
+      if (timer == null) {
+         return "";
+      }
+      return timer.toReport("Phase Times");
+   }
 }
\ No newline at end of file
@@ -0,0 +1,190 @@
+/**
+ * The NeighborHeap class keeps the points nearest to a query while an index searches: a max-heap
+ * on the distance, bounded to a capacity, so the farthest point kept is always on top and is
+ * replaced when a nearer one is found. Points and distances are held in flat arrays.
+ * 
+ * A heap keeping ties also keeps, beyond its capacity, the points at the same distance as the
+ * farthest point kept, as Weka's nearest neighbor searches do for IBk. They are dropped as soon as
+ * a nearer point makes the farthest distance shrink.
+ * 
+ * Parameters are: capacity: the number of points kept.
+ * 
+ * keepsTies: whether the points tied with the farthest point kept are kept too.
+ * 
+ * points, distances: the heap, as positions of points and their squared distances.
+ * 
+ * ties: the points tied with the farthest point kept, beyond the capacity.
+ */
+
+public class NeighborHeap {
+   private int capacity;
+   private boolean keepsTies;
+   private int[] points;
+   private double[] distances;
+   private int size;
+   private int[] ties;
+   private int numTies;
+
+   public NeighborHeap(int capacity) {
+      this(capacity, false);
+   }
+
+   public NeighborHeap(int capacity, boolean keepsTies) {
+      this.capacity = capacity;
+      this.keepsTies = keepsTies;
+      this.points = new int[capacity];
+      this.distances = new double[capacity];
+      this.ties = new int[keepsTies ? 4 : 0];
+   }
+
+   /** Empty the heap, and make it keep the given number of points */
+   public void clear(int capacity) {
+      if (capacity > points.length) {
+         points = new int[capacity];
+         distances = new double[capacity];
+      }
+      this.capacity = capacity;
+      this.size = 0;
+      this.numTies = 0;
+   }
+
+   /**
+    * Keep the point if the heap is not full or it is nearer than the farthest point kept, or, when
+    * the heap keeps ties, as far
+    */
+   public boolean offer(int point, double distance) {
+      if (size < capacity) {
+         int i = size++;
+
+         /** Sift the point up */
+         while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (distances[parent] >= distance) {
+               break;
+            }
+            points[i] = points[parent];
+            distances[i] = distances[parent];
+            i = parent;
+         }
+         points[i] = point;
+         distances[i] = distance;
+         return true;
+      }
+
+      if (capacity == 0 || distance > distances[0] || (distance == distances[0] && !keepsTies)) {
+         return false;
+      }
+      if (distance == distances[0]) {
+         addTie(point);
+         return true;
+      }
+
+      /** The farthest point is replaced: it stays as a tie if the next farthest is as far */
+      int farthest = points[0];
+      double farthestDistance = distances[0];
+      siftDown(point, distance);
+      if (keepsTies && distances[0] == farthestDistance) {
+         addTie(farthest);
+      } else {
+         numTies = 0;
+      }
+      return true;
+   }
+
+   private void addTie(int point) {
+      if (numTies == ties.length) {
+         int[] grown = new int[ties.length * 2];
+         System.arraycopy(ties, 0, grown, 0, numTies);
+         ties = grown;
+      }
+      ties[numTies++] = point;
+   }
+
+   /** Remove the farthest point kept. The ties are dropped with it. */
+   public int poll() {
+      int top = points[0];
+
+      numTies = 0;
+      size--;
+      if (size > 0) {
+         siftDown(points[size], distances[size]);
+      }
+      return top;
+   }
+
+   private void siftDown(int point, double distance) {
+      int i = 0;
+
+      while (true) {
+         int child = 2 * i + 1;
+         if (child >= size) {
+            break;
+         }
+         if (child + 1 < size && distances[child + 1] > distances[child]) {
+            child++;
+         }
+         if (distances[child] <= distance) {
+            break;
+         }
+         points[i] = points[child];
+         distances[i] = distances[child];
+         i = child;
+      }
+      points[i] = point;
+      distances[i] = distance;
+   }
+
+   public boolean isFull() {
+      return size == capacity;
+   }
+
+   public int size() {
+      return this.size;
+   }
+
+   /** Get the number of points tied with the farthest point kept, beyond the capacity */
+   public int getNumTies() {
+      return this.numTies;
+   }
+
+   /**
+    * Get the distance of the farthest point kept, or infinity while the heap is not full. A point
+    * at this distance is still kept when the heap keeps ties.
+    */
+   public double getBound() {
+      return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+   }
+
+   /** Get the distance of the farthest point kept */
+   public double getFarthest() {
+      return distances[0];
+   }
+
+   public int getFarthestPoint() {
+      return points[0];
+   }
+
+   /**
+    * Write the points kept, nearest first and ties last, to the arrays and return their number.
+    * When they do not fit in the arrays, nothing is written. The heap is emptied.
+    */
+   public int drainTo(int[] neighbors, double[] neighborDistances) {
+      int count = size + numTies;
+
+      if (count > neighbors.length || count > neighborDistances.length) {
+         clear(capacity);
+         return count;
+      }
+
+      for (int i = 0; i < numTies; i++) {
+         neighbors[size + i] = ties[i];
+         neighborDistances[size + i] = distances[0];
+      }
+      for (int i = size - 1; i >= 0; i--) {
+         neighborDistances[i] = distances[0];
+         neighbors[i] = poll();
+      }
+
+      return count;
+   }
+}
@@ -0,0 +1,27 @@
+/**
+ * The NeighborIndex interface finds the nearest neighbors of a point among a fixed set of points,
+ * for the FastKNN classifier. The points are given as one flat array, point after point, so that
+ * an index never holds an object per point. Distances are squared Euclidean distances.
+ * 
+ * An index keeps scratch space between searches, so, like a Weka classifier, it serves one thread
+ * at a time.
+ */
+
+import java.io.Serializable;
+
+public interface NeighborIndex extends Serializable {
+   /**
+    * Index the points: the i-th point is points[i * dimensions] to
+    * points[(i + 1) * dimensions - 1]. The array is kept, not copied.
+    */
+   void build(double[] points, int numPoints, int dimensions);
+
+   /**
+    * Find the (at most) k points nearest to the query, along with the points as far as the k-th
+    * nearest when the index is exact, as IBk counts them. Their positions and squared distances are
+    * written to neighbors and distances, nearest first, and their number is returned. When there
+    * are more than the arrays hold, nothing is written: the search is to be repeated with arrays
+    * of the size returned.
+    */
+   int search(double[] query, int k, int[] neighbors, double[] distances);
+}
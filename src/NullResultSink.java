@@ -0,0 +1,11 @@
+/** The NullResultSink class discards the results, for runs where only the accuracy matters. */
+
+import java.io.IOException;
+
+public class NullResultSink implements ResultSink {
+   public void begin(VoteResult result) throws IOException {}
+
+   public void write(VoteResult result, int from, int to) throws IOException {}
+
+   public void end(VoteResult result) throws IOException {}
+}
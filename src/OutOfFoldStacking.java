@@ -0,0 +1,201 @@
+/**
+ * The OutOfFoldStacking class stacks the base models using the predictions they already made
+ * during their own cross validation. Each of those predictions was made by a model that never saw
+ * the instance, so they can be used directly as the training set of the meta-classifier: the base
+ * models are never trained again, unlike Weka's Stacking which runs its own inner cross
+ * validation.
+ * 
+ * Every model contributes either its class distribution (one attribute per class) or only its
+ * predicted class (one nominal attribute) to the meta-level dataset. The instances of the
+ * meta-level dataset are in the order of the base models' predictions, which is the same for every
+ * model since they were cross validated with the same seed.
+ * 
+ * Parameters are: useDistributions: whether the class distributions or the predicted classes are
+ * used as features.
+ * 
+ * crossValidator: evaluates the meta-classifier on the meta-level dataset.
+ * 
+ * metaData: the meta-level dataset built from the last set of models.
+ */
+
+import java.io.Serializable;
+import java.util.List;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class OutOfFoldStacking implements Serializable {
+   private static final long serialVersionUID = 1L;
+
+   private boolean useDistributions;
+   private FoldCrossValidator crossValidator;
+   private Instances metaData;
+
+   public OutOfFoldStacking(boolean useDistributions, FoldCrossValidator crossValidator) {
+      this.useDistributions = useDistributions;
+      this.crossValidator = crossValidator;
+   }
+
+   /** Build the meta-level dataset from the out-of-fold predictions of the models */
+   public Instances buildMetaData(List<Model> modelList, Attribute classAttribute) {
+      PredictionStore[] stores = new PredictionStore[modelList.size()];
+
+      for (int j = 0; j < stores.length; j++) {
+         stores[j] = modelList.get(j).getPredictions();
+      }
+
+      return buildMetaData(stores, classAttribute);
+   }
+
+   /**
+    * Build the meta-level dataset from the out-of-fold predictions of every model, all made in the
+    * same order
+    */
+   public Instances buildMetaData(PredictionStore[] stores, Attribute classAttribute) {
+      int numInstances = stores[0].size();
+      metaData = createHeader(stores.length, classAttribute, numInstances);
+
+      for (int j = 0; j < stores.length; j++) {
+         if (useDistributions && !stores[j].hasDistributions()) {
+            throw new IllegalStateException("Stacking on distributions needs the distributions "
+                  + "the models predicted, see RunConfig.storeDistributions");
+         }
+      }
+
+      for (int i = 0; i < numInstances; i++) {
+         metaData.add(toMetaInstance(stores, i));
+      }
+
+      return metaData;
+   }
+
+   /**
+    * Create the attributes of the meta-level dataset: the features of every model followed by the
+    * class attribute.
+    */
+   public Instances createHeader(int numModels, Attribute classAttribute, int capacity) {
+      FastVector attributes = new FastVector();
+      FastVector classValues = new FastVector(classAttribute.numValues());
+
+      for (int k = 0; k < classAttribute.numValues(); k++) {
+         classValues.addElement(classAttribute.value(k));
+      }
+
+      for (int j = 0; j < numModels; j++) {
+         if (useDistributions) {
+            for (int k = 0; k < classAttribute.numValues(); k++) {
+               attributes.addElement(new Attribute("model" + j + "_" + classAttribute.value(k)));
+            }
+         } else {
+            attributes.addElement(new Attribute("model" + j, (FastVector) classValues.copy()));
+         }
+      }
+      attributes.addElement(new Attribute(classAttribute.name(), classValues));
+
+      Instances header = new Instances("meta-level", attributes, capacity);
+      header.setClassIndex(header.numAttributes() - 1);
+
+      return header;
+   }
+
+   /** Turn the class distributions the models gave to an instance into a meta-level instance */
+   public Instance toMetaInstance(double[][] distributions, double actual) {
+      int numClasses = metaData.numClasses();
+      double[] values = new double[metaData.numAttributes()];
+      int position = 0;
+
+      for (int j = 0; j < distributions.length; j++) {
+         if (useDistributions) {
+            System.arraycopy(distributions[j], 0, values, position, numClasses);
+            position = position + numClasses;
+         } else {
+            values[position++] = maxIndex(distributions[j]);
+         }
+      }
+      values[position] = actual;
+
+      Instance instance = new Instance(1.0, values);
+      instance.setDataset(metaData);
+      return instance;
+   }
+
+   /** Turn the predictions the models made on the i-th instance into a meta-level instance */
+   private Instance toMetaInstance(PredictionStore[] stores, int i) {
+      int numClasses = metaData.numClasses();
+      double[] values = new double[metaData.numAttributes()];
+      int position = 0;
+
+      for (int j = 0; j < stores.length; j++) {
+         if (useDistributions) {
+            for (int k = 0; k < numClasses; k++) {
+               values[position++] = stores[j].getProbability(i, k);
+            }
+         } else {
+            int predicted = stores[j].getPredicted(i);
+            values[position++] = predicted < 0 ? Instance.missingValue() : predicted;
+         }
+      }
+      int actual = stores[0].getActual(i);
+      values[position] = actual < 0 ? Instance.missingValue() : actual;
+
+      Instance instance = new Instance(1.0, values);
+      instance.setDataset(metaData);
+      return instance;
+   }
+
+   /**
+    * Get the class with the highest probability, or a missing value when the model gave no
+    * probability to any class (as Weka does for its predictions)
+    */
+   private static double maxIndex(double[] distribution) {
+      int best = 0;
+
+      for (int k = 1; k < distribution.length; k++) {
+         if (distribution[k] > distribution[best]) {
+            best = k;
+         }
+      }
+
+      return distribution[best] <= 0 ? Instance.missingValue() : best;
+   }
+
+   /**
+    * Cross validate the meta-classifier on the meta-level dataset. The folds are contiguous blocks,
+    * so the predictions stay in the order of the base models' predictions.
+    */
+   public Evaluation evaluate(Classifier metaClassifier) throws Exception {
+      return evaluate(metaClassifier, false);
+   }
+
+   /**
+    * Cross validate the meta-classifier, on shuffled and stratified folds when asked. Base models
+    * updated incrementally predict in the order of the rows, where contiguous folds would hold
+    * whole runs of appended rows.
+    */
+   public Evaluation evaluate(Classifier metaClassifier, boolean shuffle) throws Exception {
+      return crossValidator.crossValidateModel(metaClassifier, metaData, null, shuffle);
+   }
+
+   /** Train the meta-classifier once on the whole meta-level dataset */
+   public Classifier train(Classifier metaClassifier) throws Exception {
+      Classifier trained = Classifier.makeCopy(metaClassifier);
+      trained.buildClassifier(metaData);
+      return trained;
+   }
+
+   public Instances getMetaData() {
+      return this.metaData;
+   }
+
+   public void setMetaData(Instances metaData) {
+      this.metaData = metaData;
+   }
+
+   public boolean usesDistributions() {
+      return this.useDistributions;
+   }
+}
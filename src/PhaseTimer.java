@@ -0,0 +1,63 @@
+/**
+ * The PhaseTimer class accumulates the time spent in each phase of a run (e.g. training on the full
+ * dataset, training and testing each fold). Phases are displayed in the order they were first
+ * recorded. Several threads may record into the same timer.
+ * 
+ * Parameters are: totals: the total time (in nanoseconds) spent per phase.
+ * 
+ * counts: the number of times each phase was recorded.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PhaseTimer {
+   private LinkedHashMap<String, Long> totals;
+   private LinkedHashMap<String, Integer> counts;
+
+   public PhaseTimer() {
+      this.totals = new LinkedHashMap<String, Long>();
+      this.counts = new LinkedHashMap<String, Integer>();
+   }
+
+   public synchronized void record(String phase, long nanos) {
+      Long total = totals.get(phase);
+      Integer count = counts.get(phase);
+
+      totals.put(phase, total == null ? nanos : total + nanos);
+      counts.put(phase, count == null ? 1 : count + 1);
+   }
+
+   /** Get the total time (in milliseconds) spent in the phase */
+   public synchronized double getTotal(String phase) {
+      Long total = totals.get(phase);
+
+      return total == null ? 0.0 : total / 1000000.0;
+   }
+
+   public synchronized int getCount(String phase) {
+      Integer count = counts.get(phase);
+
+      return count == null ? 0 : count;
+   }
+
+   /** Display the time spent in each phase */
+   public synchronized String toReport(String title) {
+      StringBuilder report = new StringBuilder();
+
+      report.append("---------------------------------\n");
+      report.append(" " + title + "\n");
+      report.append("---------------------------------\n");
+
+      for (Map.Entry<String, Long> phase : totals.entrySet()) {
+         int count = counts.get(phase.getKey());
+         report.append(phase.getKey() + ": " + String.format("%.1f ms", phase.getValue() / 1000000.0));
+         if (count > 1) {
+            report.append(" (" + count + " runs)");
+         }
+         report.append("\n");
+      }
+
+      return report.toString();
+   }
+}
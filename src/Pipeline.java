@@ -0,0 +1,356 @@
+/**
+ * The Pipeline class runs the whole ensemble on one dataset: every base model is cross validated,
+ * then their predictions are aggregated by the configured methods (Majority Voting, Weighted
+ * Majority Voting, Soft Voting, Weighted Soft Voting, Cascade Voting and Stacking with SVM). It is
+ * shared by the interactive Driver and the headless BatchRunner, and never touches the user
+ * interface.
+ * 
+ * Parameters are: models: the base models of the ensemble, replaced by their best configuration
+ * when a hyperparameter search is configured.
+ * 
+ * config: the settings of the run.
+ * 
+ * crossValidator: the cross validation used by the models and the stacking classifier.
+ * 
+ * out: where the summaries and accuracies are displayed.
+ * 
+ * predictionPerModel: predictions produced by each model in the last run.
+ * 
+ * majorityAccuracy, weightedAccuracy, softAccuracy, weightedSoftAccuracy, cascadeAccuracy,
+ * stackingAccuracy: the accuracy of each aggregation method in the last run, or -1 when the method
+ * was not run.
+ */
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+public class Pipeline {
+   private static final PrintStream ERR = System.err;
+
+   private Classifier[] models;
+   private RunConfig config;
+   private FoldCrossValidator crossValidator;
+   private PrintStream out;
+   private HashMap<Integer, Model> predictionPerModel;
+   private double majorityAccuracy;
+   private double weightedAccuracy;
+   private double softAccuracy;
+   private double weightedSoftAccuracy;
+   private double cascadeAccuracy;
+   private double stackingAccuracy;
+
+   public Pipeline(Classifier[] models, RunConfig config, FoldCrossValidator crossValidator,
+         PrintStream out) {
+      this.models = models;
+      this.config = config;
+      this.crossValidator = crossValidator;
+      this.out = out;
+   }
+
+   /**
+    * Silence the output the classifiers write while they are being trained. Uncaught exceptions
+    * are still reported, on the error stream the JVM started with.
+    */
+   public static void silenceClassifiers() {
+      libsvm.svm.svm_set_print_string_function(new libsvm.svm_print_interface() {
+         @Override
+         /** Disables the geeky SVM output */
+         public void print(String s) {}
+      });
+
+      Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+         public void uncaughtException(Thread thread, Throwable ex) {
+            ERR.print("Exception in thread \"" + thread.getName() + "\" ");
+            ex.printStackTrace(ERR);
+         }
+      });
+
+      System.setErr(new PrintStream(new OutputStream() {
+         /** Disables the warnings returned by the classifiers */
+         public void write(int b) {}
+      }));
+   }
+
+   /** Get the error stream the JVM started with, which errors are reported on once silenced */
+   public static PrintStream getErrorStream() {
+      return ERR;
+   }
+
+   public void run(DataHandler dataHandler, ResultSink sink) throws Exception {
+      /** Get data classes */
+      String[] dataClasses = dataHandler.getDataClasses();
+
+      int numClasses = dataHandler.getSize();
+      int numInstances = dataHandler.getClassInstances();
+      Instances data = dataHandler.getData();
+
+      majorityAccuracy = -1;
+      weightedAccuracy = -1;
+      softAccuracy = -1;
+      weightedSoftAccuracy = -1;
+      cascadeAccuracy = -1;
+      stackingAccuracy = -1;
+
+      /** Record the time, allocations and collections of every phase, exporting them when asked */
+      Profiler.setEnabled(config.isProfiling());
+      if (config.getMetricsFile() != null && config.getMetricsInterval() > 0) {
+         Profiler.exportEvery(new File(config.getMetricsFile()), config.getMetricsInterval());
+      }
+
+      /** Tune the options of the models on the folds the ensemble is cross validated on */
+      if (config.searchesHyperparameters()) {
+         HyperparameterSearch search = new HyperparameterSearch(config,
+               crossValidator == null ? null : crossValidator.getPool());
+         search.setOutput(out);
+         models = search.tune(models, data);
+      }
+
+      /** Run for each model, in parallel when more than one thread is configured */
+      EnsembleRunner runner = new EnsembleRunner(models, config, crossValidator);
+      runner.setOutput(out);
+      predictionPerModel = runner.run(data);
+      runner.printTimingReport(predictionPerModel);
+      if (config.comparesKnn()) {
+         compareNearestNeighbors(data);
+      }
+
+      /** Read the actual class of every instance from the predictions of the last model */
+      PredictionStore predictions = runner.getPredictions();
+
+      /** Aggregate the predictions made by the set of classifiers */
+      Aggregator aggr = new Aggregator(models, predictionPerModel, dataClasses, numInstances,
+            numClasses, predictions);
+
+      aggr.setCrossValidator(crossValidator);
+      aggr.setDataset(data.relationName());
+      aggr.setPool(crossValidator == null ? null : crossValidator.getPool());
+      aggr.setResultSink(sink);
+      aggr.setOutput(out);
+      aggr.populateModelList();
+
+      /**
+       * Count the votes of every configured voting method at the same time, since they only read
+       * the predictions, then report them one after the other
+       */
+      String[] methods = { "majority", "weighted", "soft", "weightedsoft" };
+      double[] accuracies = { -1, -1, -1, -1 };
+      int[] selected = new int[methods.length];
+      int runs = 0;
+
+      for (int i = 0; i < methods.length; i++) {
+         if (config.runsMethod(methods[i])) {
+            selected[runs++] = i;
+         }
+      }
+
+      /**
+       * Methods 0 and 2 give every model a single vote, methods 1 and 3 weigh the votes with the
+       * configured strategy, and methods 2 and 3 average distributions
+       */
+      WeightingStrategy[] strategies = new WeightingStrategy[runs];
+      boolean[] soft = new boolean[runs];
+      for (int i = 0; i < runs; i++) {
+         strategies[i] = selected[i] % 2 == 0 ? new UniformWeighting()
+               : config.createWeightingStrategy();
+         soft[i] = selected[i] >= 2;
+      }
+
+      VoteResult[] results = aggr.voteAll(strategies, soft);
+      VoteResult weighted = null;
+
+      for (int i = 0; i < runs; i++) {
+         out.println("*********************************");
+         aggr.report(results[i]);
+         ConfusionMatrix matrix = results[i].getConfusionMatrix();
+
+         out.println("Ties found: " + matrix.getTies());
+         accuracies[selected[i]] = matrix.getAccuracy();
+         if (selected[i] == 1) {
+            weighted = results[i];
+         }
+
+         out.println("---------------------------------");
+         out.println("Accuracy: " + String.format("%.4f%%", accuracies[selected[i]]));
+         out.println("*********************************");
+      }
+
+      majorityAccuracy = accuracies[0];
+      weightedAccuracy = accuracies[1];
+      softAccuracy = accuracies[2];
+      weightedSoftAccuracy = accuracies[3];
+
+      if (config.runsMethod("cascade")) {
+         out.println("*********************************");
+         cascadeAccuracy = runCascade(aggr, weighted);
+         out.println("*********************************");
+      }
+
+      if (config.runsMethod("stacking")) {
+         out.println("*********************************");
+         /** Stacking with SVM */
+         if (!config.usesOutOfFoldStacking()) {
+            stackingAccuracy = aggr.stackingWithSVM(data);
+         } else if (config.isIncremental()) {
+            stackingAccuracy = runIncrementalStacking(aggr, data);
+         } else {
+            stackingAccuracy = aggr.stackingFromPredictions(data, config.stacksDistributions());
+         }
+         out.println("*********************************");
+      }
+
+      if (config.getMetricsFile() != null) {
+         Profiler.writePrometheus(new File(config.getMetricsFile()));
+      }
+   }
+
+   /**
+    * Aggregate with a Cascade that asks the models cheapest first, and compare it with Weighted
+    * Majority Voting: how many model predictions it skipped, the time they would have taken, and
+    * the accuracy of both. Weighted Majority Voting is run here when it was not configured.
+    */
+   private double runCascade(Aggregator aggr, VoteResult weighted) throws Exception {
+      double[] costs = new double[models.length];
+      double fullCost = 0;
+
+      for (int j = 0; j < models.length; j++) {
+         costs[j] = predictionPerModel.get(j).getPredictionTime();
+         fullCost = fullCost + costs[j];
+      }
+
+      VoteResult result = aggr.cascade(config.createWeightingStrategy(), costs,
+            config.getCascadeMargin());
+      if (weighted == null) {
+         weighted = aggr.vote(config.createWeightingStrategy(), false);
+      }
+      aggr.report(result);
+
+      long fullEvaluations = (long) models.length * result.getNumInstances();
+      int[] cascadeClasses = result.getPredictions();
+      int[] weightedClasses = weighted.getPredictions();
+      int agreements = 0;
+      for (int i = 0; i < cascadeClasses.length; i++) {
+         if (cascadeClasses[i] == weightedClasses[i]) {
+            agreements++;
+         }
+      }
+
+      double accuracy = result.getConfusionMatrix().getAccuracy();
+      out.println("---------------------------------");
+      out.println("Model predictions: " + result.getEvaluations() + " of " + fullEvaluations + " ("
+            + (fullEvaluations - result.getEvaluations()) + " skipped)");
+      out.println("Prediction time: " + String.format("%.1f ms of %.1f ms (%.2fx throughput)",
+            result.getCost(), fullCost, fullCost / Math.max(result.getCost(), 1e-9)));
+      out.println("Accuracy: " + String.format("%.4f%%", accuracy) + " (Weighted Majority Voting: "
+            + String.format("%.4f%%", weighted.getConfusionMatrix().getAccuracy()) + ")");
+      out.println("Same prediction as Weighted Majority Voting: " + String.format("%.4f%%",
+            cascadeClasses.length == 0 ? 100.0 : 100.0 * agreements / cascadeClasses.length));
+
+      return accuracy;
+   }
+
+   /**
+    * Stack the predictions of models kept up to date with appended rows. The meta-classifier an
+    * earlier run saved scores them while no base model was retrained, as long as no row was
+    * appended and for up to retrainEvery runs with appended rows. Otherwise a new one is cross
+    * validated, on shuffled folds since the predictions are in the order of the rows, then trained
+    * on every row and saved.
+    */
+   private double runIncrementalStacking(Aggregator aggr, Instances data) throws Exception {
+      IncrementalTrainer trainer = config.createIncrementalTrainer(crossValidator);
+      boolean appended = false;
+      boolean retrained = false;
+
+      for (Model model : predictionPerModel.values()) {
+         appended = appended || model.getAppendedRows() > 0;
+         retrained = retrained || !model.isIncrementalUpdate();
+      }
+
+      Classifier metaClassifier =
+            trainer.getStacking(models, data, config.stacksDistributions(), appended, retrained);
+      if (metaClassifier != null) {
+         return aggr.stackingWithMetaClassifier(data, config.stacksDistributions(),
+               metaClassifier);
+      }
+
+      double accuracy = aggr.stackingFromPredictions(data, config.stacksDistributions(), true);
+      trainer.saveStacking(models, data, config.stacksDistributions(),
+            aggr.trainStacking(data, config.stacksDistributions()));
+      return accuracy;
+   }
+
+   /**
+    * Cross validate IBk next to every FastKNN model, with the same folds, and display how much
+    * faster FastKNN was, the accuracy of both and how often they predicted the same class
+    */
+   private void compareNearestNeighbors(Instances data) throws Exception {
+      for (int j = 0; j < models.length; j++) {
+         if (!(models[j] instanceof FastKNN)) {
+            continue;
+         }
+
+         Model fast = predictionPerModel.get(j);
+         Model exact = new Model();
+         exact.setCrossValidator(crossValidator);
+         exact.setIncrementalTrainer(config.createIncrementalTrainer(crossValidator));
+         exact.setPredictionStorage(false, config.storesPredictionsOffHeap());
+         PredictionStore exactPredictions = exact.evaluate(((FastKNN) models[j]).toIBk(), data);
+         exact.calculateAccuracy(exactPredictions);
+
+         PredictionStore fastPredictions = fast.getPredictions();
+         int agreements = 0;
+         for (int i = 0; i < fastPredictions.size(); i++) {
+            if (fastPredictions.getVote(i) == exactPredictions.getVote(i)) {
+               agreements++;
+            }
+         }
+
+         out.println("*********************************");
+         out.println("k-NN Comparison (" + ((FastKNN) models[j]).getIndexType() + " index)");
+         out.println("---------------------------------");
+         out.println("FastKNN: " + fast.getElapsedTime() + " ms, accuracy "
+               + String.format("%.4f%%", fast.getAccuracy()));
+         out.println("IBk: " + exact.getElapsedTime() + " ms, accuracy "
+               + String.format("%.4f%%", exact.getAccuracy()));
+         double speedup = exact.getElapsedTime() / Math.max(1.0, fast.getElapsedTime());
+         out.println("Speedup: " + String.format("%.2fx", speedup));
+         out.println("Accuracy lost: "
+               + String.format("%.4f%%", exact.getAccuracy() - fast.getAccuracy()));
+         out.println("Same prediction: " + String.format("%.4f%%", fastPredictions.size() == 0
+               ? 100.0 : 100.0 * agreements / fastPredictions.size()));
+         out.println("*********************************");
+      }
+   }
+
+   public HashMap<Integer, Model> getPredictionPerModel() {
+      return this.predictionPerModel;
+   }
+
+   public double getMajorityAccuracy() {
+      return this.majorityAccuracy;
+   }
+
+   public double getWeightedAccuracy() {
+      return this.weightedAccuracy;
+   }
+
+   public double getSoftAccuracy() {
+      return this.softAccuracy;
+   }
+
+   public double getWeightedSoftAccuracy() {
+      return this.weightedSoftAccuracy;
+   }
+
+   public double getCascadeAccuracy() {
+      return this.cascadeAccuracy;
+   }
+
+   public double getStackingAccuracy() {
+      return this.stackingAccuracy;
+   }
+}
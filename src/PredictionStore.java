@@ -0,0 +1,462 @@
+/**
+ * The PredictionStore class holds the predictions a model made during cross validation in
+ * primitive columns instead of one NominalPrediction (and one distribution array) per instance.
+ * The actual and predicted classes take a byte, a short or an int per instance depending on the
+ * number of classes, and the class distributions, when they are kept, a float per class. The
+ * columns can live outside the Java heap, so that millions of predictions neither fill the heap
+ * nor slow down the garbage collector.
+ * 
+ * Predictions are stored in the order they are added, which is the order Weka returns them in.
+ * Once filled, a store is only read, so several threads may read it at the same time.
+ * 
+ * Parameters are: numClasses: number of classes the arff file has.
+ * 
+ * actual: the actual class of each prediction, or -1 when it is missing.
+ * 
+ * predicted: the class with the highest probability, or -1 when the model gave no probability to
+ * any class (Weka then predicts a missing value).
+ * 
+ * weights: the weight of each instance, or null while every weight is 1.
+ * 
+ * distributions: numClasses probabilities per prediction, or null when they are not kept.
+ * 
+ * offHeap: whether the columns are held in direct buffers rather than arrays.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import weka.classifiers.evaluation.NominalPrediction;
+import weka.core.FastVector;
+import weka.core.Instance;
+
+public class PredictionStore {
+   /** Number of floats per page of the distributions, so that no array or buffer is too large */
+   private static final int PAGE_SHIFT = 24;
+   private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+   private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+   private int capacity;
+   private int numClasses;
+   private int size;
+   private LabelColumn actual;
+   private LabelColumn predicted;
+   private float[] weights;
+   private FloatColumn distributions;
+   private boolean offHeap;
+
+   /** Create an empty store for the given number of predictions */
+   public PredictionStore(int capacity, int numClasses, boolean withDistributions,
+         boolean offHeap) {
+      this.capacity = capacity;
+      this.numClasses = numClasses;
+      this.offHeap = offHeap;
+      this.actual = LabelColumn.create(capacity, numClasses, offHeap);
+      this.predicted = LabelColumn.create(capacity, numClasses, offHeap);
+      this.distributions =
+            withDistributions ? new FloatColumn((long) capacity * numClasses, offHeap) : null;
+   }
+
+   /** Copy the predictions Weka recorded during an evaluation into a store */
+   public static PredictionStore of(FastVector predictions, int numClasses,
+         boolean withDistributions, boolean offHeap) {
+      PredictionStore store =
+            new PredictionStore(predictions.size(), numClasses, withDistributions, offHeap);
+
+      store.addAll(predictions);
+      return store;
+   }
+
+   /** Add the predictions Weka recorded during an evaluation, in order */
+   public void addAll(FastVector predictions) {
+      for (int i = 0; i < predictions.size(); i++) {
+         NominalPrediction np = (NominalPrediction) predictions.elementAt(i);
+         add(np.actual(), np.distribution(), np.weight());
+      }
+   }
+
+   /** Add a prediction: the actual class (possibly missing), the distribution and the weight */
+   public void add(double actualValue, double[] distribution, double weight) {
+      /** The first class with the highest positive probability, as NominalPrediction.predicted() */
+      int best = -1;
+      double bestProbability = 0;
+      for (int k = 0; k < numClasses; k++) {
+         if (distribution[k] > bestProbability) {
+            best = k;
+            bestProbability = distribution[k];
+         }
+      }
+
+      append(Instance.isMissingValue(actualValue) ? -1 : (int) actualValue, best, weight);
+
+      if (distributions != null) {
+         long offset = (long) (size - 1) * numClasses;
+         for (int k = 0; k < numClasses; k++) {
+            distributions.set(offset + k, (float) distribution[k]);
+         }
+      }
+   }
+
+   /**
+    * Add a prediction read back from another store: the actual and predicted classes (-1 when
+    * missing), the weight and the distribution, which is only read when the store keeps them
+    */
+   public void add(int actualClass, int predictedClass, double weight, float[] distribution) {
+      append(actualClass, predictedClass, weight);
+
+      if (distributions != null) {
+         long offset = (long) (size - 1) * numClasses;
+         for (int k = 0; k < numClasses; k++) {
+            distributions.set(offset + k, distribution[k]);
+         }
+      }
+   }
+
+   private void append(int actualClass, int predictedClass, double weight) {
+      if (size == capacity) {
+         throw new IllegalStateException("The store is full (" + capacity + " predictions)");
+      }
+
+      actual.set(size, actualClass);
+      predicted.set(size, predictedClass);
+
+      if (weight != 1 && weights == null) {
+         weights = new float[capacity];
+         Arrays.fill(weights, 0, size, 1);
+      }
+      if (weights != null) {
+         weights[size] = (float) weight;
+      }
+
+      size++;
+   }
+
+   public int size() {
+      return this.size;
+   }
+
+   public int getNumClasses() {
+      return this.numClasses;
+   }
+
+   public boolean hasDistributions() {
+      return this.distributions != null;
+   }
+
+   public boolean isOffHeap() {
+      return this.offHeap;
+   }
+
+   /** Get the actual class of the prediction, or -1 when it is missing */
+   public int getActual(int i) {
+      return actual.get(i);
+   }
+
+   /** Get the predicted class, or -1 when the model gave no probability to any class */
+   public int getPredicted(int i) {
+      return predicted.get(i);
+   }
+
+   /**
+    * Get the class the model votes for: the predicted class, or the first class when the model gave
+    * no probability to any class, as the voting methods have always counted it
+    */
+   public int getVote(int i) {
+      return Math.max(0, predicted.get(i));
+   }
+
+   public double getWeight(int i) {
+      return weights == null ? 1.0 : weights[i];
+   }
+
+   public double getProbability(int i, int classIndex) {
+      return distributions.get((long) i * numClasses + classIndex);
+   }
+
+   /** Get the class distribution of the prediction, as the model gave it (to float precision) */
+   public double[] getDistribution(int i) {
+      double[] distribution = new double[numClasses];
+
+      checkDistributions();
+      for (int k = 0; k < numClasses; k++) {
+         distribution[k] = distributions.get((long) i * numClasses + k);
+      }
+
+      return distribution;
+   }
+
+   /** Get the votes of the model as an array, for code that needs the classes of every instance */
+   public int[] getVotes() {
+      int[] votes = new int[size];
+
+      for (int i = 0; i < size; i++) {
+         votes[i] = getVote(i);
+      }
+
+      return votes;
+   }
+
+   /**
+    * Add the vote the model cast on each instance from (inclusive) to (exclusive), weighing
+    * weight[k] for class k, to the class totals (numClasses values per instance, from 0)
+    */
+   public void addVotes(int from, int to, double[] weight, double[] classTotals) {
+      predicted.addVotes(from, to, numClasses, weight, classTotals);
+   }
+
+   /**
+    * Add the class distribution the model gave to each instance from (inclusive) to (exclusive),
+    * the probability of class k weighing weight[k], to the class totals (numClasses values per
+    * instance, from 0)
+    */
+   public void addDistributions(int from, int to, double[] weight, double[] classTotals) {
+      checkDistributions();
+      distributions.addTo((long) from * numClasses, (to - from) * numClasses, weight,
+            classTotals);
+   }
+
+   private void checkDistributions() {
+      if (distributions == null) {
+         throw new IllegalStateException(
+               "The class distributions were not kept, see RunConfig.storeDistributions");
+      }
+   }
+
+   /** Get the number of bytes the columns take */
+   public long getMemoryUsage() {
+      return actual.getMemoryUsage() + predicted.getMemoryUsage()
+            + (weights == null ? 0 : 4L * weights.length)
+            + (distributions == null ? 0 : distributions.getMemoryUsage());
+   }
+
+   /**
+    * A column of class indices from -1 to numClasses - 1, in the narrowest type that holds them:
+    * a byte up to 127 classes, a short up to 32767, an int above
+    */
+   private abstract static class LabelColumn {
+      public static LabelColumn create(int capacity, int numClasses, boolean offHeap) {
+         int width = numClasses <= Byte.MAX_VALUE ? 1 : numClasses <= Short.MAX_VALUE ? 2 : 4;
+
+         if (offHeap) {
+            return new DirectLabels(capacity, width);
+         } else if (width == 1) {
+            return new ByteLabels(capacity);
+         } else if (width == 2) {
+            return new ShortLabels(capacity);
+         }
+         return new IntLabels(capacity);
+      }
+
+      public abstract int get(int i);
+
+      public abstract void set(int i, int value);
+
+      public abstract long getMemoryUsage();
+
+      /** Add weight[class] to the class totals of every instance, for the class held */
+      public void addVotes(int from, int to, int numClasses, double[] weight,
+            double[] classTotals) {
+         for (int i = from; i < to; i++) {
+            int classId = Math.max(0, get(i));
+            classTotals[(i - from) * numClasses + classId] += weight[classId];
+         }
+      }
+   }
+
+   private static class ByteLabels extends LabelColumn {
+      private byte[] values;
+
+      public ByteLabels(int capacity) {
+         this.values = new byte[capacity];
+      }
+
+      public int get(int i) {
+         return values[i];
+      }
+
+      public void set(int i, int value) {
+         values[i] = (byte) value;
+      }
+
+      public long getMemoryUsage() {
+         return values.length;
+      }
+
+      /** The loop reads the array directly, so the JIT can keep it tight */
+      public void addVotes(int from, int to, int numClasses, double[] weight,
+            double[] classTotals) {
+         for (int i = from; i < to; i++) {
+            int classId = Math.max(0, values[i]);
+            classTotals[(i - from) * numClasses + classId] += weight[classId];
+         }
+      }
+   }
+
+   private static class ShortLabels extends LabelColumn {
+      private short[] values;
+
+      public ShortLabels(int capacity) {
+         this.values = new short[capacity];
+      }
+
+      public int get(int i) {
+         return values[i];
+      }
+
+      public void set(int i, int value) {
+         values[i] = (short) value;
+      }
+
+      public long getMemoryUsage() {
+         return 2L * values.length;
+      }
+   }
+
+   private static class IntLabels extends LabelColumn {
+      private int[] values;
+
+      public IntLabels(int capacity) {
+         this.values = new int[capacity];
+      }
+
+      public int get(int i) {
+         return values[i];
+      }
+
+      public void set(int i, int value) {
+         values[i] = value;
+      }
+
+      public long getMemoryUsage() {
+         return 4L * values.length;
+      }
+   }
+
+   /** Class indices of any width, held outside the Java heap */
+   private static class DirectLabels extends LabelColumn {
+      private ByteBuffer values;
+      private int width;
+
+      public DirectLabels(int capacity, int width) {
+         this.values = ByteBuffer.allocateDirect(capacity * width).order(ByteOrder.nativeOrder());
+         this.width = width;
+      }
+
+      public int get(int i) {
+         if (width == 1) {
+            return values.get(i);
+         } else if (width == 2) {
+            return values.getShort(2 * i);
+         }
+         return values.getInt(4 * i);
+      }
+
+      public void set(int i, int value) {
+         if (width == 1) {
+            values.put(i, (byte) value);
+         } else if (width == 2) {
+            values.putShort(2 * i, (short) value);
+         } else {
+            values.putInt(4 * i, value);
+         }
+      }
+
+      public long getMemoryUsage() {
+         return values.capacity();
+      }
+   }
+
+   /** A column of floats, in pages of PAGE_SIZE values, in arrays or in direct buffers */
+   private static class FloatColumn {
+      private float[][] heapPages;
+      private FloatBuffer[] directPages;
+      private long length;
+
+      public FloatColumn(long length, boolean offHeap) {
+         int numPages = (int) ((length + PAGE_SIZE - 1) >>> PAGE_SHIFT);
+
+         this.length = length;
+         if (offHeap) {
+            directPages = new FloatBuffer[numPages];
+         } else {
+            heapPages = new float[numPages][];
+         }
+
+         for (int p = 0; p < numPages; p++) {
+            int pageLength = (int) Math.min(PAGE_SIZE, length - ((long) p << PAGE_SHIFT));
+            if (offHeap) {
+               directPages[p] = ByteBuffer.allocateDirect(4 * pageLength)
+                     .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            } else {
+               heapPages[p] = new float[pageLength];
+            }
+         }
+      }
+
+      public float get(long index) {
+         int page = (int) (index >>> PAGE_SHIFT);
+         int offset = (int) (index & PAGE_MASK);
+
+         return heapPages != null ? heapPages[page][offset] : directPages[page].get(offset);
+      }
+
+      public void set(long index, float value) {
+         int page = (int) (index >>> PAGE_SHIFT);
+         int offset = (int) (index & PAGE_MASK);
+
+         if (heapPages != null) {
+            heapPages[page][offset] = value;
+         } else {
+            directPages[page].put(offset, value);
+         }
+      }
+
+      /**
+       * Add the values from base on, weighing weight[k] for the k-th value of every group of
+       * weight.length, to the totals. The values of a page are read in one pass over its array or
+       * buffer, with a single multiply-add per value when every weight is the same.
+       */
+      public void addTo(long base, int length, double[] weight, double[] totals) {
+         int groupSize = weight.length;
+         boolean constant = true;
+         for (int k = 1; k < groupSize; k++) {
+            constant = constant && weight[k] == weight[0];
+         }
+
+         int done = 0;
+         while (done < length) {
+            int page = (int) ((base + done) >>> PAGE_SHIFT);
+            int offset = (int) ((base + done) & PAGE_MASK);
+            int count = Math.min(length - done, PAGE_SIZE - offset);
+            /** A group may span two pages: start at the right weight */
+            int k = done % groupSize;
+
+            if (heapPages != null && constant) {
+               float[] values = heapPages[page];
+               for (int i = 0; i < count; i++) {
+                  totals[done + i] += weight[0] * values[offset + i];
+               }
+            } else if (heapPages != null) {
+               float[] values = heapPages[page];
+               for (int i = 0; i < count; i++) {
+                  totals[done + i] += weight[k] * values[offset + i];
+                  k = k + 1 == groupSize ? 0 : k + 1;
+               }
+            } else {
+               FloatBuffer values = directPages[page];
+               for (int i = 0; i < count; i++) {
+                  totals[done + i] += weight[k] * values.get(offset + i);
+                  k = k + 1 == groupSize ? 0 : k + 1;
+               }
+            }
+            done += count;
+         }
+      }
+
+      public long getMemoryUsage() {
+         return 4L * length;
+      }
+   }
+}
@@ -0,0 +1,335 @@
+/**
+ * The Profiler class records where a run spends its time, memory and garbage collections, phase by
+ * phase (parsing the arff file, training and testing each fold, voting, stacking, ...). A phase is
+ * measured by a Span, started when the phase begins and ended when it is over. Every span adds its
+ * wall-clock time, the bytes allocated by its thread and the collections that took place meanwhile
+ * to the totals of its phase and name (e.g. "Fold fit" of "NaiveBayes"), and of the model and fold
+ * it ran for when it belongs to one (the position of the model in the ensemble, from 0, and the
+ * fold number, from 1, as the phase report counts them). The totals can be written
+ * in the Prometheus text format, for a node exporter to collect, and every span is also committed
+ * as a JDK Flight Recorder event when a recording is running (see PhaseEvent).
+ * 
+ * A span costs a few reads of JVM counters, and phases are never shorter than a fold, so the
+ * profiler is meant to stay enabled. When it is disabled, a span only measures its time.
+ * 
+ * Parameters are: enabled: whether spans record their counters and totals.
+ * 
+ * phases: the totals of every phase and name, in the order they were first recorded.
+ * 
+ * threads: reads the bytes allocated by a thread, when the JVM supports it.
+ * 
+ * collectors: the garbage collectors of the JVM. Collections are counted for the whole JVM, so the
+ * spans running at the same time share them.
+ * 
+ * events: creates the Flight Recorder events, or null when PhaseEvent was not built or the JVM
+ * has no Flight Recorder.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Profiler {
+   private static volatile boolean enabled = true;
+   private static final Map<String, PhaseStats> phases =
+         new ConcurrentHashMap<String, PhaseStats>();
+   private static final List<PhaseStats> order = new ArrayList<PhaseStats>();
+   private static final com.sun.management.ThreadMXBean threads = getAllocationBean();
+   private static final List<GarbageCollectorMXBean> collectors =
+         ManagementFactory.getGarbageCollectorMXBeans();
+   private static final EventRecorder events = loadEventRecorder();
+   private static ScheduledExecutorService exporter;
+   private static File exportFile;
+
+   public static void setEnabled(boolean enabled) {
+      Profiler.enabled = enabled;
+   }
+
+   public static boolean isEnabled() {
+      return enabled;
+   }
+
+   /** Start measuring a phase of the model or aggregation method of the name */
+   public static Span start(String phase, String name) {
+      return new Span(phase, name, -1, -1);
+   }
+
+   /**
+    * Start measuring a phase of a fold of the model at the position in the ensemble. A negative
+    * position or fold is left out of the labels, for phases that run outside an ensemble or a fold.
+    */
+   public static Span start(String phase, String name, int model, int fold) {
+      return new Span(phase, name, model, fold);
+   }
+
+   /**
+    * Write the totals of every phase, and the accuracy of every model and aggregation method
+    * published by Metrics, in the Prometheus text format. The file is replaced at once, so that a
+    * collector never reads it half written.
+    */
+   public static synchronized void writePrometheus(File file) throws IOException {
+      File tempFile = new File(file.getPath() + ".tmp");
+      PrintWriter writer = new PrintWriter(tempFile, "UTF-8");
+      List<PhaseStats> snapshot;
+
+      synchronized (order) {
+         snapshot = new ArrayList<PhaseStats>(order);
+      }
+
+      try {
+         writeHeader(writer, "classifier_phase_runs_total", "counter",
+               "Number of times the phase ran");
+         for (PhaseStats stats : snapshot) {
+            writer.println("classifier_phase_runs_total" + stats.labels + " " + stats.runs.get());
+         }
+         writeHeader(writer, "classifier_phase_seconds_total", "counter",
+               "Wall-clock time spent in the phase");
+         for (PhaseStats stats : snapshot) {
+            writer.println("classifier_phase_seconds_total" + stats.labels + " "
+                  + stats.nanos.get() / 1e9);
+         }
+         writeHeader(writer, "classifier_phase_allocated_bytes_total", "counter",
+               "Bytes allocated by the thread running the phase");
+         for (PhaseStats stats : snapshot) {
+            writer.println("classifier_phase_allocated_bytes_total" + stats.labels + " "
+                  + stats.allocatedBytes.get());
+         }
+         writeHeader(writer, "classifier_phase_gc_collections_total", "counter",
+               "Garbage collections that took place while the phase ran");
+         for (PhaseStats stats : snapshot) {
+            writer.println("classifier_phase_gc_collections_total" + stats.labels + " "
+                  + stats.gcCount.get());
+         }
+         writeHeader(writer, "classifier_phase_gc_seconds_total", "counter",
+               "Garbage collection time that elapsed while the phase ran");
+         for (PhaseStats stats : snapshot) {
+            writer.println("classifier_phase_gc_seconds_total" + stats.labels + " "
+                  + stats.gcMillis.get() / 1e3);
+         }
+
+         writeHeader(writer, "classifier_accuracy_percent", "gauge",
+               "Accuracy of the last run of the model or aggregation method");
+         for (Metrics metrics : Metrics.getAll()) {
+            writer.println("classifier_accuracy_percent" + getLabels(metrics) + " "
+                  + metrics.getAccuracy());
+         }
+         writeHeader(writer, "classifier_kappa", "gauge",
+               "Kappa statistic of the last run of the model or aggregation method");
+         for (Metrics metrics : Metrics.getAll()) {
+            writer.println("classifier_kappa" + getLabels(metrics) + " " + metrics.getKappa());
+         }
+      } finally {
+         writer.close();
+      }
+
+      if (!tempFile.renameTo(file)) {
+         file.delete();
+         if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not write " + file);
+         }
+      }
+   }
+
+   /**
+    * Write the totals to the file now, then again every given number of seconds until the JVM
+    * exits. Runs asking for the file already being written keep the export going.
+    */
+   public static synchronized void exportEvery(final File file, long seconds) {
+      if (exporter != null) {
+         if (file.equals(exportFile)) {
+            return;
+         }
+         exporter.shutdownNow();
+      }
+      exportFile = file;
+
+      exporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "profiler-export");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      exporter.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            try {
+               writePrometheus(file);
+            } catch (IOException ex) {
+               /** Exporting is optional: keep profiling and try again next time */
+            }
+         }
+      }, 0, Math.max(1, seconds), TimeUnit.SECONDS);
+   }
+
+   private static void writeHeader(PrintWriter writer, String metric, String type, String help) {
+      writer.println("# HELP " + metric + " " + help);
+      writer.println("# TYPE " + metric + " " + type);
+   }
+
+   /** Get the labels of the metrics: the dataset, the name and the model, when there is one */
+   private static String getLabels(Metrics metrics) {
+      return "{" + (metrics.getDataset() == null ? ""
+            : "dataset=\"" + escape(metrics.getDataset()) + "\",")
+            + "name=\"" + escape(metrics.getName()) + "\""
+            + (metrics.getModel() < 0 ? "" : ",model=\"" + metrics.getModel() + "\"") + "}";
+   }
+
+   /** Escape a label value as the Prometheus text format requires */
+   private static String escape(String value) {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+   }
+
+   private static PhaseStats getStats(String phase, String name, int model, int fold) {
+      String key = phase + "\u0000" + name + "\u0000" + model + "\u0000" + fold;
+      PhaseStats stats = phases.get(key);
+
+      if (stats == null) {
+         synchronized (order) {
+            stats = phases.get(key);
+            if (stats == null) {
+               stats = new PhaseStats(phase, name, model, fold);
+               phases.put(key, stats);
+               order.add(stats);
+            }
+         }
+      }
+
+      return stats;
+   }
+
+   /** Get the bytes the current thread allocated so far, or 0 when the JVM cannot tell */
+   private static long getAllocatedBytes() {
+      if (threads == null) {
+         return 0;
+      }
+      return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   private static com.sun.management.ThreadMXBean getAllocationBean() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+         com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+         if (allocations.isThreadAllocatedMemorySupported()
+               && allocations.isThreadAllocatedMemoryEnabled()) {
+            return allocations;
+         }
+      }
+      return null;
+   }
+
+   private static EventRecorder loadEventRecorder() {
+      try {
+         return (EventRecorder) Class.forName("PhaseEvent$Recorder").newInstance();
+      } catch (Exception ex) {
+         return null;
+      } catch (LinkageError ex) {
+         /** PhaseEvent was built, but this JVM has no Flight Recorder */
+         return null;
+      }
+   }
+
+   /** Creates the Flight Recorder event of a span and commits it once the span ends */
+   public interface EventRecorder {
+      /** Start the event of a phase, or return null when no recording wants it */
+      Object begin(String phase, String name, int model, int fold);
+
+      void commit(Object event, long allocatedBytes, long gcCount, long gcMillis);
+   }
+
+   /**
+    * A phase being measured. It is ended by the thread that started it, so that the bytes
+    * allocated are those of that thread.
+    */
+   public static class Span {
+      private String phase;
+      private String name;
+      private int model;
+      private int fold;
+      private boolean recording;
+      private long start;
+      private long allocatedBytes;
+      private long gcCount;
+      private long gcMillis;
+      private Object event;
+
+      private Span(String phase, String name, int model, int fold) {
+         this.phase = phase;
+         this.name = name;
+         this.model = model;
+         this.fold = fold;
+         this.recording = enabled;
+
+         if (recording) {
+            allocatedBytes = getAllocatedBytes();
+            for (GarbageCollectorMXBean collector : collectors) {
+               gcCount += Math.max(0, collector.getCollectionCount());
+               gcMillis += Math.max(0, collector.getCollectionTime());
+            }
+            event = events == null ? null : events.begin(phase, name, model, fold);
+         }
+         this.start = System.nanoTime();
+      }
+
+      /** End the phase, add it to the totals and return its time (in nanoseconds) */
+      public long end() {
+         long nanos = System.nanoTime() - start;
+
+         if (recording) {
+            long allocated = getAllocatedBytes() - allocatedBytes;
+            long collections = -gcCount;
+            long collectionMillis = -gcMillis;
+            for (GarbageCollectorMXBean collector : collectors) {
+               collections += Math.max(0, collector.getCollectionCount());
+               collectionMillis += Math.max(0, collector.getCollectionTime());
+            }
+
+            PhaseStats stats = getStats(phase, name, model, fold);
+            stats.runs.incrementAndGet();
+            stats.nanos.addAndGet(nanos);
+            stats.allocatedBytes.addAndGet(allocated);
+            stats.gcCount.addAndGet(collections);
+            stats.gcMillis.addAndGet(collectionMillis);
+
+            if (event != null) {
+               events.commit(event, allocated, collections, collectionMillis);
+            }
+         }
+
+         return nanos;
+      }
+   }
+
+   /** The totals of a phase of a model or aggregation method */
+   private static class PhaseStats {
+      private String labels;
+      private AtomicLong runs;
+      private AtomicLong nanos;
+      private AtomicLong allocatedBytes;
+      private AtomicLong gcCount;
+      private AtomicLong gcMillis;
+
+      public PhaseStats(String phase, String name, int model, int fold) {
+         this.labels = "{phase=\"" + escape(phase) + "\",name=\"" + escape(name) + "\""
+               + (model < 0 ? "" : ",model=\"" + model + "\"")
+               + (fold < 0 ? "" : ",fold=\"" + fold + "\"") + "}";
+         this.runs = new AtomicLong();
+         this.nanos = new AtomicLong();
+         this.allocatedBytes = new AtomicLong();
+         this.gcCount = new AtomicLong();
+         this.gcMillis = new AtomicLong();
+      }
+   }
+}
@@ -0,0 +1,361 @@
+/**
+ * The ResultCache class keeps the cross validation results of every model it sees on disk, so that
+ * a later run with the same dataset and the same classifier settings skips training altogether and
+ * goes straight to aggregation. An entry is keyed by the content hash of the dataset, the class and
+ * options of the classifier, the number of folds and the seed; changing any of them misses the
+ * cache. The cache is bounded in size: the entries used least recently are deleted first.
+ * 
+ * An entry file (<key>.result) holds: a header (magic number, version, key, number of predictions,
+ * number of classes, whether the class distributions were kept, the evaluation summary, the time
+ * the fold models took to predict every row), then the actual and predicted classes, the weight
+ * and, when kept, the class distribution (as floats) of every prediction, and last the CRC-32 of
+ * everything before it, so that an entry damaged on disk misses. The model trained on the full
+ * dataset, when there is one, is serialized next to it (<key>.model).
+ * 
+ * Parameters are: cacheDir: the directory the entries are kept in.
+ * 
+ * maxBytes: the size the entries may take together before the least recently used are deleted.
+ * Entries being written go to temporary files of their own (.tmp) first, so that runs sharing the
+ * directory never write the same file; those left behind by a run that died while writing are
+ * deleted once they are an hour old.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+public class ResultCache {
+   private static final int MAGIC = 0x52534331;
+   private static final int VERSION = 3;
+   private static final int BUFFER_SIZE = 1 << 20;
+   private static final long STALE_TEMP_AGE = 60 * 60 * 1000L;
+
+   private File cacheDir;
+   private long maxBytes;
+
+   public ResultCache(File cacheDir, long maxBytes) {
+      this.cacheDir = cacheDir;
+      this.maxBytes = maxBytes;
+   }
+
+   /**
+    * Get the SHA-256 hash (in hexadecimal) of the content of the dataset: its header, followed by
+    * every value of every instance
+    */
+   public static String hash(Instances data) throws IOException {
+      return hash(data, data.numInstances());
+   }
+
+   /** Get the hash of the content of the dataset as if it only had its first instances */
+   public static String hash(Instances data, int numInstances) throws IOException {
+      MessageDigest digest = getDigest();
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+      digest.update(new Instances(data, 0).toString().getBytes("UTF-8"));
+      digest.update(ByteBuffer.allocate(4).putInt(data.classIndex()).array());
+
+      for (int i = 0; i < numInstances; i++) {
+         Instance instance = data.instance(i);
+
+         for (int j = 0; j < data.numAttributes(); j++) {
+            if (buffer.remaining() < 8) {
+               buffer.flip();
+               digest.update(buffer);
+               buffer.clear();
+            }
+            buffer.putDouble(instance.value(j));
+         }
+      }
+      buffer.flip();
+      digest.update(buffer);
+
+      return toHex(digest.digest());
+   }
+
+   /** Get the key of the results of the classifier on the dataset with the given folds and seed */
+   public String getKey(String datasetHash, Classifier model, int numFolds, int seed)
+         throws IOException {
+      String settings = datasetHash + "|" + model.getClass().getName() + "|"
+            + Utils.joinOptions(model.getOptions()) + "|" + numFolds + "|" + seed;
+
+      return hash(settings);
+   }
+
+   /** Get the SHA-256 hash (in hexadecimal) of the text */
+   public static String hash(String text) throws IOException {
+      return toHex(getDigest().digest(text.getBytes("UTF-8")));
+   }
+
+   /**
+    * Get the entry of the key, or null when there is none or it cannot be read. The model trained
+    * on the full dataset is only read when it is needed, and so are the class distributions; an
+    * entry stored without them misses when they are needed. The predictions are read into a store
+    * on or off the Java heap. Reading an entry makes it the most recently used.
+    */
+   public Entry get(String key, boolean withFinalModel, boolean withDistributions,
+         boolean offHeap) throws IOException {
+      File resultFile = new File(cacheDir, key + ".result");
+      File modelFile = new File(cacheDir, key + ".model");
+
+      if (!resultFile.exists() || (withFinalModel && !modelFile.exists())) {
+         return null;
+      }
+
+      BufferedInputStream buffered;
+      Entry entry = new Entry();
+
+      try {
+         buffered = new BufferedInputStream(new FileInputStream(resultFile), BUFFER_SIZE);
+      } catch (IOException ex) {
+         /** The entry was evicted by another run in the meantime */
+         return null;
+      }
+
+      CheckedInputStream checked = new CheckedInputStream(buffered, new CRC32());
+      DataInputStream input = new DataInputStream(checked);
+      try {
+         if (input.readInt() != MAGIC || input.readInt() != VERSION
+               || !input.readUTF().equals(key)) {
+            return null;
+         }
+
+         int numPredictions = input.readInt();
+         int numClasses = input.readInt();
+         boolean hasDistributions = input.readBoolean();
+         if (withDistributions && !hasDistributions) {
+            return null;
+         }
+         byte[] summary = new byte[input.readInt()];
+         input.readFully(summary);
+         entry.summary = new String(summary, "UTF-8");
+         entry.predictionTime = input.readDouble();
+
+         entry.predictions =
+               new PredictionStore(numPredictions, numClasses, withDistributions, offHeap);
+         float[] distribution = new float[numClasses];
+         for (int i = 0; i < numPredictions; i++) {
+            int actual = input.readInt();
+            int predicted = input.readInt();
+            float weight = input.readFloat();
+
+            if (hasDistributions) {
+               for (int k = 0; k < numClasses; k++) {
+                  distribution[k] = input.readFloat();
+               }
+            }
+            entry.predictions.add(actual, predicted, weight, distribution);
+         }
+
+         /** The checksum follows the entry, and is read past the checked stream */
+         long checksum = checked.getChecksum().getValue();
+         if (new DataInputStream(buffered).readLong() != checksum) {
+            return null;
+         }
+      } catch (IOException ex) {
+         /** A truncated or corrupted entry is treated as missing and replaced by the next put */
+         return null;
+      } finally {
+         input.close();
+      }
+
+      if (withFinalModel) {
+         try {
+            entry.finalModel = (Classifier) SerializationHelper.read(modelFile.getPath());
+         } catch (Exception ex) {
+            return null;
+         }
+         modelFile.setLastModified(System.currentTimeMillis());
+      }
+      resultFile.setLastModified(System.currentTimeMillis());
+
+      return entry;
+   }
+
+   /**
+    * Store the predictions the model made during cross validation, its evaluation summary, the time
+    * (in milliseconds) its fold models took to predict every row and, when it is not null, the
+    * model trained on the full dataset. Then delete the least recently used entries until the cache
+    * fits in its size.
+    */
+   public void put(String key, PredictionStore predictions, String summary, double predictionTime,
+         Classifier finalModel) throws Exception {
+      cacheDir.mkdirs();
+      File resultFile = new File(cacheDir, key + ".result");
+      File modelFile = new File(cacheDir, key + ".model");
+      File tempFile = File.createTempFile(key, ".tmp", cacheDir);
+      File tempModelFile = null;
+
+      try {
+         OutputStream output =
+               new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
+         try {
+            write(output, key, predictions, summary, predictionTime);
+         } finally {
+            output.close();
+         }
+
+         /** Replace the previous entry only once the new one is complete, model first */
+         if (finalModel != null) {
+            tempModelFile = File.createTempFile(key, ".tmp", cacheDir);
+            SerializationHelper.write(tempModelFile.getPath(), finalModel);
+            replace(tempModelFile, modelFile);
+         }
+         replace(tempFile, resultFile);
+      } finally {
+         /** A failed write leaves no temporary file behind: a renamed one no longer exists */
+         tempFile.delete();
+         if (tempModelFile != null) {
+            tempModelFile.delete();
+         }
+      }
+
+      evict();
+   }
+
+   /** Move the complete temporary file in place of the file */
+   private static void replace(File tempFile, File file) throws IOException {
+      if (!tempFile.renameTo(file)) {
+         if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+         }
+         if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not write " + file);
+         }
+      }
+   }
+
+   /** Write the header and the predictions of an entry, followed by their checksum */
+   private static void write(OutputStream stream, String key, PredictionStore predictions,
+         String summary, double predictionTime) throws IOException {
+      CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+      DataOutputStream output = new DataOutputStream(checked);
+
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeUTF(key);
+      output.writeInt(predictions.size());
+      output.writeInt(predictions.getNumClasses());
+      output.writeBoolean(predictions.hasDistributions());
+
+      byte[] summaryBytes = summary.getBytes("UTF-8");
+      output.writeInt(summaryBytes.length);
+      output.write(summaryBytes);
+      output.writeDouble(predictionTime);
+
+      for (int i = 0; i < predictions.size(); i++) {
+         output.writeInt(predictions.getActual(i));
+         output.writeInt(predictions.getPredicted(i));
+         output.writeFloat((float) predictions.getWeight(i));
+         if (predictions.hasDistributions()) {
+            for (int k = 0; k < predictions.getNumClasses(); k++) {
+               output.writeFloat((float) predictions.getProbability(i, k));
+            }
+         }
+      }
+
+      output.flush();
+      new DataOutputStream(stream).writeLong(checked.getChecksum().getValue());
+   }
+
+   /** Delete the least recently used entries until the cache fits in its size */
+   private synchronized void evict() {
+      File[] files = cacheDir.listFiles();
+      long total = 0;
+
+      if (files == null) {
+         return;
+      }
+
+      for (File file : files) {
+         /** Temporary files left by a run that died while writing an entry */
+         if (file.getName().endsWith(".tmp")
+               && System.currentTimeMillis() - file.lastModified() > STALE_TEMP_AGE
+               && file.delete()) {
+            continue;
+         }
+         total += file.length();
+      }
+
+      Arrays.sort(files, new Comparator<File>() {
+         public int compare(File a, File b) {
+            return Long.compare(a.lastModified(), b.lastModified());
+         }
+      });
+
+      for (int i = 0; i < files.length && total > maxBytes; i++) {
+         String name = files[i].getName();
+
+         /** Entries still being written are left alone */
+         if (name.endsWith(".result") || name.endsWith(".model")) {
+            long size = files[i].length();
+            if (files[i].delete()) {
+               total -= size;
+            }
+         }
+      }
+   }
+
+   private static MessageDigest getDigest() throws IOException {
+      try {
+         return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException ex) {
+         throw new IOException(ex);
+      }
+   }
+
+   private static String toHex(byte[] bytes) {
+      StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+      for (byte b : bytes) {
+         hex.append(String.format("%02x", b));
+      }
+
+      return hex.toString();
+   }
+
+   /** The cross validation results of a model, as read from the cache */
+   public static class Entry {
+      private PredictionStore predictions;
+      private String summary;
+      private double predictionTime;
+      private Classifier finalModel;
+
+      public PredictionStore getPredictions() {
+         return this.predictions;
+      }
+
+      public String getSummary() {
+         return this.summary;
+      }
+
+      /** Get the time (in milliseconds) the fold models took to predict every row */
+      public double getPredictionTime() {
+         return this.predictionTime;
+      }
+
+      /** Get the model trained on the full dataset, or null when it was not read */
+      public Classifier getFinalModel() {
+         return this.finalModel;
+      }
+   }
+}
@@ -0,0 +1,18 @@
+/**
+ * The ResultSink interface receives the results of an aggregation run. The Aggregator hands over
+ * the instances in large batches once their results are final, so a sink never has to format or
+ * store anything while votes are being counted.
+ */
+
+import java.io.IOException;
+
+public interface ResultSink {
+   /** Called once before the first batch of a run */
+   void begin(VoteResult result) throws IOException;
+
+   /** Consume the results of the instances from (inclusive) to (exclusive) */
+   void write(VoteResult result, int from, int to) throws IOException;
+
+   /** Called once after the last batch of a run; the whole result is final at this point */
+   void end(VoteResult result) throws IOException;
+}
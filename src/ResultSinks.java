@@ -0,0 +1,36 @@
+/**
+ * The ResultSinks class creates the result sink selected by name: "console" (default), "none",
+ * "summary", "csv", "tsv" or "columnar". File sinks write into the given output directory.
+ */
+
+import java.io.File;
+
+public class ResultSinks {
+   public static ResultSink create(String name, File outputDir) {
+      ResultSink sink;
+
+      if (name == null || name.equals("console")) {
+         sink = new ConsoleResultSink();
+      } else if (name.equals("none")) {
+         return new NullResultSink();
+      } else if (name.equals("summary")) {
+         sink = new SummaryResultSink();
+      } else if (name.equals("csv")) {
+         sink = new DelimitedResultSink(outputDir, ',');
+      } else if (name.equals("tsv")) {
+         sink = new DelimitedResultSink(outputDir, '\t');
+      } else if (name.equals("columnar")) {
+         sink = new ColumnarResultSink(outputDir);
+      } else {
+         throw new IllegalArgumentException("Unknown result sink: " + name);
+      }
+
+      /** Format and write the results off the thread counting the votes */
+      return new AsyncResultSink(sink);
+   }
+
+   /** Turn the title of an aggregation method into a file name, e.g. "majority-voting" */
+   public static String getFileName(String title) {
+      return title.trim().toLowerCase().replaceAll("[^a-z0-9]+", "-");
+   }
+}
@@ -0,0 +1,700 @@
+/**
+ * The RunConfig class holds the settings that decide how the classifier module is executed. Values
+ * are read from system properties (e.g. -Dclassifier.threads=8) so that the module can be tuned
+ * without changing the code.
+ * 
+ * Parameters are: threads: the number of base models evaluated at the same time. A value of 1 keeps
+ * the original serial evaluation.
+ * 
+ * foldThreads: the size of the fork-join pool the cross validation folds are trained on. A value of
+ * 0 keeps Weka's serial Evaluation.crossValidateModel.
+ * 
+ * workers: the number of worker JVMs started on this host to train the cross validation folds (see
+ * CvCoordinator). When it is 0 and no coordinatorPort is set, the folds are trained in this JVM.
+ * 
+ * coordinatorPort: the loopback port the workers connect to, for workers started separately with
+ * CvWorker. 0 picks any free port.
+ * 
+ * workerOptions: the JVM options of the worker JVMs started on this host (e.g. "-Xmx4g").
+ * 
+ * taskTimeout: the time (in seconds) a worker JVM has to train and test a fold, after which the
+ * fold is handed to another worker.
+ * 
+ * numFolds: the number of folds used in cross validation.
+ * 
+ * seed: the seed of the random generator used to shuffle the dataset before cross validation.
+ * 
+ * methods: the aggregation methods to run, separated by commas: "majority", "weighted", "soft",
+ * "weightedsoft", "cascade" and "stacking".
+ * 
+ * modelDir: the directory the models trained on the full dataset are serialized to. When it is not
+ * set, the full-dataset training is skipped.
+ * 
+ * sink: where the per-instance results go: "console", "none", "summary", "csv", "tsv" or
+ * "columnar".
+ * 
+ * outputDir: the directory file sinks write into.
+ * 
+ * streaming: whether the arff file is read and classified one chunk at a time instead of being
+ * loaded into memory.
+ * 
+ * chunkSize: the number of instances per chunk when streaming.
+ * 
+ * windowSize: the number of instances the K-Nearest Neighbor model keeps when streaming.
+ * 
+ * cacheDir: the directory binary copies of the parsed arff files are kept in. When it is not set,
+ * the arff file is parsed on every run.
+ * 
+ * resultCacheDir: the directory the cross validation results of the models are cached in, keyed by
+ * dataset content, classifier options, folds and seed. When it is not set, every run trains the
+ * models.
+ * 
+ * resultCacheSize: the size (in megabytes) the result cache may grow to before the least recently
+ * used results are deleted.
+ * 
+ * stacking: how the stacking meta-classifier is trained: "oof" builds it from the out-of-fold
+ * predictions the models made during their cross validation, "weka" uses Weka's Stacking, which
+ * trains the models again inside every fold.
+ * 
+ * weighting: how Weighted Majority Voting and Weighted Soft Voting weigh the models: "bucket"
+ * (default), "accuracy", "logodds", "class", "hedge" or "hedge:<beta>" (see WeightingStrategies).
+ * 
+ * stackingFeatures: what each model contributes to the out-of-fold stacking: "distribution" (its
+ * class distribution) or "class" (its predicted class).
+ * 
+ * knnIndex: the neighbor index of the K-Nearest Neighbor model: "auto", "linear", "kdtree" or
+ * "hnsw" use FastKNN (see FastKNN). When it is not set, Weka's IBk is used.
+ * 
+ * knnEf: the number of candidates the hnsw index keeps when searching; higher values find more of
+ * the true nearest neighbors, more slowly.
+ * 
+ * cascadeMargin: the share of the weight the models not asked yet could still cast that the lead
+ * of a Cascade must exceed before it stops. 1 (default) always chooses the class Weighted Majority
+ * Voting would, lower values ask fewer models at the cost of accuracy.
+ * 
+ * compareKnn: whether IBk is cross validated next to every FastKNN model, to report the speedup
+ * and the accuracy lost.
+ * 
+ * predictionStore: where the predictions the models make during cross validation are held: "heap"
+ * (default) or "offheap", outside the Java heap (see PredictionStore).
+ * 
+ * storeDistributions: whether the class distributions of those predictions are kept. Soft voting
+ * and out-of-fold stacking on distributions need them; without them a prediction takes a few
+ * bytes, whatever the number of classes.
+ * 
+ * search: how the options of the base models are tuned before the ensemble is cross validated:
+ * "grid", "random" or "halving" (see HyperparameterSearch). When it is not set, the models keep the
+ * options they are given.
+ * 
+ * searchTrials: the number of configurations the "random" and "halving" searches try per model.
+ * 
+ * searchSpaces: the search space of each model, by class name (e.g. classifier.searchSpace.IBk=
+ * "-K 1|-K 5|-K 9; |-I"). Models without one are searched over SearchSpace.defaultFor.
+ * 
+ * profiling: whether the time, allocations and garbage collections of every phase are recorded
+ * (see Profiler). It is on by default; when off, only the phase times are kept.
+ * 
+ * metricsFile: the file the phase totals and the accuracies are written to in the Prometheus text
+ * format, at the end of every run. When it is not set, nothing is written.
+ * 
+ * metricsInterval: how often (in seconds) the metrics file is also written while the run goes on,
+ * or 0 to write it only at the end.
+ * 
+ * incrementalDir: the directory the fold models and predictions of every model are kept in between
+ * runs, so that a dataset grown by appended rows is only trained on the new rows (see
+ * IncrementalTrainer). When it is not set, every run cross validates the models from scratch.
+ * 
+ * retrainEvery: the number of incremental runs after which the models that cannot learn one row at
+ * a time, and the out-of-fold stacking meta-classifier, are retrained from scratch.
+ * 
+ * approximate: whether the accuracies are estimated on growing stratified subsamples instead of
+ * being measured on the whole dataset (see ApproximateEvaluator).
+ * 
+ * approxStart: the number of instances of the first subsample.
+ * 
+ * approxMargin: the half-width (in percentage points) every confidence interval must be within for
+ * the estimation to stop.
+ * 
+ * approxConfidence: the confidence level of the intervals (e.g. 0.95).
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.lazy.IBk;
+
+public class RunConfig implements Cloneable {
+   private int threads;
+   private int foldThreads;
+   private int workers;
+   private int coordinatorPort;
+   private String workerOptions;
+   private int taskTimeout;
+   private int numFolds;
+   private int seed;
+   private String methods;
+   private String modelDir;
+   private String sink;
+   private String outputDir;
+   private boolean streaming;
+   private int chunkSize;
+   private int windowSize;
+   private String cacheDir;
+   private String resultCacheDir;
+   private long resultCacheSize;
+   private String stacking;
+   private String stackingFeatures;
+   private String weighting;
+   private double cascadeMargin;
+   private String knnIndex;
+   private int knnEf;
+   private boolean compareKnn;
+   private String predictionStore;
+   private boolean storeDistributions;
+   private String search;
+   private int searchTrials;
+   private HashMap<String, String> searchSpaces;
+   private boolean profiling;
+   private String metricsFile;
+   private int metricsInterval;
+   private String incrementalDir;
+   private int retrainEvery;
+   private boolean approximate;
+   private int approxStart;
+   private double approxMargin;
+   private double approxConfidence;
+
+   public RunConfig() {
+      this.threads = 1;
+      this.foldThreads = Runtime.getRuntime().availableProcessors();
+      this.taskTimeout = 3600;
+      this.numFolds = 10;
+      this.seed = 1;
+      this.methods = "majority,weighted,stacking";
+      this.sink = "console";
+      this.outputDir = "results";
+      this.streaming = false;
+      this.chunkSize = 10000;
+      this.windowSize = 50000;
+      this.resultCacheSize = 1024;
+      this.stacking = "oof";
+      this.stackingFeatures = "distribution";
+      this.weighting = "bucket";
+      this.cascadeMargin = 1.0;
+      this.knnEf = 64;
+      this.predictionStore = "heap";
+      this.storeDistributions = true;
+      this.searchTrials = 16;
+      this.searchSpaces = new HashMap<String, String>();
+      this.profiling = true;
+      this.retrainEvery = 7;
+      this.approxStart = 1000;
+      this.approxMargin = 1.0;
+      this.approxConfidence = 0.95;
+   }
+
+   /** Copy the settings, so that some of them can be changed for part of a run */
+   public RunConfig copy() {
+      try {
+         RunConfig copy = (RunConfig) super.clone();
+         copy.searchSpaces = new HashMap<String, String>(searchSpaces);
+         return copy;
+      } catch (CloneNotSupportedException ex) {
+         throw new AssertionError(ex);
+      }
+   }
+
+   /** Build a configuration from the classifier.* system properties */
+   public static RunConfig fromSystemProperties() {
+      RunConfig config = new RunConfig();
+
+      config.setThreads(Integer.getInteger("classifier.threads", 1));
+      config.setFoldThreads(
+            Integer.getInteger("classifier.foldThreads", config.getFoldThreads()));
+      config.setWorkers(Integer.getInteger("classifier.workers", config.getWorkers()));
+      config.setCoordinatorPort(
+            Integer.getInteger("classifier.coordinatorPort", config.getCoordinatorPort()));
+      config.setWorkerOptions(System.getProperty("classifier.workerOptions"));
+      config.setTaskTimeout(Integer.getInteger("classifier.taskTimeout", config.getTaskTimeout()));
+      config.setNumFolds(Integer.getInteger("classifier.folds", config.getNumFolds()));
+      config.setSeed(Integer.getInteger("classifier.seed", config.getSeed()));
+      config.setMethods(System.getProperty("classifier.methods", config.getMethods()));
+      config.setModelDir(System.getProperty("classifier.modelDir"));
+      config.setSink(System.getProperty("classifier.sink", config.getSink()));
+      config.setOutputDir(System.getProperty("classifier.outputDir", config.getOutputDir()));
+      config.setStreaming(Boolean.getBoolean("classifier.streaming"));
+      config.setChunkSize(Integer.getInteger("classifier.chunkSize", config.getChunkSize()));
+      config.setWindowSize(Integer.getInteger("classifier.windowSize", config.getWindowSize()));
+      config.setCacheDir(System.getProperty("classifier.cacheDir"));
+      config.setResultCacheDir(System.getProperty("classifier.resultCacheDir"));
+      config.setResultCacheSize(
+            Long.getLong("classifier.resultCacheSize", config.getResultCacheSize()));
+      config.setStacking(System.getProperty("classifier.stacking", config.getStacking()));
+      config.setStackingFeatures(
+            System.getProperty("classifier.stackingFeatures", config.getStackingFeatures()));
+      config.setWeighting(System.getProperty("classifier.weighting", config.getWeighting()));
+      String cascadeMargin = System.getProperty("classifier.cascadeMargin");
+      if (cascadeMargin != null) {
+         config.setCascadeMargin(Double.parseDouble(cascadeMargin));
+      }
+      config.setKnnIndex(System.getProperty("classifier.knnIndex"));
+      config.setKnnEf(Integer.getInteger("classifier.knnEf", config.getKnnEf()));
+      config.setCompareKnn(Boolean.getBoolean("classifier.compareKnn"));
+      config.setPredictionStore(
+            System.getProperty("classifier.predictionStore", config.getPredictionStore()));
+      config.setStoreDistributions(Boolean.parseBoolean(System.getProperty(
+            "classifier.storeDistributions", String.valueOf(config.storesDistributions()))));
+      config.setSearch(System.getProperty("classifier.search"));
+      config.setSearchTrials(
+            Integer.getInteger("classifier.searchTrials", config.getSearchTrials()));
+      for (String name : System.getProperties().stringPropertyNames()) {
+         if (name.startsWith("classifier.searchSpace.")) {
+            config.setSearchSpace(name.substring("classifier.searchSpace.".length()),
+                  System.getProperty(name));
+         }
+      }
+      config.setProfiling(Boolean.parseBoolean(
+            System.getProperty("classifier.profiling", String.valueOf(config.isProfiling()))));
+      config.setMetricsFile(System.getProperty("classifier.metricsFile"));
+      config.setMetricsInterval(
+            Integer.getInteger("classifier.metricsInterval", config.getMetricsInterval()));
+      config.setIncrementalDir(System.getProperty("classifier.incrementalDir"));
+      config.setRetrainEvery(
+            Integer.getInteger("classifier.retrainEvery", config.getRetrainEvery()));
+      config.setApproximate(Boolean.getBoolean("classifier.approximate"));
+      config.setApproxStart(Integer.getInteger("classifier.approxStart", config.getApproxStart()));
+      String approxMargin = System.getProperty("classifier.approxMargin");
+      if (approxMargin != null) {
+         config.setApproxMargin(Double.parseDouble(approxMargin));
+      }
+      String approxConfidence = System.getProperty("classifier.approxConfidence");
+      if (approxConfidence != null) {
+         config.setApproxConfidence(Double.parseDouble(approxConfidence));
+      }
+
+      return config;
+   }
+
+   public int getThreads() {
+      return this.threads;
+   }
+
+   public void setThreads(int threads) {
+      this.threads = Math.max(1, threads);
+   }
+
+   public int getFoldThreads() {
+      return this.foldThreads;
+   }
+
+   public void setFoldThreads(int foldThreads) {
+      this.foldThreads = Math.max(0, foldThreads);
+   }
+
+   public int getWorkers() {
+      return this.workers;
+   }
+
+   public void setWorkers(int workers) {
+      this.workers = Math.max(0, workers);
+   }
+
+   public int getCoordinatorPort() {
+      return this.coordinatorPort;
+   }
+
+   public void setCoordinatorPort(int coordinatorPort) {
+      this.coordinatorPort = coordinatorPort;
+   }
+
+   public String getWorkerOptions() {
+      return this.workerOptions;
+   }
+
+   public void setWorkerOptions(String workerOptions) {
+      this.workerOptions = workerOptions;
+   }
+
+   public int getTaskTimeout() {
+      return this.taskTimeout;
+   }
+
+   public void setTaskTimeout(int taskTimeout) {
+      this.taskTimeout = Math.max(1, taskTimeout);
+   }
+
+   public int getNumFolds() {
+      return this.numFolds;
+   }
+
+   public void setNumFolds(int numFolds) {
+      this.numFolds = Math.max(2, numFolds);
+   }
+
+   public int getSeed() {
+      return this.seed;
+   }
+
+   public void setSeed(int seed) {
+      this.seed = seed;
+   }
+
+   public String getMethods() {
+      return this.methods;
+   }
+
+   public void setMethods(String methods) {
+      this.methods = methods;
+   }
+
+   /** Check whether the aggregation method (e.g. "stacking") is one of the methods to run */
+   public boolean runsMethod(String method) {
+      for (String name : methods.split(",")) {
+         if (name.trim().equals(method)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   public String getModelDir() {
+      return this.modelDir;
+   }
+
+   public void setModelDir(String modelDir) {
+      this.modelDir = modelDir;
+   }
+
+   /**
+    * Get the file the full-dataset model of the j-th base model is serialized to, or null when the
+    * full-dataset training is skipped.
+    */
+   public String getFinalModelFile(Classifier model, int j) {
+      if (modelDir == null) {
+         return null;
+      }
+
+      return new File(modelDir, j + "-" + model.getClass().getSimpleName() + ".model").getPath();
+   }
+
+   public String getSink() {
+      return this.sink;
+   }
+
+   public void setSink(String sink) {
+      this.sink = sink;
+   }
+
+   public String getOutputDir() {
+      return this.outputDir;
+   }
+
+   public void setOutputDir(String outputDir) {
+      this.outputDir = outputDir;
+   }
+
+   public boolean isStreaming() {
+      return this.streaming;
+   }
+
+   public void setStreaming(boolean streaming) {
+      this.streaming = streaming;
+   }
+
+   public int getChunkSize() {
+      return this.chunkSize;
+   }
+
+   public void setChunkSize(int chunkSize) {
+      this.chunkSize = Math.max(1, chunkSize);
+   }
+
+   public int getWindowSize() {
+      return this.windowSize;
+   }
+
+   public void setWindowSize(int windowSize) {
+      this.windowSize = Math.max(0, windowSize);
+   }
+
+   public String getCacheDir() {
+      return this.cacheDir;
+   }
+
+   public void setCacheDir(String cacheDir) {
+      this.cacheDir = cacheDir;
+   }
+
+   public String getResultCacheDir() {
+      return this.resultCacheDir;
+   }
+
+   public void setResultCacheDir(String resultCacheDir) {
+      this.resultCacheDir = resultCacheDir;
+   }
+
+   public long getResultCacheSize() {
+      return this.resultCacheSize;
+   }
+
+   public void setResultCacheSize(long resultCacheSize) {
+      this.resultCacheSize = Math.max(0, resultCacheSize);
+   }
+
+   /** Create the cache of cross validation results, or null when none is configured */
+   public ResultCache createResultCache() {
+      if (resultCacheDir == null) {
+         return null;
+      }
+      return new ResultCache(new File(resultCacheDir), resultCacheSize << 20);
+   }
+
+   public String getStacking() {
+      return this.stacking;
+   }
+
+   public void setStacking(String stacking) {
+      this.stacking = stacking;
+   }
+
+   /** Check whether stacking is trained from the out-of-fold predictions of the models */
+   public boolean usesOutOfFoldStacking() {
+      return !"weka".equals(stacking);
+   }
+
+   public String getStackingFeatures() {
+      return this.stackingFeatures;
+   }
+
+   public void setStackingFeatures(String stackingFeatures) {
+      this.stackingFeatures = stackingFeatures;
+   }
+
+   /** Check whether the out-of-fold stacking uses the class distributions of the models */
+   public boolean stacksDistributions() {
+      return !"class".equals(stackingFeatures);
+   }
+
+   public String getWeighting() {
+      return this.weighting;
+   }
+
+   public void setWeighting(String weighting) {
+      this.weighting = weighting;
+   }
+
+   /** Create a new weighting strategy; every voting run needs its own */
+   public WeightingStrategy createWeightingStrategy() {
+      return WeightingStrategies.create(weighting);
+   }
+
+   public double getCascadeMargin() {
+      return this.cascadeMargin;
+   }
+
+   public void setCascadeMargin(double cascadeMargin) {
+      this.cascadeMargin = Math.max(0, cascadeMargin);
+   }
+
+   public String getKnnIndex() {
+      return this.knnIndex;
+   }
+
+   public void setKnnIndex(String knnIndex) {
+      this.knnIndex = knnIndex;
+   }
+
+   public int getKnnEf() {
+      return this.knnEf;
+   }
+
+   public void setKnnEf(int knnEf) {
+      this.knnEf = Math.max(1, knnEf);
+   }
+
+   public boolean comparesKnn() {
+      return this.compareKnn;
+   }
+
+   public void setCompareKnn(boolean compareKnn) {
+      this.compareKnn = compareKnn;
+   }
+
+   public String getPredictionStore() {
+      return this.predictionStore;
+   }
+
+   public void setPredictionStore(String predictionStore) {
+      this.predictionStore = predictionStore;
+   }
+
+   /** Check whether the predictions of the models are held outside the Java heap */
+   public boolean storesPredictionsOffHeap() {
+      return "offheap".equals(predictionStore);
+   }
+
+   public boolean storesDistributions() {
+      return this.storeDistributions;
+   }
+
+   public void setStoreDistributions(boolean storeDistributions) {
+      this.storeDistributions = storeDistributions;
+   }
+
+   public String getSearch() {
+      return this.search;
+   }
+
+   public void setSearch(String search) {
+      this.search = search;
+   }
+
+   /** Check whether the options of the base models are tuned before the ensemble runs */
+   public boolean searchesHyperparameters() {
+      return search != null && !search.equals("none");
+   }
+
+   public int getSearchTrials() {
+      return this.searchTrials;
+   }
+
+   public void setSearchTrials(int searchTrials) {
+      this.searchTrials = Math.max(1, searchTrials);
+   }
+
+   /** Set the search space (see SearchSpace) of the models of the class, by its simple name */
+   public void setSearchSpace(String className, String spec) {
+      this.searchSpaces.put(className, spec);
+   }
+
+   /** Get the search space of the model, or null when it has none */
+   public SearchSpace getSearchSpace(Classifier model) throws Exception {
+      String spec = searchSpaces.get(model.getClass().getSimpleName());
+      return spec == null ? SearchSpace.defaultFor(model) : new SearchSpace(spec);
+   }
+
+   public boolean isProfiling() {
+      return this.profiling;
+   }
+
+   public void setProfiling(boolean profiling) {
+      this.profiling = profiling;
+   }
+
+   public String getMetricsFile() {
+      return this.metricsFile;
+   }
+
+   public void setMetricsFile(String metricsFile) {
+      this.metricsFile = metricsFile;
+   }
+
+   public int getMetricsInterval() {
+      return this.metricsInterval;
+   }
+
+   public void setMetricsInterval(int metricsInterval) {
+      this.metricsInterval = Math.max(0, metricsInterval);
+   }
+
+   public String getIncrementalDir() {
+      return this.incrementalDir;
+   }
+
+   public void setIncrementalDir(String incrementalDir) {
+      this.incrementalDir = incrementalDir;
+   }
+
+   /** Check whether the models are updated with the appended rows rather than trained each run */
+   public boolean isIncremental() {
+      return incrementalDir != null;
+   }
+
+   public int getRetrainEvery() {
+      return this.retrainEvery;
+   }
+
+   public void setRetrainEvery(int retrainEvery) {
+      this.retrainEvery = Math.max(1, retrainEvery);
+   }
+
+   public boolean isApproximate() {
+      return this.approximate;
+   }
+
+   public void setApproximate(boolean approximate) {
+      this.approximate = approximate;
+   }
+
+   public int getApproxStart() {
+      return this.approxStart;
+   }
+
+   public void setApproxStart(int approxStart) {
+      this.approxStart = Math.max(1, approxStart);
+   }
+
+   public double getApproxMargin() {
+      return this.approxMargin;
+   }
+
+   public void setApproxMargin(double approxMargin) {
+      this.approxMargin = approxMargin;
+   }
+
+   public double getApproxConfidence() {
+      return this.approxConfidence;
+   }
+
+   public void setApproxConfidence(double approxConfidence) {
+      if (approxConfidence <= 0 || approxConfidence >= 1) {
+         throw new IllegalArgumentException("The confidence must be between 0 and 1");
+      }
+      this.approxConfidence = approxConfidence;
+   }
+
+   /**
+    * Create the incremental training of the models, on the pool of the cross validation, or null
+    * when the models are trained from scratch every run
+    */
+   public IncrementalTrainer createIncrementalTrainer(FoldCrossValidator crossValidator) {
+      if (incrementalDir == null) {
+         return null;
+      }
+
+      IncrementalTrainer trainer =
+            new IncrementalTrainer(new File(incrementalDir), numFolds, seed, retrainEvery);
+      trainer.setPool(crossValidator == null ? null : crossValidator.getPool());
+      return trainer;
+   }
+
+   /** Create the K-Nearest Neighbor model: FastKNN when a neighbor index is configured, else IBk */
+   public Classifier createNearestNeighbor() {
+      if (knnIndex == null) {
+         return new IBk();
+      }
+
+      FastKNN knn = new FastKNN();
+      knn.setIndexType(knnIndex);
+      knn.setEfSearch(knnEf);
+      return knn;
+   }
+
+   public ResultSink createResultSink() {
+      return ResultSinks.create(sink, new File(outputDir));
+   }
+
+   /**
+    * Create the cross validation: on worker JVMs when workers or a coordinator port are configured,
+    * otherwise fold-parallel unless Weka's serial one is configured
+    */
+   public FoldCrossValidator createCrossValidator() throws IOException {
+      if (workers > 0 || coordinatorPort > 0) {
+         return new CvCoordinator(numFolds, seed, coordinatorPort, workers, workerOptions,
+               taskTimeout * 1000L);
+      }
+      return new FoldCrossValidator(numFolds, seed, foldThreads);
+   }
+}
@@ -0,0 +1,442 @@
+/**
+ * The ScoringService class classifies new instances with an ensemble trained beforehand, over HTTP
+ * on the local machine. The ensemble is loaded once at startup; requests are then gathered into
+ * micro batches so that each base model classifies many instances in one go.
+ * 
+ * Endpoints are: POST /score?method=all|majority|weighted|stacking|cascade: the body holds one
+ * instance per line, as comma-separated values in the order of the attributes of the dataset,
+ * quoted as in an arff file where needed. Any other method is rejected with a 400. The response
+ * holds one JSON object per instance with the predictions and the likelihood of every class.
+ * "cascade" asks the base models cheapest first and stops once the weighted vote is decided (see
+ * Cascade); when a batch only holds cascade requests, the models not asked are never run.
+ * 
+ * GET /stats: the number of requests served, the throughput, the p50 and p99 latency, the average
+ * batch size and the average number of base models a cascade asked per instance.
+ * 
+ * Usage: java ScoringService -e <ensemble file> [-d <arff file to train on when the ensemble file
+ * does not exist>] [-stacking] [-p <port>] [-w <workers>] [-b <max batch size>] [-l <max batch
+ * delay in microseconds>]
+ * 
+ * Parameters are: ensemble: the trained ensemble.
+ * 
+ * queue: the requests waiting to be classified.
+ * 
+ * workers: the number of threads classifying batches, each with its own copy of the ensemble.
+ * 
+ * maxBatch: the largest number of instances classified in one batch.
+ * 
+ * maxDelay: the longest time (in nanoseconds) a batch waits for more requests once it has one.
+ * 
+ * cascadeMargin: the margin of the Cascade of every worker (see RunConfig).
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.BayesNet;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Instance;
+import weka.core.Utils;
+
+public class ScoringService {
+   private static final long REQUEST_TIMEOUT_SECONDS = 30;
+
+   /** The values the method of a request may take */
+   private static final List<String> METHODS =
+         Arrays.asList("all", "majority", "weighted", "stacking", "cascade");
+
+   private EnsembleModel ensemble;
+   private String[] dataClasses;
+   private LinkedBlockingQueue<ScoreRequest> queue;
+   private int workers;
+   private int maxBatch;
+   private long maxDelay;
+   private LatencyRecorder latency;
+   private AtomicLong batches;
+   private AtomicLong batchedInstances;
+   private double cascadeMargin;
+   private AtomicLong cascadedInstances;
+   private AtomicLong cascadeEvaluations;
+   private HttpServer server;
+
+   public ScoringService(EnsembleModel ensemble, int workers, int maxBatch, long maxDelayMicros) {
+      this.ensemble = ensemble;
+      this.dataClasses = ensemble.getDataClasses();
+      this.queue = new LinkedBlockingQueue<ScoreRequest>();
+      this.workers = Math.max(1, workers);
+      this.maxBatch = Math.max(1, maxBatch);
+      this.maxDelay = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+      this.latency = new LatencyRecorder(100000);
+      this.batches = new AtomicLong();
+      this.batchedInstances = new AtomicLong();
+      this.cascadeMargin = 1.0;
+      this.cascadedInstances = new AtomicLong();
+      this.cascadeEvaluations = new AtomicLong();
+   }
+
+   public void setCascadeMargin(double cascadeMargin) {
+      this.cascadeMargin = cascadeMargin;
+   }
+
+   public static void main(String[] args) throws Exception {
+      System.setProperty("java.awt.headless", "true");
+
+      String ensembleFile = Utils.getOption('e', args);
+      String arffFile = Utils.getOption('d', args);
+      boolean withStacking = Utils.getFlag("stacking", args);
+      String port = Utils.getOption('p', args);
+      String workers = Utils.getOption('w', args);
+      String maxBatch = Utils.getOption('b', args);
+      String maxDelay = Utils.getOption('l', args);
+
+      if (ensembleFile.isEmpty()) {
+         throw new IllegalArgumentException("No ensemble file given, use -e <ensemble file>");
+      }
+
+      Pipeline.silenceClassifiers();
+      RunConfig config = RunConfig.fromSystemProperties();
+      EnsembleModel ensemble;
+
+      if (new File(ensembleFile).exists()) {
+         ensemble = EnsembleModel.load(ensembleFile);
+      } else if (!arffFile.isEmpty()) {
+         /** Train the same base models as the Driver and keep them for the next start */
+         Classifier[] models = { new NaiveBayes(), config.createNearestNeighbor(), new BayesNet() };
+         DataHandler dataHandler = new DataHandler(new FileHandler().readFile(new File(arffFile)));
+         ensemble = EnsembleModel.train(models, dataHandler, config, withStacking);
+         ensemble.save(ensembleFile);
+      } else {
+         throw new IllegalArgumentException("Ensemble file not found: " + ensembleFile);
+      }
+
+      ScoringService service = new ScoringService(ensemble,
+            workers.isEmpty() ? 1 : Integer.parseInt(workers),
+            maxBatch.isEmpty() ? 256 : Integer.parseInt(maxBatch),
+            maxDelay.isEmpty() ? 1000 : Long.parseLong(maxDelay));
+      service.setCascadeMargin(config.getCascadeMargin());
+      service.start(port.isEmpty() ? 8080 : Integer.parseInt(port));
+   }
+
+   /** Start the workers and listen on the loopback interface */
+   public void start(int port) throws Exception {
+      for (int i = 0; i < workers; i++) {
+         final EnsembleModel copy = ensemble.copy();
+         Thread worker = new Thread(new Runnable() {
+            public void run() {
+               processBatches(copy);
+            }
+         }, "scoring-worker-" + i);
+         worker.setDaemon(true);
+         worker.start();
+      }
+
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.createContext("/score", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            handleScore(exchange);
+         }
+      });
+      server.createContext("/stats", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            respond(exchange, 200, getStats() + "\n");
+         }
+      });
+      server.setExecutor(Executors.newCachedThreadPool());
+      server.start();
+
+      System.out.println("Scoring service listening on http://127.0.0.1:" + port + "/score");
+   }
+
+   public void stop() {
+      server.stop(0);
+   }
+
+   public String getStats() {
+      long batchCount = batches.get();
+      long cascaded = cascadedInstances.get();
+      return latency.toReport() + ", average batch: " + String.format("%.1f instances",
+            batchCount == 0 ? 0.0 : (double) batchedInstances.get() / batchCount)
+            + ", cascade: " + String.format("%.2f of %d models per instance",
+                  cascaded == 0 ? 0.0 : (double) cascadeEvaluations.get() / cascaded,
+                  ensemble.getModels().length);
+   }
+
+   private void handleScore(HttpExchange exchange) throws IOException {
+      long start = System.nanoTime();
+      String method = getMethod(exchange.getRequestURI().getQuery());
+      List<Instance> instances = new ArrayList<Instance>();
+
+      if (!exchange.getRequestMethod().equals("POST")) {
+         respond(exchange, 405, "Use POST\n");
+         return;
+      }
+      if (!METHODS.contains(method)) {
+         respond(exchange, 400, "Unknown method " + method + ", use one of " + METHODS + "\n");
+         return;
+      }
+      if (method.equals("stacking") && ensemble.getStacking() == null) {
+         respond(exchange, 400, "The ensemble was trained without stacking\n");
+         return;
+      }
+
+      BufferedReader reader =
+            new BufferedReader(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+      try {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+               instances.add(ensemble.parseInstance(line));
+            }
+         }
+      } catch (Exception ex) {
+         respond(exchange, 400, ex.getMessage() + "\n");
+         return;
+      } finally {
+         reader.close();
+      }
+
+      ScoreRequest request = new ScoreRequest(instances.toArray(new Instance[0]), method);
+      queue.add(request);
+
+      try {
+         String response = request.result.get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+         respond(exchange, 200, response);
+         latency.record(System.nanoTime() - start);
+      } catch (Exception ex) {
+         respond(exchange, 500, ex + "\n");
+      }
+   }
+
+   private static String getMethod(String query) {
+      if (query != null) {
+         for (String parameter : query.split("&")) {
+            if (parameter.startsWith("method=")) {
+               return parameter.substring("method=".length());
+            }
+         }
+      }
+      return "all";
+   }
+
+   private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+      byte[] bytes = body.getBytes("UTF-8");
+
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream output = exchange.getResponseBody();
+      output.write(bytes);
+      output.close();
+   }
+
+   /**
+    * Take the waiting requests, up to maxBatch instances or until maxDelay has passed since the
+    * first one, and classify them together
+    */
+   private void processBatches(EnsembleModel model) {
+      List<ScoreRequest> batch = new ArrayList<ScoreRequest>();
+      Cascade cascade = model.createCascade(cascadeMargin);
+
+      while (true) {
+         try {
+            batch.clear();
+            ScoreRequest first = queue.take();
+            batch.add(first);
+            int size = first.instances.length;
+            long deadline = System.nanoTime() + maxDelay;
+
+            while (size < maxBatch) {
+               ScoreRequest next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+               if (next == null) {
+                  break;
+               }
+               batch.add(next);
+               size = size + next.instances.length;
+            }
+
+            score(model, cascade, batch, size);
+         } catch (InterruptedException ex) {
+            return;
+         } catch (Exception ex) {
+            for (ScoreRequest request : batch) {
+               request.result.completeExceptionally(ex);
+            }
+         }
+      }
+   }
+
+   /**
+    * Let every base model classify the whole batch, then aggregate the votes per instance. A batch
+    * holding only cascade requests skips this and lets the cascade ask the models it needs.
+    */
+   private void score(EnsembleModel model, Cascade cascade, List<ScoreRequest> batch, int size)
+         throws Exception {
+      Classifier[] models = model.getModels();
+      Instance[] instances = new Instance[size];
+      int[][] votes = null;
+      int[] unitWeights = new int[models.length];
+      int[] classCounters = new int[size * dataClasses.length];
+      boolean cascadeOnly = true;
+      int position = 0;
+
+      for (ScoreRequest request : batch) {
+         System.arraycopy(request.instances, 0, instances, position, request.instances.length);
+         position = position + request.instances.length;
+         cascadeOnly = cascadeOnly && request.method.equals("cascade");
+      }
+
+      VoteResult majority = new VoteResult("Majority Voting", dataClasses, size, true);
+      VoteResult weighted = new VoteResult("Weighted Majority Voting", dataClasses, size, true);
+      if (!cascadeOnly) {
+         votes = new int[models.length][size];
+         for (int j = 0; j < models.length; j++) {
+            unitWeights[j] = 1;
+            for (int i = 0; i < size; i++) {
+               votes[j][i] = Utils.maxIndex(models[j].distributionForInstance(instances[i]));
+            }
+         }
+
+         Aggregator.countVotes(votes, unitWeights, 0, size, classCounters, majority);
+         Aggregator.countVotes(votes, model.getWeights(), 0, size, classCounters, weighted);
+      }
+
+      VoteResult cascaded = new VoteResult("Cascade Voting", dataClasses, size, true);
+      position = 0;
+      for (ScoreRequest request : batch) {
+         if (request.method.equals("cascade")) {
+            cascade(models, cascade, instances, votes, position,
+                  position + request.instances.length, cascaded);
+         }
+         position = position + request.instances.length;
+      }
+
+      int[] stacked = null;
+      if (!cascadeOnly && model.getStacking() != null) {
+         stacked = new int[size];
+         for (int i = 0; i < size; i++) {
+            stacked[i] = Utils.maxIndex(model.getStacking().distributionForInstance(instances[i]));
+         }
+      }
+
+      batches.incrementAndGet();
+      batchedInstances.addAndGet(size);
+
+      position = 0;
+      for (ScoreRequest request : batch) {
+         StringBuilder response = new StringBuilder();
+
+         for (int i = position; i < position + request.instances.length; i++) {
+            response.append('{');
+            if (request.method.equals("all") || request.method.equals("majority")) {
+               appendVote(response, "majority", majority, i);
+            }
+            if (request.method.equals("all") || request.method.equals("weighted")) {
+               appendVote(response, "weighted", weighted, i);
+            }
+            if (request.method.equals("cascade")) {
+               appendVote(response, "cascade", cascaded, i);
+            }
+            if (stacked != null
+                  && (request.method.equals("all") || request.method.equals("stacking"))) {
+               response.append("\"stacking\":" + quote(dataClasses[stacked[i]]) + ",");
+            }
+            response.setLength(response.length() - 1);
+            response.append("}\n");
+         }
+
+         position = position + request.instances.length;
+         request.result.complete(response.toString());
+      }
+   }
+
+   /**
+    * Classify the instances from (inclusive) to (exclusive) with the cascade, asking each model
+    * only while the vote is not decided. The votes of every model are reused when the batch has
+    * them already.
+    */
+   private void cascade(Classifier[] models, Cascade cascade, Instance[] instances, int[][] votes,
+         int from, int to, VoteResult result) throws Exception {
+      int numClasses = dataClasses.length;
+      double[] classTotals = new double[(to - from) * numClasses];
+      long evaluations = 0;
+
+      for (int i = from; i < to; i++) {
+         int offset = (i - from) * numClasses;
+         int position = 0;
+
+         while (!cascade.isDecided(position, classTotals, offset, numClasses)) {
+            int j = cascade.getModel(position);
+            int vote = votes != null ? votes[j][i]
+                  : Utils.maxIndex(models[j].distributionForInstance(instances[i]));
+            cascade.addVote(position, vote, classTotals, offset);
+            position++;
+         }
+         evaluations += position;
+      }
+
+      Aggregator.selectClasses(from, to, classTotals, result);
+      cascadedInstances.addAndGet(to - from);
+      cascadeEvaluations.addAndGet(evaluations);
+   }
+
+   private void appendVote(StringBuilder response, String name, VoteResult result, int instance) {
+      response.append("\"" + name + "\":"
+            + quote(result.getClassName(result.getFinalPredictions()[instance])) + ",");
+      response.append("\"" + name + "_likelihood\":{");
+
+      for (int k = 0; k < dataClasses.length; k++) {
+         double likelihood = result.getLikelihood(instance, k);
+         response.append((k > 0 ? "," : "") + quote(dataClasses[k]) + ":"
+               + String.format("%.4f", likelihood == -1 ? 0.0 : likelihood));
+      }
+      response.append("},");
+   }
+
+   /** Write a class name as a JSON string, escaping the characters JSON does not allow */
+   private static String quote(String value) {
+      StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c == '"' || c == '\\') {
+            quoted.append('\\').append(c);
+         } else if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+         } else {
+            quoted.append(c);
+         }
+      }
+
+      return quoted.append('"').toString();
+   }
+
+   /** A request waiting to be classified */
+   private static class ScoreRequest {
+      private Instance[] instances;
+      private String method;
+      private CompletableFuture<String> result;
+
+      public ScoreRequest(Instance[] instances, String method) {
+         this.instances = instances;
+         this.method = method;
+         this.result = new CompletableFuture<String>();
+      }
+   }
+}
@@ -0,0 +1,219 @@
+/**
+ * The SearchSpace class lists the options a hyperparameter search may give a base model. A space is
+ * written as parameters separated by ";", each a list of alternatives separated by "|", where an
+ * alternative is a string of Weka options and may be empty (the option is left out). For example,
+ * "-K 1|-K 5|-K 9; |-I|-F" tries IBk with 1, 5 and 9 neighbors, each without distance weighting,
+ * weighted by 1/distance and weighted by 1-distance.
+ * 
+ * A configuration picks one alternative per parameter. It is applied on top of the options the
+ * model already has: every option named by a parameter is first removed from them, so only the
+ * searched options change.
+ * 
+ * Parameters are: parameters: the alternatives of each parameter, as option arrays.
+ * 
+ * flags: the options named by any alternative of each parameter.
+ */
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.BayesNet;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.lazy.IBk;
+import weka.core.Option;
+import weka.core.Utils;
+
+public class SearchSpace {
+   private List<String[][]> parameters;
+   private HashSet<String> flags;
+
+   public SearchSpace(String spec) throws Exception {
+      this.parameters = new ArrayList<String[][]>();
+      this.flags = new HashSet<String>();
+
+      for (String parameter : spec.split(";")) {
+         String[] alternatives = parameter.split("\\|", -1);
+         String[][] options = new String[alternatives.length][];
+
+         for (int a = 0; a < alternatives.length; a++) {
+            options[a] = Utils.splitOptions(alternatives[a].trim());
+            for (String option : options[a]) {
+               if (isFlag(option)) {
+                  flags.add(option);
+               }
+            }
+         }
+         parameters.add(options);
+      }
+   }
+
+   /**
+    * Get the space searched for a model when none is configured, or null when the model has none:
+    * the number of neighbors (and distance weighting for IBk) of the nearest neighbor models, the
+    * estimator of Naive Bayes and the number of parents K2 gives a node of BayesNet
+    */
+   public static SearchSpace defaultFor(Classifier model) throws Exception {
+      if (model instanceof IBk) {
+         return new SearchSpace("-K 1|-K 3|-K 5|-K 9|-K 15; |-I|-F");
+      } else if (model instanceof FastKNN) {
+         return new SearchSpace("-K 1|-K 3|-K 5|-K 9|-K 15");
+      } else if (model instanceof NaiveBayes) {
+         return new SearchSpace(" |-K|-D");
+      } else if (model instanceof BayesNet) {
+         String k2 = "-Q weka.classifiers.bayes.net.search.local.K2 -- -P ";
+         return new SearchSpace(k2 + "1|" + k2 + "2|" + k2 + "3");
+      }
+      return null;
+   }
+
+   /** Get the number of configurations in the space */
+   public int size() {
+      long size = 1;
+
+      for (String[][] alternatives : parameters) {
+         size = Math.min(Integer.MAX_VALUE, size * alternatives.length);
+      }
+
+      return (int) size;
+   }
+
+   /**
+    * Get the options of the configuration of the index, in the order of the grid: the last
+    * parameter changes fastest
+    */
+   public String[] getConfiguration(int index) {
+      ArrayList<String> options = new ArrayList<String>();
+      int[] choices = new int[parameters.size()];
+
+      for (int p = parameters.size() - 1; p >= 0; p--) {
+         choices[p] = index % parameters.get(p).length;
+         index = index / parameters.get(p).length;
+      }
+
+      for (int p = 0; p < parameters.size(); p++) {
+         for (String option : parameters.get(p)[choices[p]]) {
+            options.add(option);
+         }
+      }
+
+      return options.toArray(new String[options.size()]);
+   }
+
+   /** Get every configuration of the space, in the order of the grid */
+   public List<String[]> grid() {
+      List<String[]> configurations = new ArrayList<String[]>();
+
+      for (int i = 0; i < size(); i++) {
+         configurations.add(getConfiguration(i));
+      }
+
+      return configurations;
+   }
+
+   /** Get up to count distinct configurations, drawn at random, or the whole grid when smaller */
+   public List<String[]> sample(int count, Random random) {
+      if (count >= size()) {
+         return grid();
+      }
+
+      List<String[]> configurations = new ArrayList<String[]>();
+      HashSet<Integer> drawn = new HashSet<Integer>();
+      while (drawn.size() < count) {
+         int index = random.nextInt(size());
+         if (drawn.add(index)) {
+            configurations.add(getConfiguration(index));
+         }
+      }
+
+      return configurations;
+   }
+
+   /**
+    * Create an untrained copy of the model with the options of the configuration, the other options
+    * of the model being kept. Nested options (after "--") of a removed option are removed with it:
+    * they run up to the next option of the model itself, as for the search algorithm (-Q) of
+    * BayesNet, followed by its estimator (-E), or to the end of the options. The configuration
+    * takes the place of the first option removed, since a model such as BayesNet hands each nested
+    * block to its options in the order they come.
+    */
+   public Classifier apply(Classifier model, String[] configuration) throws Exception {
+      String[] current = model.getOptions();
+      HashSet<String> modelFlags = getModelFlags(model);
+      ArrayList<String> options = new ArrayList<String>();
+      int position = -1;
+
+      for (int i = 0; i < current.length; i++) {
+         /** Find the end of the option, its value and its nested options */
+         int end = i + 1;
+         if (end < current.length && !isFlag(current[end]) && !current[end].equals("--")) {
+            end++;
+         }
+         if (end < current.length && current[end].equals("--")) {
+            end++;
+            while (end < current.length && !modelFlags.contains(current[end])) {
+               end++;
+            }
+         }
+
+         if (flags.contains(current[i]) && position < 0) {
+            position = options.size();
+         }
+         for (int j = i; j < end && !flags.contains(current[i]); j++) {
+            options.add(current[j]);
+         }
+         i = end - 1;
+      }
+
+      /**
+       * Without an option to replace, options after "--" belong to the option (and value) before
+       * it, so the configuration goes before them, unless it has nested options of its own, which
+       * must end the array
+       */
+      if (position < 0) {
+         int nested = options.indexOf("--");
+         boolean configurationNested = false;
+         for (String option : configuration) {
+            configurationNested = configurationNested || option.equals("--");
+         }
+         position = nested < 0 || configurationNested ? options.size() : Math.max(0, nested - 2);
+      }
+      for (String option : configuration) {
+         options.add(position++, option);
+      }
+
+      Classifier copy = Classifier.makeCopy(model);
+      copy.setOptions(options.toArray(new String[options.size()]));
+      return copy;
+   }
+
+   /** Get the options the model itself lists (e.g. -Q), without those of its nested objects */
+   private static HashSet<String> getModelFlags(Classifier model) {
+      HashSet<String> modelFlags = new HashSet<String>();
+      Enumeration<?> listed = model.listOptions();
+
+      while (listed != null && listed.hasMoreElements()) {
+         Option option = (Option) listed.nextElement();
+         if (option.name() != null && option.name().length() > 0) {
+            modelFlags.add("-" + option.name());
+         }
+      }
+      return modelFlags;
+   }
+
+   /** Check whether the option names a flag, rather than being a value such as -1 */
+   private static boolean isFlag(String option) {
+      if (option.length() < 2 || option.charAt(0) != '-' || option.equals("--")) {
+         return false;
+      }
+      try {
+         Double.parseDouble(option);
+         return false;
+      } catch (NumberFormatException ex) {
+         return true;
+      }
+   }
+}
@@ -0,0 +1,90 @@
+/**
+ * The StackedClassifier class classifies instances with base models trained on the whole dataset
+ * followed by a meta-classifier trained on their out-of-fold predictions (see OutOfFoldStacking).
+ * It is either made of models already trained, as EnsembleModel does with the predictions of its
+ * own cross validation, or built like any other classifier: buildClassifier cross validates every
+ * base model to get its out-of-fold predictions, trains the meta-classifier on them, then trains
+ * the base models on the whole dataset.
+ * 
+ * Parameters are: models: the base models, trained on the whole dataset.
+ * 
+ * metaClassifier: the meta-classifier, trained on the meta-level dataset.
+ * 
+ * stacking: turns the predictions of the base models into meta-level instances.
+ * 
+ * numFolds, seed: the cross validation giving the out-of-fold predictions when the classifier is
+ * built.
+ */
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class StackedClassifier extends Classifier {
+   private static final long serialVersionUID = 1L;
+
+   private Classifier[] models;
+   private Classifier metaClassifier;
+   private OutOfFoldStacking stacking;
+   private int numFolds;
+   private int seed;
+
+   /** Stack models that are already trained, with the meta-classifier trained on the stacking */
+   public StackedClassifier(Classifier[] models, Classifier metaClassifier,
+         OutOfFoldStacking stacking, int numFolds, int seed) {
+      this(models, metaClassifier, stacking.usesDistributions(), numFolds, seed);
+
+      /** Keep the attributes of the meta-level dataset, not its instances */
+      this.stacking.setMetaData(new Instances(stacking.getMetaData(), 0));
+   }
+
+   /** Stack models to be trained by buildClassifier */
+   public StackedClassifier(Classifier[] models, Classifier metaClassifier,
+         boolean useDistributions, int numFolds, int seed) {
+      this.models = models;
+      this.metaClassifier = metaClassifier;
+      this.stacking = new OutOfFoldStacking(useDistributions, null);
+      this.numFolds = numFolds;
+      this.seed = seed;
+   }
+
+   /**
+    * Train the meta-classifier on the out-of-fold predictions of the base models, then the base
+    * models on the whole dataset. Instances without a class are ignored, as Weka's Stacking does.
+    */
+   public void buildClassifier(Instances data) throws Exception {
+      Instances train = new Instances(data);
+      train.deleteWithMissingClass();
+
+      FoldCrossValidator crossValidator = new FoldCrossValidator(numFolds, seed, 0);
+      PredictionStore[] stores = new PredictionStore[models.length];
+      for (int j = 0; j < models.length; j++) {
+         stores[j] = new PredictionStore(train.numInstances(), train.numClasses(),
+               stacking.usesDistributions(), false);
+         crossValidator.crossValidateModel(models[j], train, null, true, stores[j]);
+      }
+
+      stacking.buildMetaData(stores, train.classAttribute());
+      metaClassifier = stacking.train(metaClassifier);
+      stacking.setMetaData(new Instances(stacking.getMetaData(), 0));
+
+      for (int j = 0; j < models.length; j++) {
+         models[j].buildClassifier(train);
+      }
+   }
+
+   public double[] distributionForInstance(Instance instance) throws Exception {
+      if (stacking.getMetaData() == null) {
+         throw new IllegalStateException("The StackedClassifier was not built");
+      }
+
+      double[][] distributions = new double[models.length][];
+
+      for (int j = 0; j < models.length; j++) {
+         distributions[j] = models[j].distributionForInstance(instance);
+      }
+
+      Instance metaInstance = stacking.toMetaInstance(distributions, Instance.missingValue());
+      return metaClassifier.distributionForInstance(metaInstance);
+   }
+}
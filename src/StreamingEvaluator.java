@@ -0,0 +1,270 @@
+/**
+ * The StreamingEvaluator class classifies an arff file too large to be loaded into memory. The
+ * file is read one instance at a time with Weka's incremental ArffLoader and processed in chunks:
+ * every model first predicts the chunk (its votes are aggregated by Majority Voting and Weighted
+ * Majority Voting), then learns from it. The weights of Weighted Majority Voting are updated after
+ * every labeled instance and read at the start of every chunk, as the models themselves only learn
+ * once the chunk is predicted. Only one chunk is held in memory at a time, so the memory used does
+ * not depend on the size of the file. The first chunk is only learned from, since the models cannot
+ * predict before they have seen any instance.
+ * 
+ * Parameters are: models: the models to be evaluated. Each of them must be updateable.
+ * 
+ * chunkSize: the number of instances read before the models predict and learn from them.
+ * 
+ * majoritySink, weightedSink: receive the aggregated predictions of each chunk.
+ * 
+ * weighting: the weighting strategy of Weighted Majority Voting, learning from the predictions made
+ * on the stream.
+ * 
+ * aggrMatrices: the labeled predictions of Majority Voting and Weighted Majority Voting counted by
+ * actual and predicted class. They are published after every chunk, so the accuracy can be
+ * followed while the stream is read.
+ * 
+ * dataset: the relation name of the stream, which the metrics are published under.
+ */
+
+import java.io.File;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+public class StreamingEvaluator {
+   /** Number of chunks between two throughput reports */
+   private static final int REPORT_INTERVAL = 10;
+
+   private Classifier[] models;
+   private int chunkSize;
+   private ResultSink majoritySink;
+   private ResultSink weightedSink;
+   private String[] dataClasses;
+   private int[][] votes;
+   private int[] classCounters;
+   private double[] classTotals;
+   private WeightingStrategy weighting;
+   private long[] correct;
+   private ConfusionMatrix[] aggrMatrices;
+   private int[] aggrTies;
+   private long scored;
+   private long rows;
+   private int chunks;
+   private long start;
+   private String dataset;
+
+   public StreamingEvaluator(Classifier[] models, int chunkSize, ResultSink majoritySink,
+         ResultSink weightedSink) {
+      for (int i = 0; i < models.length; i++) {
+         if (!(models[i] instanceof UpdateableClassifier)) {
+            throw new IllegalArgumentException(
+                  models[i].getClass().getSimpleName() + " cannot learn incrementally");
+         }
+      }
+
+      this.models = models;
+      this.chunkSize = chunkSize;
+      this.majoritySink = majoritySink;
+      this.weightedSink = weightedSink;
+      this.votes = new int[models.length][chunkSize];
+      this.correct = new long[models.length];
+      this.aggrMatrices = new ConfusionMatrix[2];
+      this.aggrTies = new int[2];
+      this.weighting = new BucketWeighting();
+   }
+
+   public void setWeighting(WeightingStrategy weighting) {
+      this.weighting = weighting;
+   }
+
+   public void run(File arffFile) throws Exception {
+      ArffLoader loader = new ArffLoader();
+      loader.setFile(arffFile);
+
+      /** Set the class index as the index of the last attribute */
+      Instances structure = loader.getStructure();
+      structure.setClassIndex(structure.numAttributes() - 1);
+      dataset = structure.relationName();
+
+      dataClasses = new String[structure.numClasses()];
+      for (int i = 0; i < dataClasses.length; i++) {
+         dataClasses[i] = structure.classAttribute().value(i);
+      }
+      classCounters = new int[chunkSize * dataClasses.length];
+      classTotals = new double[chunkSize * dataClasses.length];
+      weighting.reset(models.length, dataClasses.length);
+      aggrMatrices[0] = new ConfusionMatrix(dataClasses.length);
+      aggrMatrices[1] = new ConfusionMatrix(dataClasses.length);
+
+      for (int i = 0; i < models.length; i++) {
+         models[i].buildClassifier(new Instances(structure, 0));
+      }
+
+      start = System.nanoTime();
+      Instances chunk = new Instances(structure, chunkSize);
+      Instance instance;
+
+      while ((instance = loader.getNextInstance(structure)) != null) {
+         chunk.add(instance);
+
+         if (chunk.numInstances() == chunkSize) {
+            processChunk(chunk);
+            chunk.delete();
+         }
+      }
+
+      if (chunk.numInstances() > 0) {
+         processChunk(chunk);
+      }
+
+      endSinks();
+      printReport();
+   }
+
+   /** Let every model predict the chunk, aggregate the votes, then let the models learn from it */
+   private void processChunk(Instances chunk) throws Exception {
+      int size = chunk.numInstances();
+
+      if (rows > 0) {
+         int[] majorityWeights = new int[models.length];
+         int[] predicted = new int[models.length];
+
+         /**
+          * Majority Voting gives every model a single vote, Weighted Majority Voting weighs the models
+          * by what they predicted so far on the stream
+          */
+         for (int j = 0; j < models.length; j++) {
+            majorityWeights[j] = 1;
+         }
+         double[][] weights = WeightingStrategies.getWeights(weighting, models.length,
+               dataClasses.length);
+
+         for (int i = 0; i < size; i++) {
+            /** Hide the class value from the models */
+            Instance classMissing = (Instance) chunk.instance(i).copy();
+            classMissing.setDataset(chunk);
+            classMissing.setClassMissing();
+
+            for (int j = 0; j < models.length; j++) {
+               votes[j][i] = Utils.maxIndex(models[j].distributionForInstance(classMissing));
+               predicted[j] = votes[j][i];
+
+               if (!chunk.instance(i).classIsMissing()
+                     && votes[j][i] == (int) chunk.instance(i).classValue()) {
+                  correct[j]++;
+               }
+            }
+
+            if (!chunk.instance(i).classIsMissing()) {
+               weighting.update(predicted, (int) chunk.instance(i).classValue());
+            }
+         }
+
+         aggregate(chunk, 0, majorityWeights, null, majoritySink);
+         aggregate(chunk, 1, null, weights, weightedSink);
+
+         for (int i = 0; i < size; i++) {
+            if (!chunk.instance(i).classIsMissing()) {
+               scored++;
+            }
+         }
+      }
+
+      for (int i = 0; i < size; i++) {
+         if (!chunk.instance(i).classIsMissing()) {
+            for (int j = 0; j < models.length; j++) {
+               ((UpdateableClassifier) models[j]).updateClassifier(chunk.instance(i));
+            }
+         }
+      }
+
+      rows = rows + size;
+      chunks++;
+      if (chunks % REPORT_INTERVAL == 0) {
+         System.out.println("Rows: " + rows + " ("
+               + String.format("%.0f rows/sec", rows / getElapsedSeconds()) + ")");
+      }
+   }
+
+   /**
+    * Aggregate the votes of the chunk and hand the result to the sink. Majority Voting counts
+    * integer votes, Weighted Majority Voting the weights of the strategy (weights[model][class]).
+    */
+   private void aggregate(Instances chunk, int config, int[] unitWeights, double[][] weights,
+         ResultSink sink) throws Exception {
+      int size = chunk.numInstances();
+      VoteResult result = new VoteResult(config == 0 ? "Majority Voting" : "Weighted Majority Voting",
+            dataClasses, size, true);
+      result.setFirstInstance(rows);
+      if (weights == null) {
+         aggrTies[config] += Aggregator.countVotes(votes, unitWeights, 0, size, classCounters,
+               result);
+      } else {
+         aggrTies[config] += Aggregator.countWeightedVotes(votes, weights, 0, size, classTotals,
+               result);
+      }
+
+      for (int i = 0; i < size; i++) {
+         if (!chunk.instance(i).classIsMissing()) {
+            aggrMatrices[config].add((int) chunk.instance(i).classValue(),
+                  result.getFinalPredictions()[i]);
+         }
+      }
+      Metrics.get(dataset, "Streaming " + result.getTitle()).update(aggrMatrices[config]);
+
+      if (rows == chunkSize) {
+         sink.begin(result);
+      }
+      sink.write(result, 0, size);
+   }
+
+   private void endSinks() throws Exception {
+      ResultSink[] sinks = { majoritySink, weightedSink };
+
+      for (int config = 0; config < sinks.length; config++) {
+         VoteResult result = new VoteResult(
+               config == 0 ? "Majority Voting" : "Weighted Majority Voting", dataClasses, 0, true);
+         result.setTies(aggrTies[config]);
+
+         /** Nothing was predicted when the whole file fit in the first chunk */
+         if (rows <= chunkSize) {
+            sinks[config].begin(result);
+         }
+         sinks[config].end(result);
+      }
+   }
+
+   /** Display the throughput of the run and the accuracy reached on the stream */
+   private void printReport() {
+      System.out.println("*********************************");
+      System.out.println("Streaming Evaluation");
+      System.out.println("---------------------------------");
+      System.out.println("Rows read: " + rows + " (" + chunks + " chunks of " + chunkSize + ")");
+      System.out.println("Rows predicted: " + scored);
+      System.out.println("Elapsed time: " + String.format("%.1f s", getElapsedSeconds()));
+      System.out.println("Throughput: " + String.format("%.0f rows/sec", rows / getElapsedSeconds()));
+      System.out.println("---------------------------------");
+
+      for (int j = 0; j < models.length; j++) {
+         System.out.println(models[j].getClass().getSimpleName() + " Accuracy: "
+               + String.format("%.4f%%", getAccuracy(correct[j])));
+      }
+      System.out.println("Majority Voting Accuracy: "
+            + String.format("%.4f%%", getAccuracy(aggrMatrices[0].getCorrect())) + " (ties: "
+            + aggrTies[0] + ", kappa: " + String.format("%.4f", aggrMatrices[0].getKappa()) + ")");
+      System.out.println("Weighted Majority Voting Accuracy: "
+            + String.format("%.4f%%", getAccuracy(aggrMatrices[1].getCorrect())) + " (ties: "
+            + aggrTies[1] + ", kappa: " + String.format("%.4f", aggrMatrices[1].getKappa()) + ")");
+      System.out.println("*********************************");
+   }
+
+   private double getAccuracy(long correctCount) {
+      return scored == 0 ? 0.0 : 100.0 * correctCount / scored;
+   }
+
+   private double getElapsedSeconds() {
+      return Math.max(1, System.nanoTime() - start) / 1000000000.0;
+   }
+}
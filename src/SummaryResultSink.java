@@ -0,0 +1,36 @@
+/**
+ * The SummaryResultSink class displays how many instances were assigned to each class, and how many
+ * ended in a tie, instead of one line per instance.
+ */
+
+import java.io.IOException;
+
+public class SummaryResultSink implements ResultSink {
+   private long[] classTotals;
+   private long instances;
+
+   public void begin(VoteResult result) throws IOException {
+      classTotals = new long[result.getNumClasses() + 1];
+      instances = 0;
+   }
+
+   public void write(VoteResult result, int from, int to) throws IOException {
+      int[] finalPredictions = result.getFinalPredictions();
+
+      for (int instance = from; instance < to; instance++) {
+         classTotals[finalPredictions[instance]]++;
+      }
+      instances = instances + (to - from);
+   }
+
+   public void end(VoteResult result) throws IOException {
+      StringBuilder buffer = new StringBuilder();
+
+      buffer.append("Instances: " + instances + "\n");
+      for (int i = 0; i < classTotals.length; i++) {
+         buffer.append(result.getClassName(i) + ": " + classTotals[i] + "\n");
+      }
+
+      System.out.print(buffer);
+   }
+}
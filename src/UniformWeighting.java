@@ -0,0 +1,14 @@
+/**
+ * The UniformWeighting class gives every model a single vote, as Majority Voting does. Nothing is
+ * learned from the instances.
+ */
+
+public class UniformWeighting implements WeightingStrategy {
+   public void reset(int numModels, int numClasses) {}
+
+   public void update(int[] predicted, int actual) {}
+
+   public double getWeight(int model, int predictedClass) {
+      return 1.0;
+   }
+}
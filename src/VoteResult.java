@@ -0,0 +1,152 @@
+/**
+ * The VoteResult class holds the outcome of an aggregation run without any formatting, so that
+ * result sinks can display or store it however they need.
+ * 
+ * Parameters are: title: the name of the aggregation method (e.g. Majority Voting).
+ * 
+ * dataClasses: classes (in String) of the arff file.
+ * 
+ * likelihood: the likelihood (in percent) of each class per instance, laid out instance by instance.
+ * A class that received no vote has a likelihood of -1. It is null when the method only produces a
+ * single class per instance.
+ * 
+ * predictions: the index of the class with the highest likelihood per instance.
+ * 
+ * finalPredictions: same as predictions, except that ties are set to the index numClasses ("NONE").
+ * 
+ * ties: the number of instances that ended in a tie.
+ * 
+ * confusionMatrix: the predictions counted by actual and predicted class.
+ * 
+ * finalConfusionMatrix: the final predictions counted by actual and predicted class, ties being
+ * left without a prediction.
+ * 
+ * firstInstance: the position in the dataset of the first instance held, for results produced one
+ * chunk of the dataset at a time.
+ * 
+ * evaluations: the number of predictions of base models the aggregation used, for a Cascade that
+ * stops before every model is asked; 0 when every prediction was used.
+ * 
+ * cost: the time (in milliseconds) the base models took to make these predictions.
+ */
+
+public class VoteResult {
+   private String title;
+   private String[] dataClasses;
+   private double[] likelihood;
+   private int[] predictions;
+   private int[] finalPredictions;
+   private int numInstances;
+   private int numClasses;
+   private int ties;
+   private ConfusionMatrix confusionMatrix;
+   private ConfusionMatrix finalConfusionMatrix;
+   private long firstInstance;
+   private long evaluations;
+   private double cost;
+
+   public VoteResult(String title, String[] dataClasses, int numInstances, boolean hasLikelihood) {
+      this.title = title;
+      this.dataClasses = dataClasses;
+      this.numInstances = numInstances;
+      this.numClasses = dataClasses.length;
+      this.likelihood = hasLikelihood ? new double[numInstances * numClasses] : null;
+      this.predictions = new int[numInstances];
+      this.finalPredictions = new int[numInstances];
+      this.ties = 0;
+   }
+
+   /** Get the name of the predicted class, or "NONE" for a tie */
+   public String getClassName(int classIndex) {
+      return classIndex == numClasses ? "NONE" : dataClasses[classIndex];
+   }
+
+   /** Get the (1-based) number of the instance in the dataset */
+   public long getInstanceNumber(int instance) {
+      return firstInstance + instance + 1;
+   }
+
+   public boolean hasLikelihood() {
+      return this.likelihood != null;
+   }
+
+   public double getLikelihood(int instance, int classIndex) {
+      return this.likelihood[instance * numClasses + classIndex];
+   }
+
+   public String getTitle() {
+      return this.title;
+   }
+
+   public String[] getDataClasses() {
+      return this.dataClasses;
+   }
+
+   public double[] getLikelihood() {
+      return this.likelihood;
+   }
+
+   public int[] getPredictions() {
+      return this.predictions;
+   }
+
+   public int[] getFinalPredictions() {
+      return this.finalPredictions;
+   }
+
+   public int getNumInstances() {
+      return this.numInstances;
+   }
+
+   public int getNumClasses() {
+      return this.numClasses;
+   }
+
+   public int getTies() {
+      return this.ties;
+   }
+
+   public void setTies(int ties) {
+      this.ties = ties;
+   }
+
+   public ConfusionMatrix getConfusionMatrix() {
+      return this.confusionMatrix;
+   }
+
+   public void setConfusionMatrix(ConfusionMatrix confusionMatrix) {
+      this.confusionMatrix = confusionMatrix;
+   }
+
+   public ConfusionMatrix getFinalConfusionMatrix() {
+      return this.finalConfusionMatrix;
+   }
+
+   public void setFinalConfusionMatrix(ConfusionMatrix finalConfusionMatrix) {
+      this.finalConfusionMatrix = finalConfusionMatrix;
+   }
+
+   public long getFirstInstance() {
+      return this.firstInstance;
+   }
+
+   public void setFirstInstance(long firstInstance) {
+      this.firstInstance = firstInstance;
+   }
+
+   public long getEvaluations() {
+      return this.evaluations;
+   }
+
+   public void setEvaluations(long evaluations) {
+      this.evaluations = evaluations;
+   }
+
+   public double getCost() {
+      return this.cost;
+   }
+
+   public void setCost(double cost) {
+      this.cost = cost;
+   }
+}
@@ -0,0 +1,70 @@
+/**
+ * The WeightingStrategies class creates the weighting strategy selected by name: "bucket"
+ * (default), "uniform", "accuracy", "logodds", "class" or "hedge". The Hedge strategy may be given
+ * its beta after a colon, e.g. "hedge:0.5".
+ */
+
+public class WeightingStrategies {
+   /** The beta of the Hedge strategy when none is given */
+   public static final double DEFAULT_BETA = 0.9;
+
+   public static WeightingStrategy create(String name) {
+      if (name == null || name.equals("bucket")) {
+         return new BucketWeighting();
+      } else if (name.equals("uniform")) {
+         return new UniformWeighting();
+      } else if (name.equals("accuracy")) {
+         return new AccuracyWeighting();
+      } else if (name.equals("logodds")) {
+         return new LogOddsWeighting();
+      } else if (name.equals("class")) {
+         return new ClassAccuracyWeighting();
+      } else if (name.equals("hedge")) {
+         return new HedgeWeighting(DEFAULT_BETA);
+      } else if (name.startsWith("hedge:")) {
+         return new HedgeWeighting(Double.parseDouble(name.substring("hedge:".length())));
+      }
+
+      throw new IllegalArgumentException("Unknown weighting strategy: " + name);
+   }
+
+   /**
+    * Fit the strategy on the predictions of the models (stores[j] holds those of the j-th model),
+    * all made on the same instances in the same order. Instances whose actual class is missing are
+    * skipped.
+    */
+   public static void fit(WeightingStrategy strategy, PredictionStore[] stores, int numClasses) {
+      int[] predicted = new int[stores.length];
+      int numInstances = stores.length == 0 ? 0 : stores[0].size();
+
+      strategy.reset(stores.length, numClasses);
+      for (int i = 0; i < numInstances; i++) {
+         int actual = stores[0].getActual(i);
+
+         if (actual < 0) {
+            continue;
+         }
+         for (int j = 0; j < stores.length; j++) {
+            predicted[j] = stores[j].getVote(i);
+         }
+         strategy.update(predicted, actual);
+      }
+   }
+
+   /**
+    * Get the weight every model gives to a vote for every class, laid out as weights[model][class],
+    * so that counting votes does not go through the strategy for every instance
+    */
+   public static double[][] getWeights(WeightingStrategy strategy, int numModels,
+         int numClasses) {
+      double[][] weights = new double[numModels][numClasses];
+
+      for (int j = 0; j < numModels; j++) {
+         for (int k = 0; k < numClasses; k++) {
+            weights[j][k] = strategy.getWeight(j, k);
+         }
+      }
+
+      return weights;
+   }
+}
@@ -0,0 +1,22 @@
+/**
+ * The WeightingStrategy interface decides how much the vote of each model of an ensemble weighs.
+ * The weights are learned from labeled instances, one at a time, so that they can be fitted on the
+ * predictions made during cross validation and then keep adapting as new labeled instances arrive,
+ * without training the models again. Learning from an instance costs O(models).
+ * 
+ * A strategy holds the state of its weights, so concurrent voting runs each need their own.
+ */
+
+public interface WeightingStrategy {
+   /** Forget every instance learned so far */
+   void reset(int numModels, int numClasses);
+
+   /**
+    * Learn from a labeled instance, given the class each model predicted for it (predicted[j] is
+    * the class predicted by the j-th model) and its actual class
+    */
+   void update(int[] predicted, int actual);
+
+   /** Get the weight of the vote the model casts for the predicted class */
+   double getWeight(int model, int predictedClass);
+}
@@ -0,0 +1,128 @@
+/**
+ * The CrossValidationTest class checks that the fold-parallel FoldCrossValidator and the
+ * CvCoordinator with its workers cross validate exactly as Weka's serial
+ * Evaluation.crossValidateModel does with the same seed: the same prediction for every instance, in
+ * the same order, and the same summary.
+ * 
+ * Parameters are: data: the small fixed dataset of small.arff.
+ */
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.evaluation.NominalPrediction;
+import weka.classifiers.lazy.IBk;
+import weka.core.FastVector;
+import weka.core.Instances;
+
+public class CrossValidationTest {
+   private static final int NUM_FOLDS = 5;
+   private static final int SEED = 3;
+
+   private Instances data;
+
+   @Before
+   public void setUp() throws Exception {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+            CrossValidationTest.class.getResourceAsStream("/small.arff"), "UTF-8"));
+
+      try {
+         data = new DataHandler(reader).getData();
+      } finally {
+         reader.close();
+      }
+   }
+
+   @Test
+   public void parallelFoldsMatchWeka() throws Exception {
+      FoldCrossValidator crossValidator = new FoldCrossValidator(NUM_FOLDS, SEED, 4);
+
+      try {
+         for (Classifier model : getModels()) {
+            assertSameEvaluation(crossValidateWithWeka(model),
+                  crossValidator.crossValidateModel(model, data));
+         }
+      } finally {
+         crossValidator.shutdown();
+      }
+   }
+
+   /** Timed folds never go through Weka, even without a pool */
+   @Test
+   public void timedFoldsMatchWeka() throws Exception {
+      FoldCrossValidator crossValidator = new FoldCrossValidator(NUM_FOLDS, SEED, 0);
+
+      for (Classifier model : getModels()) {
+         assertSameEvaluation(crossValidateWithWeka(model),
+               crossValidator.crossValidateModel(model, data, new PhaseTimer()));
+      }
+   }
+
+   @Test
+   public void workerFoldsMatchWeka() throws Exception {
+      CvCoordinator coordinator = new CvCoordinator(NUM_FOLDS, SEED, 0, 0, null, 60000);
+      Thread[] workers = new Thread[2];
+
+      try {
+         for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new CvWorker("127.0.0.1", coordinator.getPort(),
+                  coordinator.getToken()), "cv-slot-" + i);
+            workers[i].start();
+         }
+
+         for (Classifier model : getModels()) {
+            assertSameEvaluation(crossValidateWithWeka(model),
+                  coordinator.crossValidateModel(model, data));
+         }
+      } finally {
+         /** The workers stop once the coordinator is gone */
+         coordinator.shutdown();
+         for (Thread worker : workers) {
+            if (worker != null) {
+               worker.join(10000);
+            }
+         }
+      }
+   }
+
+   private static Classifier[] getModels() {
+      IBk ibk = new IBk();
+      ibk.setKNN(3);
+
+      return new Classifier[] { new NaiveBayes(), ibk };
+   }
+
+   private Evaluation crossValidateWithWeka(Classifier model) throws Exception {
+      Evaluation evaluation = new Evaluation(data);
+
+      evaluation.crossValidateModel(Classifier.makeCopy(model), data, NUM_FOLDS, new Random(SEED));
+      return evaluation;
+   }
+
+   private static void assertSameEvaluation(Evaluation expected, Evaluation actual) {
+      FastVector expectedPredictions = expected.predictions();
+      FastVector actualPredictions = actual.predictions();
+
+      assertEquals(expectedPredictions.size(), actualPredictions.size());
+      for (int i = 0; i < expectedPredictions.size(); i++) {
+         NominalPrediction wekaPrediction = (NominalPrediction) expectedPredictions.elementAt(i);
+         NominalPrediction prediction = (NominalPrediction) actualPredictions.elementAt(i);
+
+         assertEquals("Actual class of prediction " + i, wekaPrediction.actual(),
+               prediction.actual(), 0);
+         assertArrayEquals("Distribution of prediction " + i, wekaPrediction.distribution(),
+               prediction.distribution(), 0);
+      }
+      assertEquals(expected.toSummaryString(), actual.toSummaryString());
+   }
+}
@@ -0,0 +1,83 @@
+/**
+ * The FastKNNTest class checks that FastKNN, with the exact neighbor indexes, gives the class
+ * distributions IBk gives for the same number of neighbors. The points of ties.arff are repeated
+ * with different classes, so that neighbors are tied at the k-th distance: every tied neighbor
+ * votes, as in IBk.
+ * 
+ * Parameters are: data: the training data of ties.arff, which has no missing values.
+ */
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import weka.classifiers.lazy.IBk;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class FastKNNTest {
+   private static final int[] NEIGHBORS = { 1, 3, 5 };
+
+   private Instances data;
+
+   @Before
+   public void setUp() throws Exception {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+            FastKNNTest.class.getResourceAsStream("/ties.arff"), "UTF-8"));
+
+      try {
+         data = new DataHandler(reader).getData();
+      } finally {
+         reader.close();
+      }
+   }
+
+   @Test
+   public void linearSearchMatchesIBk() throws Exception {
+      assertMatchesIBk("linear");
+   }
+
+   @Test
+   public void kdTreeMatchesIBk() throws Exception {
+      assertMatchesIBk("kdtree");
+   }
+
+   /**
+    * Compare the distributions of every training instance, and of every point of the grid the
+    * training instances lie on. The grid stays within the ranges of the training data, which IBk
+    * widens to take in the instances it classifies.
+    */
+   private void assertMatchesIBk(String indexType) throws Exception {
+      for (int k : NEIGHBORS) {
+         FastKNN fastKNN = new FastKNN();
+         fastKNN.setOptions(new String[] { "-K", String.valueOf(k), "-I", indexType });
+         fastKNN.buildClassifier(data);
+         IBk ibk = fastKNN.toIBk();
+         ibk.buildClassifier(data);
+
+         for (int i = 0; i < data.numInstances(); i++) {
+            assertSameDistribution(indexType, k, ibk, fastKNN, data.instance(i));
+         }
+         for (int x = 0; x <= 3; x++) {
+            for (int y = 0; y <= 3; y++) {
+               for (int colour = 0; colour < 2; colour++) {
+                  Instance query =
+                        new Instance(1, new double[] { x, y, colour, Instance.missingValue() });
+                  query.setDataset(data);
+                  assertSameDistribution(indexType, k, ibk, fastKNN, query);
+               }
+            }
+         }
+      }
+   }
+
+   private static void assertSameDistribution(String indexType, int k, IBk ibk, FastKNN fastKNN,
+         Instance query) throws Exception {
+      assertArrayEquals(indexType + ", k = " + k + ", " + query, ibk.distributionForInstance(query),
+            fastKNN.distributionForInstance(query), 1e-9);
+   }
+}